@@ -0,0 +1,70 @@
+package jetbrains.buildServer.clouds.vmware.bench;
+
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.mo.Datacenter;
+import com.vmware.vim25.mo.ManagedEntity;
+import com.vmware.vim25.mo.VirtualMachine;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnectorImpl;
+import jetbrains.buildServer.clouds.vmware.connector.VmwareInstance;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import jetbrains.buildServer.clouds.vmware.stubs.FakeModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Connector which runs the real inventory processing over a synthetic payload.
+ *
+ * Unlike FakeApiConnector, it doesn't override findAllVirtualMachines, so the property sets go through the same mapping as on a server.
+ * Datacenters and image source VMs are taken from {@link FakeModel}.
+ */
+public class BenchApiConnector extends VMWareApiConnectorImpl {
+  private static final String VM_TYPE = VirtualMachine.class.getSimpleName();
+
+  @NotNull private final ObjectContent[] myVirtualMachines;
+
+  public BenchApiConnector(@NotNull final ObjectContent[] virtualMachines) throws MalformedURLException {
+    super(new URL("http://localhost:9999"), "", "", VmwareInventoryPayload.SERVER_UUID, VmwareInventoryPayload.PROFILE_ID, null, null);
+    myVirtualMachines = virtualMachines;
+  }
+
+  @Override
+  public void test() throws VmwareCheckedCloudException {
+
+  }
+
+  @NotNull
+  public Collection<VmwareInstance> loadVirtualMachines() throws VmwareCheckedCloudException {
+    return findAllVirtualMachines();
+  }
+
+  @Override
+  protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) {
+    return VM_TYPE.equals(typeinfo[0][0]) ? myVirtualMachines : new ObjectContent[0];
+  }
+
+  @Override
+  protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+    return findAllEntitiesAsMapOld(instanceType).values();
+  }
+
+  @Override
+  protected <T extends ManagedEntity> Map<String, T> findAllEntitiesAsMapOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+    if (instanceType == Datacenter.class) {
+      return (Map<String, T>)FakeModel.instance().getDatacenters();
+    } else if (instanceType == VirtualMachine.class) {
+      return (Map<String, T>)FakeModel.instance().getVms();
+    }
+    throw new IllegalArgumentException("Unknown entity type: " + instanceType.getCanonicalName());
+  }
+
+  @Override
+  protected Map<String, VirtualMachine> searchVMsByNames(@NotNull final Collection<String> names, @Nullable final Datacenter dc) throws VmwareCheckedCloudException {
+    return names.stream().map(name -> FakeModel.instance().getVirtualMachine(name)).collect(Collectors.toMap(VirtualMachine::getName, Function.identity()));
+  }
+}
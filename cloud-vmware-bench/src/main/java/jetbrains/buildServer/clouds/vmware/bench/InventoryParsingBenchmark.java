@@ -0,0 +1,82 @@
+package jetbrains.buildServer.clouds.vmware.bench;
+
+import com.vmware.vim25.ArrayOfOptionValue;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.VirtualMachinePowerState;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.clouds.vmware.connector.VmwareInstance;
+import jetbrains.buildServer.clouds.vmware.stubs.FakeModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of turning the VM property sets received from vCenter into {@link VmwareInstance}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryParsingBenchmark {
+
+  @Param({"1000", "10000", "50000"})
+  public int vmCount;
+
+  @Param({"60"})
+  public int extraConfigSize;
+
+  private BenchApiConnector myConnector;
+  private String[] myNames;
+  private String[] myIds;
+  private OptionValue[][] myExtraConfigs;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    FakeModel.instance().clear();
+    FakeModel.instance().addDatacenter("dc");
+    final ObjectContent[] payload = VmwareInventoryPayload.createVirtualMachines(vmCount, 20, extraConfigSize);
+    myConnector = new BenchApiConnector(payload);
+
+    myNames = new String[vmCount];
+    myIds = new String[vmCount];
+    myExtraConfigs = new OptionValue[vmCount][];
+    for (int i = 0; i < vmCount; i++) {
+      myIds[i] = payload[i].getObj().getVal();
+      for (DynamicProperty property : payload[i].getPropSet()) {
+        if ("name".equals(property.getName())) {
+          myNames[i] = (String)property.getVal();
+        } else if ("config.extraConfig".equals(property.getName())) {
+          myExtraConfigs[i] = ((ArrayOfOptionValue)property.getVal()).getOptionValue();
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    myConnector.dispose();
+    FakeModel.instance().clear();
+  }
+
+  /**
+   * DynamicProperty -> Map -> VmwareInstance mapping of the whole inventory
+   */
+  @Benchmark
+  public Collection<VmwareInstance> findAllVirtualMachines() throws Exception {
+    return myConnector.loadVirtualMachines();
+  }
+
+  /**
+   * extraConfig processing done by VmwareInstance for every VM
+   */
+  @Benchmark
+  public void extractProperties(final Blackhole bh) {
+    for (int i = 0; i < vmCount; i++) {
+      bh.consume(new VmwareInstance(myNames[i], myIds[i], myExtraConfigs[i], VirtualMachinePowerState.poweredOn, false, "", null, null, null, "datacenter-2"));
+    }
+  }
+}
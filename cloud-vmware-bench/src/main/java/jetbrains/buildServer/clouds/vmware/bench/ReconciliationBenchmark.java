@@ -0,0 +1,108 @@
+package jetbrains.buildServer.clouds.vmware.bench;
+
+import com.vmware.vim25.mo.Datacenter;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.clouds.CloudImageParameters;
+import jetbrains.buildServer.clouds.CloudProfile;
+import jetbrains.buildServer.clouds.base.AbstractInstance;
+import jetbrains.buildServer.clouds.base.tasks.UpdateInstancesTask;
+import jetbrains.buildServer.clouds.server.impl.profile.CloudClientParametersImpl;
+import jetbrains.buildServer.clouds.server.impl.profile.CloudImageDataImpl;
+import jetbrains.buildServer.clouds.server.impl.profile.CloudImageParametersImpl;
+import jetbrains.buildServer.clouds.vmware.*;
+import jetbrains.buildServer.clouds.vmware.stubs.FakeModel;
+import jetbrains.buildServer.clouds.vmware.tasks.VmwareUpdateTaskManager;
+import jetbrains.buildServer.util.FileUtil;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of a single update instances run: grouping the inventory by image and reconciling it with the known instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReconciliationBenchmark {
+  private static final String FOLDER_NAME = "cf";
+  private static final String POOL_NAME = "rp";
+
+  @Param({"1000", "10000", "50000"})
+  public int vmCount;
+
+  @Param({"20"})
+  public int imagesCount;
+
+  private BenchApiConnector myConnector;
+  private VMWareCloudClient myClient;
+  private File myIdxStorage;
+  private List<VmwareCloudImage> myImages;
+  private UpdateInstancesTask<VmwareCloudInstance, VmwareCloudImage, VMWareCloudClient> myUpdateTask;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    FakeModel.instance().clear();
+    FakeModel.instance().addDatacenter("dc");
+    FakeModel.instance().addFolder(FOLDER_NAME).setParent("dc", Datacenter.class);
+    FakeModel.instance().addResourcePool(POOL_NAME).setParentFolder(FOLDER_NAME);
+
+    myConnector = new BenchApiConnector(VmwareInventoryPayload.createVirtualMachines(vmCount, imagesCount, 60));
+    myIdxStorage = Files.createTempDirectory("vmware-bench").toFile();
+
+    final CloudProfile profile = VmwareTestUtils.createProfileFromProps(new CloudClientParametersImpl(Collections.emptyMap(), Collections.emptyList()));
+    final List<VmwareCloudImageDetails> imageDetails = new ArrayList<>();
+    for (int i = 0; i < imagesCount; i++) {
+      final String imageName = VmwareInventoryPayload.getImageName(i);
+      FakeModel.instance().addVM(imageName).setParentFolder(FOLDER_NAME);
+
+      final Map<String, String> params = new HashMap<>();
+      params.put("nickname", imageName);
+      params.put("sourceVmName", imageName);
+      params.put("snapshot", VmwareConstants.CURRENT_STATE);
+      params.put("folder", FOLDER_NAME);
+      params.put("pool", POOL_NAME);
+      params.put("behaviour", CloneBehaviour.FRESH_CLONE.toString());
+      params.put("maxInstances", String.valueOf(vmCount));
+      final CloudImageParameters imageParameters = new CloudImageParametersImpl(new CloudImageDataImpl(params), profile.getProjectId(), UUID.randomUUID().toString());
+      imageDetails.add(new VmwareCloudImageDetails(imageParameters));
+    }
+
+    myClient = new VMWareCloudClient(profile, myConnector, new VmwareUpdateTaskManager(), myIdxStorage);
+    // scheduled runs must not interfere with the measured ones
+    myClient.populateImagesData(imageDetails, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+    while (!myClient.isInitialized()) {
+      Thread.sleep(10);
+    }
+    myImages = new ArrayList<>(myClient.getImages());
+    myUpdateTask = new UpdateInstancesTask<>(myConnector, myClient);
+    myUpdateTask.run();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    myClient.dispose();
+    myConnector.dispose();
+    FileUtil.delete(myIdxStorage);
+    FakeModel.instance().clear();
+  }
+
+  /**
+   * Inventory load and grouping of the VMs by image
+   */
+  @Benchmark
+  public Map<VmwareCloudImage, Map<String, AbstractInstance>> fetchInstances() throws Exception {
+    return myConnector.fetchInstances(myImages);
+  }
+
+  /**
+   * Full update run over already known instances, i.e. the steady state of a running server
+   */
+  @Benchmark
+  public void updateInstances() {
+    myUpdateTask.run();
+  }
+}
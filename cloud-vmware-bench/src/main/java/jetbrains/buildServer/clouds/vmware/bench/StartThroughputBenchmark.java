@@ -0,0 +1,89 @@
+package jetbrains.buildServer.clouds.vmware.bench;
+
+import com.vmware.vim25.mo.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.clouds.base.connector.CloudAsyncTaskExecutor;
+import jetbrains.buildServer.clouds.base.connector.CloudTaskLane;
+import jetbrains.buildServer.clouds.base.connector.TaskCallbackHandler;
+import jetbrains.buildServer.clouds.vmware.connector.VmwareTaskWrapper;
+import jetbrains.buildServer.clouds.vmware.stubs.FakeModel;
+import jetbrains.buildServer.clouds.vmware.stubs.FakeVirtualMachine;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Time to process a burst of concurrent instance starts in {@link CloudAsyncTaskExecutor}.
+ *
+ * Every start powers on a fake VM after {@link #callLatencyMs}, which stands for the blocking SOAP round trip.
+ * The virtual threads mode requires Java 21+, on older JVMs it falls back to the platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartThroughputBenchmark {
+  private static final String THREADS_PROPERTY = "teamcity.vmware.profile.async.threads";
+  private static final String DELAY_PROPERTY = "teamcity.vmware.profile.async.delay.millis";
+
+  @Param({"platform-2", "platform-32", "virtual"})
+  public String mode;
+
+  @Param({"500"})
+  public int concurrentStarts;
+
+  @Param({"20"})
+  public int callLatencyMs;
+
+  private CloudAsyncTaskExecutor myExecutor;
+  private List<FakeVirtualMachine> myVms;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final boolean virtual = "virtual".equals(mode);
+    System.setProperty(CloudAsyncTaskExecutor.VIRTUAL_THREADS_PROPERTY, String.valueOf(virtual));
+    System.setProperty(THREADS_PROPERTY, virtual ? "2" : mode.substring("platform-".length()));
+    System.setProperty(DELAY_PROPERTY, "10");
+    myExecutor = new CloudAsyncTaskExecutor("Start throughput benchmark");
+  }
+
+  @Setup(Level.Invocation)
+  public void createVms() {
+    FakeModel.instance().clear();
+    myVms = new ArrayList<>(concurrentStarts);
+    for (int i = 0; i < concurrentStarts; i++) {
+      myVms.add(FakeModel.instance().addVM("vm-" + i));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    myExecutor.dispose();
+    FakeModel.instance().clear();
+  }
+
+  @Benchmark
+  public void startInstances() throws InterruptedException {
+    final CountDownLatch completed = new CountDownLatch(concurrentStarts);
+    final TaskCallbackHandler handler = new TaskCallbackHandler() {
+      @Override
+      public void onComplete() {
+        completed.countDown();
+      }
+    };
+    for (FakeVirtualMachine vm : myVms) {
+      myExecutor.executeAsync(CloudTaskLane.START, new VmwareTaskWrapper(() -> powerOn(vm), VmwareTaskWrapper.POWER_ON, "Start " + vm.getName()), handler);
+    }
+    if (!completed.await(5, TimeUnit.MINUTES)) {
+      throw new IllegalStateException("Starts are not completed in 5 minutes");
+    }
+  }
+
+  private Task powerOn(final FakeVirtualMachine vm) throws Exception {
+    Thread.sleep(callLatencyMs);
+    return vm.powerOnVM_Task(null);
+  }
+}
@@ -0,0 +1,138 @@
+package jetbrains.buildServer.clouds.vmware.bench;
+
+import com.vmware.vim25.*;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import jetbrains.buildServer.clouds.vmware.VMWarePropertiesNames;
+import jetbrains.buildServer.clouds.vmware.VmwareConstants;
+import jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnector;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Synthetic RetrievePropertiesEx result with the same shape as the one returned by vCenter for virtual machines.
+ *
+ * Every VM carries the TeamCity keys, the guest info and a number of regular VMX keys in its extraConfig.
+ * VMs are spread across {@code imagesCount} images, every tenth VM is not a TeamCity clone.
+ */
+public class VmwareInventoryPayload {
+  public static final String SERVER_UUID = "bench-server-uuid";
+  public static final String PROFILE_ID = "bench-profile";
+  public static final String FOLDER_ID = "group-v3";
+
+  private static final String[] VMX_KEYS = {
+    "nvram", "pciBridge0.present", "svga.present", "pciBridge4.present", "pciBridge4.virtualDev", "pciBridge4.functions",
+    "pciBridge5.present", "pciBridge5.virtualDev", "pciBridge5.functions", "pciBridge6.present", "pciBridge6.virtualDev",
+    "pciBridge6.functions", "pciBridge7.present", "pciBridge7.virtualDev", "pciBridge7.functions", "hpet0.present",
+    "tools.upgrade.policy", "migrate.hostLogState", "migrate.migrationId", "migrate.hostLog", "sched.cpu.latencySensitivity",
+    "numa.autosize.cookie", "numa.autosize.vcpu.maxPerVirtualNode", "sched.swap.derivedName", "scsi0:0.redo",
+    "scsi0.pciSlotNumber", "ethernet0.pciSlotNumber", "vmci0.pciSlotNumber", "monitor.phys_bits_used", "softPowerOff",
+    "toolsInstallManager.lastInstallError", "toolsInstallManager.updateCounter", "vmware.tools.internalversion",
+    "vmware.tools.requiredversion", "vmware.tools.gapversion", "svga.guestBackedPrimaryAware", "guestOS.detailed.data",
+    "guestinfo.driver.vmxnet3.version", "guestinfo.vmtools.buildNumber", "guestinfo.vmtools.description",
+    "guestinfo.vmtools.versionNumber", "guestinfo.vmtools.versionString", "guestinfo.vmware.components.available",
+    "guestinfo.appInfo", "guestinfo.gc.status", "vmotion.checkpointFBSize", "vmotion.checkpointSVGAPrimarySize",
+    "cpuid.coresPerSocket", "viv.moid", "uuid.bios"
+  };
+
+  private VmwareInventoryPayload() {
+  }
+
+  @NotNull
+  public static String getImageName(final int imageIdx) {
+    return "image-" + imageIdx;
+  }
+
+  @NotNull
+  public static String getVmName(final int vmIdx, final int imagesCount) {
+    return getImageName(vmIdx % imagesCount) + "-" + (vmIdx / imagesCount + 1);
+  }
+
+  /**
+   * @param vmCount number of virtual machines
+   * @param imagesCount number of images the VMs are cloned from
+   * @param extraConfigSize number of extraConfig entries besides the TeamCity ones
+   */
+  @NotNull
+  public static ObjectContent[] createVirtualMachines(final int vmCount, final int imagesCount, final int extraConfigSize) {
+    final ObjectContent[] result = new ObjectContent[vmCount];
+    final ManagedObjectReference folder = createMor("Folder", FOLDER_ID);
+    final Calendar bootTime = Calendar.getInstance();
+    for (int i = 0; i < vmCount; i++) {
+      final String vmName = getVmName(i, imagesCount);
+      final boolean clone = i % 10 != 0;
+      final List<DynamicProperty> props = new ArrayList<>();
+      props.add(createProperty("name", vmName));
+      final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+      extraConfig.setOptionValue(createExtraConfig(i, vmName, getImageName(i % imagesCount), clone, extraConfigSize));
+      props.add(createProperty("config.extraConfig", extraConfig));
+      props.add(createProperty("config.template", false));
+      props.add(createProperty("config.changeVersion", "2026-10-18T10:00:00." + i + "Z"));
+      props.add(createProperty("runtime.powerState", i % 3 == 0 ? VirtualMachinePowerState.poweredOff : VirtualMachinePowerState.poweredOn));
+      props.add(createProperty("runtime.bootTime", bootTime));
+      props.add(createProperty("guest.ipAddress", "10.0." + (i / 250 % 250) + "." + (i % 250)));
+      props.add(createProperty("parent", folder));
+
+      final ObjectContent oc = new ObjectContent();
+      oc.setObj(createMor("VirtualMachine", "vm-" + (1000 + i)));
+      oc.setPropSet(props.toArray(new DynamicProperty[0]));
+      result[i] = oc;
+    }
+    return result;
+  }
+
+  @NotNull
+  private static OptionValue[] createExtraConfig(final int vmIdx,
+                                                 @NotNull final String vmName,
+                                                 @NotNull final String imageName,
+                                                 final boolean clone,
+                                                 final int extraConfigSize) {
+    final List<OptionValue> options = new ArrayList<>();
+    for (int i = 0; i < extraConfigSize; i++) {
+      final String key = i < VMX_KEYS.length ? VMX_KEYS[i] : "ethernet" + (i - VMX_KEYS.length) + ".present";
+      options.add(createOption(key, i % 2 == 0 ? "TRUE" : String.valueOf(vmIdx * 31 + i)));
+    }
+    if (clone) {
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_CLONED_INSTANCE, "true"));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_VM_NAME, imageName));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_ID, imageName));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_VM_ID, "vm-1"));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SNAPSHOT, VmwareConstants.CURRENT_STATE));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_CHANGE_VERSION, "2026-10-18T09:00:00.0Z"));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_PROFILE_ID, PROFILE_ID));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_SERVER_UUID, SERVER_UUID));
+      options.add(createOption(VMWareApiConnector.TEAMCITY_VMWARE_WARM_POOL, ""));
+      options.add(createOption(VMWarePropertiesNames.AGENT_NAME, vmName));
+      options.add(createOption(VMWarePropertiesNames.INSTANCE_NAME, vmName));
+      options.add(createOption(VMWarePropertiesNames.IMAGE_NAME, imageName));
+      options.add(createOption(VMWarePropertiesNames.SERVER_URL, "https://teamcity.example.com"));
+      options.add(createOption(VMWarePropertiesNames.AUTH_TOKEN, Integer.toHexString(vmIdx * 7919)));
+      options.add(createOption(VMWarePropertiesNames.USER_DATA, "eyJhZ2VudE5hbWUiOiJ" + vmIdx));
+    }
+    return options.toArray(new OptionValue[0]);
+  }
+
+  @NotNull
+  private static DynamicProperty createProperty(@NotNull final String name, @NotNull final Object value) {
+    final DynamicProperty property = new DynamicProperty();
+    property.setName(name);
+    property.setVal(value);
+    return property;
+  }
+
+  @NotNull
+  private static OptionValue createOption(@NotNull final String key, @NotNull final String value) {
+    final OptionValue option = new OptionValue();
+    option.setKey(key);
+    option.setValue(value);
+    return option;
+  }
+
+  @NotNull
+  private static ManagedObjectReference createMor(@NotNull final String type, @NotNull final String value) {
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(value);
+    return mor;
+  }
+}
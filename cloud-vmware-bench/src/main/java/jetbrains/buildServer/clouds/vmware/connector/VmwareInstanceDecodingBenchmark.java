@@ -0,0 +1,96 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.ArrayOfOptionValue;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.OptionValue;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.clouds.vmware.bench.VmwareInventoryPayload;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Allocations made while decoding VM property sets. Meant to be run with the GC profiler, see {@link #main(String[])},
+ * gc.alloc.rate.norm is the number of bytes allocated per inventory.
+ *
+ * Lives in the connector package to reach the package-private factory methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VmwareInstanceDecodingBenchmark {
+  private static final String DATACENTER_ID = "datacenter-2";
+
+  @Param({"10000"})
+  public int vmCount;
+
+  @Param({"60", "100"})
+  public int extraConfigSize;
+
+  private ObjectContent[] myPayload;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    myPayload = VmwareInventoryPayload.createVirtualMachines(vmCount, 20, extraConfigSize);
+  }
+
+  /**
+   * Intermediate map per VM, the way the inventory was decoded before. For reference
+   */
+  @Benchmark
+  public void propertyMap(final Blackhole bh) {
+    for (ObjectContent oc : myPayload) {
+      final Map<String, Object> mappedProperties = Arrays.stream(oc.getPropSet()).collect(Collectors.toMap(
+        DynamicProperty::getName, DynamicProperty::getVal
+      ));
+      final VmwareInstanceRecord.Builder builder = new VmwareInstanceRecord.Builder();
+      mappedProperties.forEach(builder::set);
+      bh.consume(VMWareApiConnectorImpl.createVmwareInstance(oc.getObj().getVal(), builder, DATACENTER_ID));
+    }
+  }
+
+  /**
+   * Direct decoding of the property set
+   */
+  @Benchmark
+  public void propertySet(final Blackhole bh) {
+    for (ObjectContent oc : myPayload) {
+      bh.consume(VMWareApiConnectorImpl.createVmwareInstance(oc.getObj().getVal(), oc.getPropSet(), DATACENTER_ID));
+    }
+  }
+
+  /**
+   * Copy of all extraConfig options, which VmwareInstance used to keep. For reference
+   */
+  @Benchmark
+  public void fullExtraConfigCopy(final Blackhole bh) {
+    for (ObjectContent oc : myPayload) {
+      for (DynamicProperty property : oc.getPropSet()) {
+        if (property.getVal() instanceof ArrayOfOptionValue) {
+          final Map<String, String> properties = new HashMap<>();
+          for (OptionValue optionValue : ((ArrayOfOptionValue)property.getVal()).getOptionValue()) {
+            properties.put(optionValue.getKey(), String.valueOf(optionValue.getValue()));
+          }
+          bh.consume(properties);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+                 .include(VmwareInstanceDecodingBenchmark.class.getSimpleName())
+                 .addProfiler(GCProfiler.class)
+                 .build()).run();
+  }
+}
@@ -0,0 +1,76 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.*;
+import java.util.*;
+import jetbrains.buildServer.clouds.vmware.bench.VmwareInventoryPayload;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Retained size of the cached virtual machines, measured with JOL.
+ *
+ * Compares {@link VmwareInstance} with the layout it had before {@link VmwareInstanceRecord} was introduced:
+ * the raw extraConfig array, a map of all extraConfig options, a {@link Calendar} and the parent reference.
+ *
+ * Run with: java -cp cloud-vmware-bench/target/benchmarks.jar jetbrains.buildServer.clouds.vmware.connector.VmwareInstanceFootprint [vmCount]
+ */
+public class VmwareInstanceFootprint {
+  private static final String DATACENTER_ID = "datacenter-2";
+
+  public static void main(String[] args) {
+    final int vmCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+    final List<Object> before = new ArrayList<>(vmCount);
+    for (ObjectContent oc : VmwareInventoryPayload.createVirtualMachines(vmCount, 20, 60)) {
+      before.add(new LegacyLayout(oc, DATACENTER_ID));
+    }
+    final List<VmwareInstance> after = new ArrayList<>(vmCount);
+    for (ObjectContent oc : VmwareInventoryPayload.createVirtualMachines(vmCount, 20, 60)) {
+      // a new string for every VM, the way they come from the parser
+      after.add(VMWareApiConnectorImpl.createVmwareInstance(oc.getObj().getVal(), oc.getPropSet(), new String(DATACENTER_ID)));
+    }
+
+    final long beforeSize = GraphLayout.parseInstance(before).totalSize();
+    final long afterSize = GraphLayout.parseInstance(after).totalSize();
+    System.out.println(String.format("%d VMs", vmCount));
+    System.out.println(String.format("before: %,d bytes (%,d per VM)", beforeSize, beforeSize / vmCount));
+    System.out.println(String.format("after:  %,d bytes (%,d per VM)", afterSize, afterSize / vmCount));
+    System.out.println(GraphLayout.parseInstance(after).toFootprint());
+  }
+
+  /**
+   * Fields VmwareInstance used to retain
+   */
+  private static class LegacyLayout {
+    private final String myName;
+    private final String myId;
+    private final OptionValue[] myExtraConfig;
+    private final VirtualMachinePowerState myPowerState;
+    private final boolean myIsTemplate;
+    private final String myChangeVersion;
+    private final Calendar myBootTime;
+    private final String myIpAddress;
+    private final ManagedObjectReference myParent;
+    private final String myDatacenterId;
+    private final Map<String, String> myProperties = new HashMap<>();
+
+    private LegacyLayout(final ObjectContent oc, final String datacenterId) {
+      final Map<String, Object> props = new HashMap<>();
+      for (DynamicProperty property : oc.getPropSet()) {
+        props.put(property.getName(), property.getVal());
+      }
+      myName = (String)props.get("name");
+      myId = oc.getObj().getVal();
+      myExtraConfig = ((ArrayOfOptionValue)props.get("config.extraConfig")).getOptionValue();
+      myPowerState = (VirtualMachinePowerState)props.get("runtime.powerState");
+      myIsTemplate = (Boolean)props.get("config.template");
+      myChangeVersion = (String)props.get("config.changeVersion");
+      myBootTime = (Calendar)((Calendar)props.get("runtime.bootTime")).clone();
+      myIpAddress = (String)props.get("guest.ipAddress");
+      myParent = (ManagedObjectReference)props.get("parent");
+      myDatacenterId = new String(datacenterId);
+      for (OptionValue optionValue : myExtraConfig) {
+        myProperties.put(optionValue.getKey(), String.valueOf(optionValue.getValue()));
+      }
+    }
+  }
+}
@@ -7,17 +7,21 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import jetbrains.buildServer.clouds.*;
 import jetbrains.buildServer.clouds.base.beans.CloudImageDetails;
 import jetbrains.buildServer.clouds.base.connector.CloudApiConnector;
 import jetbrains.buildServer.clouds.base.connector.CloudAsyncTaskExecutor;
+import jetbrains.buildServer.clouds.base.connector.CloudTaskLane;
 import jetbrains.buildServer.clouds.base.errors.CloudErrorMap;
 import jetbrains.buildServer.clouds.base.errors.SimpleErrorMessages;
 import jetbrains.buildServer.clouds.base.errors.TypedCloudErrorInfo;
 import jetbrains.buildServer.clouds.base.errors.UpdatableCloudErrorProvider;
+import jetbrains.buildServer.clouds.base.tasks.AdaptiveUpdateSchedule;
 import jetbrains.buildServer.clouds.base.tasks.UpdateInstancesTask;
 import jetbrains.buildServer.serverSide.AgentDescription;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -72,6 +76,9 @@ public abstract class AbstractCloudClient<G extends AbstractCloudInstance<T>, T
 
   @NotNull
   public CanStartNewInstanceResult canStartNewInstanceWithDetails(@NotNull final CloudImage baseImage) {
+    if (myAsyncTaskExecutor.isSaturated(CloudTaskLane.START)) {
+      return CanStartNewInstanceResult.no("Too many instance starts are waiting to be processed");
+    }
     final T image = (T)baseImage;
     return image.canStartNewInstanceWithDetails();
   }
@@ -89,11 +96,15 @@ public abstract class AbstractCloudClient<G extends AbstractCloudInstance<T>, T
     if (updateInstancesTask == null) {
       return;
     }
-    myAsyncTaskExecutor.submit("Populate images data", new Runnable() {
+    myAsyncTaskExecutor.submit(CloudTaskLane.HOUSEKEEPING, "Populate images data", new Runnable() {
       public void run() {
         try {
           updateInstancesTask.run();
-          myAsyncTaskExecutor.scheduleWithFixedDelay("Update instances", updateInstancesTask, initialDelayMs, delayMs, TimeUnit.MILLISECONDS);
+          if (TeamCityProperties.getBoolean(AdaptiveUpdateSchedule.ENABLED_PROPERTY)) {
+            scheduleUpdate(updateInstancesTask, new AdaptiveUpdateSchedule(myParameters.getProfileDescription(), delayMs), initialDelayMs);
+          } else {
+            myAsyncTaskExecutor.scheduleWithFixedDelay("Update instances", updateInstancesTask, initialDelayMs, delayMs, TimeUnit.MILLISECONDS);
+          }
         } catch (Throwable e) {
           LOG.warnAndDebugDetails("Error while updating cloud instances for profile " + myParameters.getProfileDescription(), e);
         } finally {
@@ -104,6 +115,32 @@ public abstract class AbstractCloudClient<G extends AbstractCloudInstance<T>, T
     });
   }
 
+  private void scheduleUpdate(@NotNull final UpdateInstancesTask<G, T, ?> updateInstancesTask,
+                              @NotNull final AdaptiveUpdateSchedule schedule,
+                              final long delayMs) {
+    try {
+      myAsyncTaskExecutor.schedule("Update instances", new Runnable() {
+        public void run() {
+          try {
+            updateInstancesTask.run();
+          } finally {
+            final boolean active = updateInstancesTask.hasInstancesInTransition() || updateInstancesTask.hasOperationsInProgress();
+            scheduleUpdate(updateInstancesTask, schedule, schedule.nextDelay(active));
+          }
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Updates of profile " + myParameters.getProfileDescription() + " are stopped: the client is disposed");
+    }
+  }
+
+  /**
+   * @return true if some cloud operations of this client are still in progress
+   */
+  public boolean hasOperationsInProgress() {
+    return myAsyncTaskExecutor.getExecutingTasksCount() > 0;
+  }
+
   protected abstract T checkAndCreateImage(@NotNull final D imageDetails);
 
   @NotNull
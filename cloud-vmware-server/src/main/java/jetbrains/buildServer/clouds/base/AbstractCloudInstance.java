@@ -35,6 +35,7 @@ public abstract class AbstractCloudInstance<T extends AbstractCloudImage> implem
   private final AtomicReference<Date> myStartDate = new AtomicReference<Date>(new Date());
   private final AtomicReference<Date> myStatusUpdateTime = new AtomicReference<>(new Date());
   private final AtomicReference<String> myNetworkIdentify = new AtomicReference<String>();
+  private final AtomicReference<InstanceStartTrace> myStartTrace = new AtomicReference<>();
 
   private final AtomicReference<String> myNameRef = new AtomicReference<>();
   private final AtomicReference<String> myInstanceIdRef = new AtomicReference<>();
@@ -103,6 +104,35 @@ public abstract class AbstractCloudInstance<T extends AbstractCloudImage> implem
     LOG.info(String.format("Changing %s(%x) status from %s to %s ", getName(), hashCode(), myStatus, status));
     myStatus.set(status);
     myStatusUpdateTime.set(new Date());
+    if (status == InstanceStatus.SCHEDULED_TO_START) {
+      myStartTrace.compareAndSet(null, new InstanceStartTrace());
+    } else if (status == InstanceStatus.ERROR || status == InstanceStatus.SCHEDULED_TO_STOP
+               || status == InstanceStatus.STOPPING || status == InstanceStatus.STOPPED) {
+      // the start has failed or was cancelled
+      myStartTrace.set(null);
+    }
+  }
+
+  /**
+   * @return trace of the current start or null if the instance is not being started
+   */
+  @Nullable
+  public InstanceStartTrace getStartTrace() {
+    return myStartTrace.get();
+  }
+
+  public void setStartTrace(@Nullable final InstanceStartTrace startTrace) {
+    myStartTrace.set(startTrace);
+  }
+
+  /**
+   * Finishes the start trace, if any, when the agent of this instance is registered
+   */
+  public void agentRegistered() {
+    final InstanceStartTrace trace = myStartTrace.getAndSet(null);
+    if (trace != null) {
+      trace.finish(getName(), getImageId());
+    }
   }
 
   @NotNull
@@ -124,6 +154,10 @@ public abstract class AbstractCloudInstance<T extends AbstractCloudImage> implem
 
   public void setNetworkIdentify(@NotNull final String networkIdentify) {
     myNetworkIdentify.set(networkIdentify);
+    final InstanceStartTrace trace = myStartTrace.get();
+    if (trace != null) {
+      trace.mark(InstanceStartTrace.GUEST_IP);
+    }
   }
 
   @Nullable
@@ -0,0 +1,77 @@
+package jetbrains.buildServer.clouds.base;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Phases of a single instance start, from scheduling till the agent registration.
+ *
+ * Phases are either marked when they are finished (the phase lasts since the end of the previous one)
+ * or added with the exact start and end times, as it is done for cloud tasks. Each phase is recorded once,
+ * the durations are published to {@link CloudMetrics#START_PHASE} per image when the agent is registered.
+ */
+public class InstanceStartTrace {
+  private static final Logger LOG = Logger.getInstance(InstanceStartTrace.class.getName());
+
+  public static final String SCHEDULING = "scheduling";
+  public static final String SOURCE_RESOLUTION = "source_resolution";
+  public static final String GUEST_IP = "guest_ip";
+  public static final String AGENT_REGISTRATION = "agent_registration";
+  public static final String TOTAL = "total";
+
+  private final long myScheduledTime;
+  private final Map<String, Long> myPhases = new LinkedHashMap<>();
+  private long myLastPhaseEnd;
+
+  public InstanceStartTrace() {
+    this(System.currentTimeMillis());
+  }
+
+  InstanceStartTrace(final long scheduledTime) {
+    myScheduledTime = scheduledTime;
+    myLastPhaseEnd = scheduledTime;
+  }
+
+  /**
+   * Records a phase that lasted since the end of the previous one
+   */
+  public void mark(@NotNull final String phase) {
+    mark(phase, System.currentTimeMillis());
+  }
+
+  synchronized void mark(@NotNull final String phase, final long time) {
+    addPhase(phase, myLastPhaseEnd, time);
+  }
+
+  public synchronized void addPhase(@NotNull final String phase, final long startTime, final long endTime) {
+    if (myPhases.containsKey(phase)) {
+      return;
+    }
+    myPhases.put(phase, Math.max(0, endTime - startTime));
+    myLastPhaseEnd = Math.max(myLastPhaseEnd, endTime);
+  }
+
+  @NotNull
+  public synchronized Map<String, Long> getPhases() {
+    return new LinkedHashMap<>(myPhases);
+  }
+
+  /**
+   * Marks the agent registration and publishes the phases
+   */
+  public void finish(@NotNull final String instanceName, @NotNull final String imageId) {
+    finish(instanceName, imageId, System.currentTimeMillis());
+  }
+
+  synchronized void finish(@NotNull final String instanceName, @NotNull final String imageId, final long time) {
+    mark(AGENT_REGISTRATION, time);
+    myPhases.put(TOTAL, time - myScheduledTime);
+    for (Map.Entry<String, Long> entry : myPhases.entrySet()) {
+      CloudMetrics.getInstance().recordSample(CloudMetrics.START_PHASE, entry.getValue(), "image", imageId, "phase", entry.getKey());
+    }
+    LOG.info(String.format("Agent of %s registered in %d ms after scheduling: %s", instanceName, time - myScheduledTime, myPhases));
+  }
+}
@@ -14,7 +14,7 @@ public interface AsyncCloudTask {
   /**
    * Consecutive execution of this method will makes no effect. Only first call of this method starts the executing.
    * All next calls just return the result
-   * @return result
+   * @return result or null, if the task is completed asynchronously and is not done yet (see {@link #isDone()})
    */
   CloudTaskResult executeOrGetResult();
 
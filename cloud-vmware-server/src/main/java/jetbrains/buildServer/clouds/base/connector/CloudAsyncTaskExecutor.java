@@ -3,17 +3,26 @@
 package jetbrains.buildServer.clouds.base.connector;
 
 import com.intellij.openapi.diagnostic.Logger;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.*;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.NamedThreadFactory;
 import jetbrains.buildServer.util.ThreadUtil;
 import jetbrains.buildServer.util.executors.ExecutorsFactory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
+ * Executes cloud operations and tracks their completion.
+ *
+ * Submitted tasks are queued in {@link CloudTaskLane}s and run by a separate pool of threads:
+ * a free thread takes the task from the lane with the highest priority which is below its concurrency limit.
+ * Scheduled tasks run on their own threads and are not affected by the lanes.
+ *
+ * With {@link #VIRTUAL_THREADS_PROPERTY} each lane task runs on its own virtual thread (Java 21+), so blocking vSphere calls
+ * don't need a large pool of platform threads. The number of lane tasks running at the same time is then limited by
+ * {@link #VIRTUAL_THREADS_LIMIT_PROPERTY} instead of the thread count.
+ *
  * @author Sergey.Pak
  *         Date: 7/29/2014
  *         Time: 3:51 PM
@@ -23,7 +32,15 @@ public class CloudAsyncTaskExecutor {
   private static final Logger LOG = Logger.getInstance(CloudAsyncTaskExecutor.class.getName());
   private static final long LONG_TASK_TIME = 60*1000l;
 
+  public static final String VIRTUAL_THREADS_PROPERTY = "teamcity.vmware.profile.async.virtual.threads"; // false by default
+  public static final String VIRTUAL_THREADS_LIMIT_PROPERTY = "teamcity.vmware.profile.async.virtual.threads.limit";
+  private static final int DEFAULT_VIRTUAL_THREADS_LIMIT = 1000;
+
   private final ScheduledExecutorService myExecutor;
+  private final ExecutorService myLaneExecutor;
+  private final int myThreadCount;
+  private final Map<CloudTaskLane, LaneState> myLanes = new EnumMap<>(CloudTaskLane.class);
+  private int myRunningCount; // guarded by myLanes
   private final ConcurrentMap<AsyncCloudTask, TaskCallbackHandler> myExecutingTasks;
   private final Map<AsyncCloudTask, Long> myLongTasks = new HashMap<AsyncCloudTask, Long>();
   private final String myPrefix;
@@ -35,18 +52,53 @@ public class CloudAsyncTaskExecutor {
 
     int threadCount = TeamCityProperties.getInteger("teamcity.vmware.profile.async.threads", 2);
     int delay = TeamCityProperties.getInteger("teamcity.vmware.profile.async.delay.millis", 300);
-    myExecuteAllAsync = threadCount > 1;
     myExecutor = ExecutorsFactory.newFixedScheduledDaemonExecutor(prefix, threadCount);
+    final ExecutorService virtualThreadExecutor = TeamCityProperties.getBoolean(VIRTUAL_THREADS_PROPERTY) ? createVirtualThreadExecutor() : null;
+    if (virtualThreadExecutor != null) {
+      myLaneExecutor = virtualThreadExecutor;
+      myThreadCount = Math.max(1, TeamCityProperties.getInteger(VIRTUAL_THREADS_LIMIT_PROPERTY, DEFAULT_VIRTUAL_THREADS_LIMIT));
+      LOG.info(String.format("%s: lane tasks will run on virtual threads, up to %d at the same time", prefix, myThreadCount));
+    } else {
+      myLaneExecutor = ExecutorsFactory.newFixedDaemonExecutor(prefix + " lanes", threadCount);
+      myThreadCount = threadCount;
+    }
+    myExecuteAllAsync = myThreadCount > 1;
+    for (CloudTaskLane lane : CloudTaskLane.values()) {
+      myLanes.put(lane, new LaneState(lane.getConcurrencyLimit(myThreadCount)));
+      CloudMetrics.getInstance().registerGauge(CloudMetrics.EXECUTOR_QUEUE, () -> getQueuedCount(lane), "executor", myPrefix, "lane", lane.getName());
+    }
     scheduleWithFixedDelay("Check for tasks", new Runnable() {
       public void run() {
         checkTasks();
       }
     }, 0, delay, TimeUnit.MILLISECONDS);
+    CloudMetrics.getInstance().registerGauge(CloudMetrics.EXECUTOR_RUNNING_TASKS, myExecutingTasks::size, "executor", myPrefix);
+  }
+
+  /**
+   * Looked up reflectively, the plugin is compiled for Java 8
+   * @return virtual thread per task executor or null if the JVM doesn't support virtual threads
+   */
+  @Nullable
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      LOG.warn("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", platform threads will be used");
+      return null;
+    }
   }
 
+  /**
+   * Executes the operation in the {@link CloudTaskLane#START} lane
+   */
   public void executeAsync(@NotNull final AsyncCloudTask operation, @NotNull final TaskCallbackHandler callbackHandler) {
+    executeAsync(CloudTaskLane.START, operation, callbackHandler);
+  }
+
+  public void executeAsync(@NotNull final CloudTaskLane lane, @NotNull final AsyncCloudTask operation, @NotNull final TaskCallbackHandler callbackHandler) {
     if (myExecuteAllAsync) {
-      submit(operation.getName(), ()->{
+      submit(lane, operation.getName(), ()->{
         myExecutingTasks.put(operation, callbackHandler);
         operation.executeOrGetResult();
       });
@@ -64,9 +116,34 @@ public class CloudAsyncTaskExecutor {
     }, initialDelay, delay, unit);
   }
 
+  public ScheduledFuture<?> schedule(@NotNull final String taskName, @NotNull final Runnable task, final long delay, final TimeUnit unit){
+    return myExecutor.schedule(new Runnable() {
+      public void run() {
+        NamedThreadFactory.executeWithNewThreadName(taskName, task);
+      }
+    }, delay, unit);
+  }
+
+  /**
+   * @return number of operations which are still in progress
+   */
+  public int getExecutingTasksCount() {
+    return myExecutingTasks.size();
+  }
+
+  /**
+   * Submits the task to the {@link CloudTaskLane#START} lane
+   */
   public Future<?> submit(final String taskName, @NotNull final Runnable r){
-    return myExecutor.submit(new Runnable() {
+    return submit(CloudTaskLane.START, taskName, r);
+  }
+
+  public Future<?> submit(@NotNull final CloudTaskLane lane, final String taskName, @NotNull final Runnable r){
+    final long submitTime = System.currentTimeMillis();
+    final FutureTask<Void> task = new FutureTask<>(new Runnable() {
       public void run() {
+        CloudMetrics.getInstance().recordTime(CloudMetrics.EXECUTOR_WAIT, System.currentTimeMillis() - submitTime,
+                                              "executor", myPrefix, "lane", lane.getName());
         try {
           LOG.debug("Starting " + taskName);
           NamedThreadFactory.executeWithNewThreadName(taskName, r);
@@ -74,7 +151,64 @@ public class CloudAsyncTaskExecutor {
           LOG.debug("Finished " + taskName);
         }
       }
-    });
+    }, null);
+    synchronized (myLanes) {
+      myLanes.get(lane).myQueue.add(task);
+      dispatch();
+    }
+    return task;
+  }
+
+  /**
+   * The tasks are accepted anyway, but the callers should not submit new starts into a saturated lane
+   * @return true if the number of queued tasks in the lane reached its queue size
+   */
+  public boolean isSaturated(@NotNull final CloudTaskLane lane) {
+    return getQueuedCount(lane) >= lane.getQueueSize();
+  }
+
+  private int getQueuedCount(@NotNull final CloudTaskLane lane) {
+    synchronized (myLanes) {
+      return myLanes.get(lane).myQueue.size();
+    }
+  }
+
+  // must be called under myLanes lock
+  private void dispatch() {
+    while (myRunningCount < myThreadCount) {
+      LaneState next = null;
+      for (LaneState state : myLanes.values()) {
+        if (!state.myQueue.isEmpty() && state.myRunning < state.myLimit) {
+          next = state;
+          break;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      final LaneState lane = next;
+      final Runnable task = lane.myQueue.poll();
+      lane.myRunning++;
+      myRunningCount++;
+      try {
+        myLaneExecutor.execute(() -> {
+          try {
+            task.run();
+          } finally {
+            synchronized (myLanes) {
+              lane.myRunning--;
+              myRunningCount--;
+              dispatch();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // the executor is disposed
+        lane.myRunning--;
+        myRunningCount--;
+        return;
+      }
+    }
   }
 
   private void checkTasks() {
@@ -126,8 +260,25 @@ public class CloudAsyncTaskExecutor {
   }
 
   public void dispose(){
+    for (CloudTaskLane lane : CloudTaskLane.values()) {
+      CloudMetrics.getInstance().unregisterGauge(CloudMetrics.EXECUTOR_QUEUE, "executor", myPrefix, "lane", lane.getName());
+    }
+    CloudMetrics.getInstance().unregisterGauge(CloudMetrics.EXECUTOR_RUNNING_TASKS, "executor", myPrefix);
     ThreadUtil.shutdownNowAndWait(myExecutor, myPrefix);
+    ThreadUtil.shutdownNowAndWait(myLaneExecutor, myPrefix + " lanes");
+    synchronized (myLanes) {
+      myLanes.values().forEach(state -> state.myQueue.clear());
+    }
     myExecutingTasks.clear();
   }
 
-}
\ No newline at end of file
+  private static class LaneState {
+    private final Deque<Runnable> myQueue = new ArrayDeque<>();
+    private final int myLimit;
+    private int myRunning;
+
+    private LaneState(final int limit) {
+      myLimit = limit;
+    }
+  }
+}
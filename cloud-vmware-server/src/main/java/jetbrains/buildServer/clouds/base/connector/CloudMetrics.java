@@ -0,0 +1,267 @@
+package jetbrains.buildServer.clouds.base.connector;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import jetbrains.buildServer.Used;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In-memory registry of timings and counters of cloud operations.
+ *
+ * Series are identified by the metric name and label pairs. Timings are kept as histograms with fixed buckets,
+ * samples which need percentiles are kept as summaries over the last {@link #SUMMARY_WINDOW} values.
+ * The registry is written in the Prometheus text format by {@link #writeTo(StringBuilder)}.
+ */
+public class CloudMetrics {
+
+  public static final String INVENTORY_FETCH = "vmware_inventory_fetch_ms";
+  public static final String TASK_DURATION = "vmware_task_duration_ms";
+  public static final String GOVERNOR_WAIT = "vmware_governor_wait_ms";
+  public static final String EXECUTOR_WAIT = "cloud_executor_wait_ms";
+  public static final String EXECUTOR_QUEUE = "cloud_executor_queue_size";
+  public static final String EXECUTOR_RUNNING_TASKS = "cloud_executor_running_tasks";
+  public static final String UPDATE_DURATION = "cloud_update_duration_ms";
+  // errors are counted each time they are reported, i.e. an error that persists is counted on every update
+  public static final String ERRORS = "cloud_errors_total";
+  public static final String START_PHASE = "cloud_instance_start_phase_ms";
+
+  // error types may contain messages, don't let them grow the registry infinitely
+  private static final int MAX_SERIES = 1000;
+
+  private static final int SUMMARY_WINDOW = 256;
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+  private static final long[] BUCKETS = {10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, 300000, 600000};
+
+  private static final CloudMetrics INSTANCE = new CloudMetrics();
+
+  private final ConcurrentMap<String, Histogram> myHistograms = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Counter> myCounters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Gauge> myGauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Summary> mySummaries = new ConcurrentHashMap<>();
+
+  @Used("Tests")
+  CloudMetrics() {
+  }
+
+  @NotNull
+  public static CloudMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param labels label names and values, one after another
+   */
+  public void recordTime(@NotNull final String name, final long durationMs, @NotNull final String... labels) {
+    final Histogram histogram = getOrCreate(myHistograms, seriesId(name, labels), () -> new Histogram(name));
+    if (histogram != null) {
+      histogram.record(durationMs);
+    }
+  }
+
+  public void increment(@NotNull final String name, @NotNull final String... labels) {
+    final Counter counter = getOrCreate(myCounters, seriesId(name, labels), () -> new Counter(name));
+    if (counter != null) {
+      counter.myValue.increment();
+    }
+  }
+
+  public void recordSample(@NotNull final String name, final long value, @NotNull final String... labels) {
+    final Summary summary = getOrCreate(mySummaries, seriesId(name, labels), () -> new Summary(name));
+    if (summary != null) {
+      summary.record(value);
+    }
+  }
+
+  /**
+   * @return the quantile of the recent samples or -1 if there are no samples
+   */
+  public long getQuantile(@NotNull final String name, final double quantile, @NotNull final String... labels) {
+    final Summary summary = mySummaries.get(seriesId(name, labels));
+    return summary == null ? -1 : summary.getQuantiles(quantile)[0];
+  }
+
+  @Nullable
+  private static <T> T getOrCreate(@NotNull final ConcurrentMap<String, T> map, @NotNull final String id, @NotNull final Supplier<T> factory) {
+    final T existing = map.get(id);
+    if (existing != null || map.size() >= MAX_SERIES) {
+      return existing;
+    }
+    return map.computeIfAbsent(id, k -> factory.get());
+  }
+
+  /**
+   * Registers a value which is read when the metrics are written. A gauge with the same name and labels is replaced
+   */
+  public void registerGauge(@NotNull final String name, @NotNull final Supplier<? extends Number> value, @NotNull final String... labels) {
+    myGauges.put(seriesId(name, labels), new Gauge(name, value));
+  }
+
+  public void unregisterGauge(@NotNull final String name, @NotNull final String... labels) {
+    myGauges.remove(seriesId(name, labels));
+  }
+
+  @Used("Tests")
+  long getCount(@NotNull final String name, @NotNull final String... labels) {
+    final String id = seriesId(name, labels);
+    final Histogram histogram = myHistograms.get(id);
+    if (histogram != null) {
+      return histogram.myCount.sum();
+    }
+    final Counter counter = myCounters.get(id);
+    return counter == null ? 0 : counter.myValue.sum();
+  }
+
+  public void writeTo(@NotNull final StringBuilder sb) {
+    String lastName = null;
+    for (Map.Entry<String, Counter> entry : new TreeMap<>(myCounters).entrySet()) {
+      lastName = writeType(sb, entry.getValue().myName, "counter", lastName);
+      sb.append(entry.getKey()).append(' ').append(entry.getValue().myValue.sum()).append('\n');
+    }
+    for (Map.Entry<String, Gauge> entry : new TreeMap<>(myGauges).entrySet()) {
+      lastName = writeType(sb, entry.getValue().myName, "gauge", lastName);
+      sb.append(entry.getKey()).append(' ').append(entry.getValue().myValue.get()).append('\n');
+    }
+    for (Map.Entry<String, Histogram> entry : new TreeMap<>(myHistograms).entrySet()) {
+      final Histogram histogram = entry.getValue();
+      lastName = writeType(sb, histogram.myName, "histogram", lastName);
+      final String labels = entry.getKey().substring(histogram.myName.length());
+      long cumulative = 0;
+      for (int i = 0; i <= BUCKETS.length; i++) {
+        cumulative += histogram.myBuckets.get(i);
+        final String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+        sb.append(histogram.myName).append("_bucket").append(withLabel(labels, "le", le)).append(' ').append(cumulative).append('\n');
+      }
+      sb.append(histogram.myName).append("_sum").append(labels).append(' ').append(histogram.mySum.sum()).append('\n');
+      sb.append(histogram.myName).append("_count").append(labels).append(' ').append(histogram.myCount.sum()).append('\n');
+    }
+    for (Map.Entry<String, Summary> entry : new TreeMap<>(mySummaries).entrySet()) {
+      final Summary summary = entry.getValue();
+      lastName = writeType(sb, summary.myName, "summary", lastName);
+      final String labels = entry.getKey().substring(summary.myName.length());
+      final long[] values = summary.getQuantiles(QUANTILES);
+      for (int i = 0; i < QUANTILES.length; i++) {
+        sb.append(summary.myName).append(withLabel(labels, "quantile", String.valueOf(QUANTILES[i]))).append(' ').append(values[i]).append('\n');
+      }
+      synchronized (summary) {
+        sb.append(summary.myName).append("_sum").append(labels).append(' ').append(summary.mySum).append('\n');
+        sb.append(summary.myName).append("_count").append(labels).append(' ').append(summary.myCount).append('\n');
+      }
+    }
+  }
+
+  private static String writeType(@NotNull final StringBuilder sb, @NotNull final String name, @NotNull final String type, final String lastName) {
+    if (!name.equals(lastName)) {
+      sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    return name;
+  }
+
+  @NotNull
+  private static String seriesId(@NotNull final String name, @NotNull final String[] labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be specified as name-value pairs");
+    }
+    if (labels.length == 0) {
+      return name;
+    }
+    final StringBuilder sb = new StringBuilder(name).append('{');
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+    }
+    return sb.append('}').toString();
+  }
+
+  @NotNull
+  private static String withLabel(@NotNull final String labels, @NotNull final String name, @NotNull final String value) {
+    final String label = name + "=\"" + value + "\"";
+    return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+  }
+
+  @NotNull
+  private static String escape(@NotNull final String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static class Histogram {
+    private final String myName;
+    private final AtomicLongArray myBuckets = new AtomicLongArray(BUCKETS.length + 1);
+    private final LongAdder mySum = new LongAdder();
+    private final LongAdder myCount = new LongAdder();
+
+    private Histogram(@NotNull final String name) {
+      myName = name;
+    }
+
+    private void record(final long value) {
+      int idx = 0;
+      while (idx < BUCKETS.length && value > BUCKETS[idx]) {
+        idx++;
+      }
+      myBuckets.incrementAndGet(idx);
+      mySum.add(value);
+      myCount.increment();
+    }
+  }
+
+  private static class Summary {
+    private final String myName;
+    private final long[] myWindow = new long[SUMMARY_WINDOW];
+    private long mySum;
+    private long myCount;
+
+    private Summary(@NotNull final String name) {
+      myName = name;
+    }
+
+    private synchronized void record(final long value) {
+      myWindow[(int)(myCount % SUMMARY_WINDOW)] = value;
+      mySum += value;
+      myCount++;
+    }
+
+    @NotNull
+    private synchronized long[] getQuantiles(@NotNull final double... quantiles) {
+      final long[] result = new long[quantiles.length];
+      if (myCount == 0) {
+        Arrays.fill(result, -1);
+        return result;
+      }
+      final long[] sorted = Arrays.copyOf(myWindow, (int)Math.min(myCount, SUMMARY_WINDOW));
+      Arrays.sort(sorted);
+      for (int i = 0; i < quantiles.length; i++) {
+        result[i] = sorted[(int)Math.max(0, Math.min(sorted.length - 1, Math.ceil(quantiles[i] * sorted.length) - 1))];
+      }
+      return result;
+    }
+  }
+
+  private static class Counter {
+    private final String myName;
+    private final LongAdder myValue = new LongAdder();
+
+    private Counter(@NotNull final String name) {
+      myName = name;
+    }
+  }
+
+  private static class Gauge {
+    private final String myName;
+    private final Supplier<? extends Number> myValue;
+
+    private Gauge(@NotNull final String name, @NotNull final Supplier<? extends Number> value) {
+      myName = name;
+      myValue = value;
+    }
+  }
+}
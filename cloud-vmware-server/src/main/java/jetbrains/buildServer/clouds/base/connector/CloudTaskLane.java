@@ -0,0 +1,56 @@
+package jetbrains.buildServer.clouds.base.connector;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lanes of {@link CloudAsyncTaskExecutor}, in the order of priority.
+ *
+ * Each lane has a limit of concurrently running tasks and a queue size after which it is considered saturated.
+ */
+public enum CloudTaskLane {
+  START("start"),
+  STOP("stop"),
+  DELETE("delete"),
+  HOUSEKEEPING("housekeeping");
+
+  private static final String PREFIX = "teamcity.vmware.profile.async.lane.";
+  private static final int DEFAULT_QUEUE_SIZE = 50;
+
+  @NotNull private final String myName;
+
+  CloudTaskLane(@NotNull final String name) {
+    myName = name;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  /**
+   * @param threadCount number of threads of the executor
+   * @return maximal number of tasks of this lane running at the same time
+   */
+  int getConcurrencyLimit(final int threadCount) {
+    final int defaultLimit;
+    switch (this) {
+      case DELETE:
+        defaultLimit = Math.max(1, threadCount / 2);
+        break;
+      case HOUSEKEEPING:
+        defaultLimit = 1;
+        break;
+      default:
+        defaultLimit = threadCount;
+    }
+    return Math.max(1, TeamCityProperties.getInteger(PREFIX + myName + ".limit", defaultLimit));
+  }
+
+  /**
+   * @return number of queued tasks after which the lane is saturated
+   */
+  int getQueueSize() {
+    return TeamCityProperties.getInteger(PREFIX + myName + ".queue.size", DEFAULT_QUEUE_SIZE);
+  }
+}
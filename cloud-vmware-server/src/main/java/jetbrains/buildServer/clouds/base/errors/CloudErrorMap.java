@@ -2,10 +2,14 @@
 
 package jetbrains.buildServer.clouds.base.errors;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import jetbrains.buildServer.clouds.CloudErrorInfo;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
 import org.jetbrains.annotations.Nullable;
 
 /**
@@ -16,6 +20,8 @@ import org.jetbrains.annotations.Nullable;
 public class CloudErrorMap implements UpdatableCloudErrorProvider {
   private final ErrorMessageUpdater myMessageUpdater;
   private final AtomicReference<CloudErrorInfo> myErrorInfo = new AtomicReference<>();
+  // error types of the previous update, the metric counts only the errors which appeared since then
+  private final AtomicReference<Set<String>> myErrorTypes = new AtomicReference<>(Collections.emptySet());
 
   public CloudErrorMap(final ErrorMessageUpdater messageUpdater) {
     myMessageUpdater = messageUpdater;
@@ -23,6 +29,12 @@ public class CloudErrorMap implements UpdatableCloudErrorProvider {
 
   public void updateErrors(@Nullable final TypedCloudErrorInfo... errors){
     final Map<String, TypedCloudErrorInfo> errorInfoMap = mapFromArray(errors);
+    final Set<String> previousTypes = myErrorTypes.getAndSet(new HashSet<>(errorInfoMap.keySet()));
+    for (String type : errorInfoMap.keySet()) {
+      if (!previousTypes.contains(type)) {
+        CloudMetrics.getInstance().increment(CloudMetrics.ERRORS, "type", type);
+      }
+    }
     if (errors != null && errorInfoMap.size() > 0) {
       if (errorInfoMap.size() == 1) {
         final TypedCloudErrorInfo err = errorInfoMap.values().iterator().next();
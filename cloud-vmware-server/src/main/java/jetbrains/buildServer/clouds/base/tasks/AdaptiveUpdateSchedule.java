@@ -0,0 +1,67 @@
+package jetbrains.buildServer.clouds.base.tasks;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Calculates delays between update instances runs.
+ *
+ * While some instances are starting or stopping (or cloud operations are in progress), the updates run with the minimal delay.
+ * When idle, the delay returns to the regular one and then doubles on every run up to the maximal delay.
+ */
+public class AdaptiveUpdateSchedule {
+  private static final Logger LOG = Logger.getInstance(AdaptiveUpdateSchedule.class.getName());
+
+  public static final String ENABLED_PROPERTY = "teamcity.vmware.update.adaptive"; // false by default
+  public static final String MIN_DELAY_PROPERTY = "teamcity.vmware.update.min.delay.ms";
+  public static final String MAX_DELAY_PROPERTY = "teamcity.vmware.update.max.delay.ms";
+  private static final long DEFAULT_MIN_DELAY = 5 * 1000;
+  private static final long DEFAULT_MAX_DELAY = 5 * 60 * 1000;
+
+  @NotNull private final String myName;
+  private final long myRegularDelay;
+  private long myCurrentDelay;
+  private boolean myActive;
+
+  /**
+   * @param name name used in logs
+   * @param regularDelay delay used when nothing is happening, the backoff starts from it
+   */
+  public AdaptiveUpdateSchedule(@NotNull final String name, final long regularDelay) {
+    myName = name;
+    myRegularDelay = regularDelay;
+    myCurrentDelay = regularDelay;
+  }
+
+  /**
+   * @param active whether there are instances in transition or operations in progress
+   * @return delay before the next run, ms
+   */
+  public synchronized long nextDelay(final boolean active) {
+    final long minDelay = Math.min(TeamCityProperties.getLong(MIN_DELAY_PROPERTY, DEFAULT_MIN_DELAY), myRegularDelay);
+    final long maxDelay = Math.max(TeamCityProperties.getLong(MAX_DELAY_PROPERTY, DEFAULT_MAX_DELAY), myRegularDelay);
+    if (active) {
+      myCurrentDelay = minDelay;
+    } else if (myActive) {
+      myCurrentDelay = myRegularDelay;
+    } else {
+      myCurrentDelay = Math.min(myCurrentDelay * 2, maxDelay);
+    }
+    if (active != myActive) {
+      LOG.info(String.format("Updates of '%s' switched to %s mode, next update in %d ms", myName, active ? "active" : "idle", myCurrentDelay));
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Next update of '%s' in %d ms (%s)", myName, myCurrentDelay, active ? "active" : "idle"));
+    }
+    myActive = active;
+    return myCurrentDelay;
+  }
+
+  public synchronized long getCurrentDelay() {
+    return myCurrentDelay;
+  }
+
+  public synchronized boolean isActive() {
+    return myActive;
+  }
+}
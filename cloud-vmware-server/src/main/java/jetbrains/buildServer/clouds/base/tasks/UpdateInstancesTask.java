@@ -13,6 +13,7 @@ import jetbrains.buildServer.clouds.base.AbstractCloudImage;
 import jetbrains.buildServer.clouds.base.AbstractCloudInstance;
 import jetbrains.buildServer.clouds.base.connector.AbstractInstance;
 import jetbrains.buildServer.clouds.base.connector.CloudApiConnector;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
 import jetbrains.buildServer.clouds.base.errors.CheckedCloudException;
 import jetbrains.buildServer.clouds.base.errors.TypedCloudErrorInfo;
 import jetbrains.buildServer.util.Disposable;
@@ -30,6 +31,9 @@ public class UpdateInstancesTask< G extends AbstractCloudInstance<T>,
   private static final Logger LOG = Logger.getInstance(UpdateInstancesTask.class.getName());
 
   private static final long STUCK_STATUS_TIME = 10*60*1000l; // 2 minutes;
+  private static final Set<InstanceStatus> TRANSITIONAL_STATUSES = EnumSet.of(
+    InstanceStatus.SCHEDULED_TO_START, InstanceStatus.STARTING, InstanceStatus.RESTARTING,
+    InstanceStatus.SCHEDULED_TO_STOP, InstanceStatus.STOPPING);
 
   @NotNull protected final CloudApiConnector<T, G> myConnector;
   @NotNull protected final F myClient;
@@ -59,6 +63,7 @@ public class UpdateInstancesTask< G extends AbstractCloudInstance<T>,
   }
 
   public void run() {
+    final long startTime = System.currentTimeMillis();
     final Map<InstanceStatus, List<String>> instancesByStatus = new HashMap<InstanceStatus, List<String>>();
     try {
       List<T> goodImages = new ArrayList<>();
@@ -141,6 +146,7 @@ public class UpdateInstancesTask< G extends AbstractCloudInstance<T>,
         throw new RuntimeException(e);
       }
     } finally {
+      CloudMetrics.getInstance().recordTime(CloudMetrics.UPDATE_DURATION, System.currentTimeMillis() - startTime);
       //logging here:
       if (LOG.isDebugEnabled()) {
         for (InstanceStatus instanceStatus : instancesByStatus.keySet()) {
@@ -150,6 +156,27 @@ public class UpdateInstancesTask< G extends AbstractCloudInstance<T>,
     }
   }
 
+  /**
+   * @return true if some instances are being started or stopped
+   */
+  public boolean hasInstancesInTransition() {
+    for (T image : getImages()) {
+      for (G instance : image.getInstances()) {
+        if (TRANSITIONAL_STATUSES.contains(instance.getStatus())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if some cloud operations of the updated clients are still in progress
+   */
+  public boolean hasOperationsInProgress() {
+    return myClient.hasOperationsInProgress();
+  }
+
   @NotNull
   protected Collection<T> getImages() {
     return myClient.getImages();
@@ -10,7 +10,9 @@ package jetbrains.buildServer.clouds.base.types;
 public enum CloneBehaviour {
   START_STOP (false, true),
   FRESH_CLONE (true, false),
-  ON_DEMAND_CLONE(false, false)
+  ON_DEMAND_CLONE(false, false),
+  // InstantClone_Task from the running source VM, requires vSphere 6.7+
+  INSTANT_CLONE(true, false)
   ;
   private final boolean myDeleteAfterStop;
   private final boolean myUseOriginal;
@@ -6,6 +6,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import jetbrains.buildServer.clouds.CanStartNewInstanceResult;
@@ -66,6 +67,16 @@ public class VMWareCloudClient extends AbstractCloudClient<VmwareCloudInstance,
     return null;
   }
 
+  /**
+   * Finishes the start trace of the instance the registered agent runs on
+   */
+  public void agentRegistered(@NotNull AgentDescription agentDescription) {
+    final VmwareCloudInstance instance = findInstanceByAgent(agentDescription);
+    if (instance != null) {
+      instance.agentRegistered();
+    }
+  }
+
   @Override
   protected VmwareCloudImage checkAndCreateImage(@NotNull final VmwareCloudImageDetails imageDetails) {
     final VMWareApiConnector apiConnector = (VMWareApiConnector)myApiConnector;
@@ -117,6 +128,20 @@ public class VMWareCloudClient extends AbstractCloudClient<VmwareCloudInstance,
     super.dispose();
   }
 
+  /**
+   * Deletes warm pools of the images which don't have them in the actual profile configuration.
+   * The other pools are taken over by the client created for the reloaded profile.
+   *
+   * @param warmPoolImages ids of the images which still have a warm pool
+   */
+  public void deleteWarmPools(@NotNull final Collection<String> warmPoolImages) {
+    myImageMap.forEach((id, image) -> {
+      if (!warmPoolImages.contains(id)) {
+        image.deleteWarmPool();
+      }
+    });
+  }
+
   public void setInitializedIfNecessary() {
     if (!myInitialized)
       myInitialized = true;
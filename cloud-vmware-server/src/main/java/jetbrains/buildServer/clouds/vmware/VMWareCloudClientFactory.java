@@ -10,6 +10,8 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.clouds.*;
 import jetbrains.buildServer.clouds.base.AbstractCloudClientFactory;
@@ -46,6 +48,8 @@ public class VMWareCloudClientFactory extends AbstractCloudClientFactory<VmwareC
   @NotNull private final PluginDescriptor myPluginDescriptor;
   @NotNull private final CloudInstancesProvider myInstancesProvider;
   @NotNull private final ServerSettings myServerSettings;
+  // clients which are not disposed yet
+  @NotNull private final Set<VMWareCloudClient> myClients = ConcurrentHashMap.newKeySet();
 
   public VMWareCloudClientFactory(@NotNull final CloudRegistrar cloudRegistrar,
                                   @NotNull final PluginDescriptor pluginDescriptor,
@@ -90,7 +94,7 @@ public class VMWareCloudClientFactory extends AbstractCloudClientFactory<VmwareC
     final VMWareApiConnector apiConnector = createConnectorFromParams(state, params);
     final VMWareCloudClient vmWareCloudClient =
       new VMWareCloudClient(profile, apiConnector, myUpdateTaskManager, myIdxStorage);
-    return vmWareCloudClient;
+    return register(vmWareCloudClient, state);
   }
 
   @Override
@@ -107,9 +111,41 @@ public class VMWareCloudClientFactory extends AbstractCloudClientFactory<VmwareC
       myIdxStorage
     );
     client.updateErrors(profileErrors);
+    return register(client, state);
+  }
+
+  @NotNull
+  private VMWareCloudClient register(@NotNull final VMWareCloudClient client, @NotNull final CloudState state) {
+    myClients.add(client);
+    client.addDisposeHandler(c -> {
+      myClients.remove(c);
+      c.deleteWarmPools(getWarmPoolImages(myCloudManager.findProfileById(state.getProjectId(), state.getProfileId())));
+    });
     return client;
   }
 
+  /**
+   * @return ids of the images which have a warm pool in the profile, none if the profile is removed
+   */
+  @NotNull
+  static Set<String> getWarmPoolImages(@Nullable final CloudProfile profile) {
+    if (profile == null)
+      return Collections.emptySet();
+    return parseImageDataInternal(profile.getParameters()).stream()
+                                                          .filter(details -> details.getWarmPoolSize() > 0)
+                                                          .map(VmwareCloudImageDetails::getSourceId)
+                                                          .collect(Collectors.toSet());
+  }
+
+  /**
+   * Notifies the clients about an agent registered on the server
+   */
+  public void agentRegistered(@NotNull final AgentDescription agentDescription) {
+    if (!canBeAgentOfType(agentDescription))
+      return;
+    myClients.forEach(client -> client.agentRegistered(agentDescription));
+  }
+
   @NotNull
   @Override
   public String getTypeDescription() {
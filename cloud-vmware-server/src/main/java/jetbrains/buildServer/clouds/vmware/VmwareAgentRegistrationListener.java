@@ -0,0 +1,26 @@
+package jetbrains.buildServer.clouds.vmware;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildAgent;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Passes agent registrations to the VMware clients, so the start traces of their instances are finished
+ * when the agent actually registers rather than when it is looked up.
+ */
+public class VmwareAgentRegistrationListener extends BuildServerAdapter {
+  @NotNull private final VMWareCloudClientFactory myClientFactory;
+
+  public VmwareAgentRegistrationListener(@NotNull final EventDispatcher<BuildServerListener> serverDispatcher,
+                                         @NotNull final VMWareCloudClientFactory clientFactory) {
+    myClientFactory = clientFactory;
+    serverDispatcher.addListener(this);
+  }
+
+  @Override
+  public void agentRegistered(@NotNull final SBuildAgent agent, final long currentlyRunningBuildId) {
+    myClientFactory.agentRegistered(agent);
+  }
+}
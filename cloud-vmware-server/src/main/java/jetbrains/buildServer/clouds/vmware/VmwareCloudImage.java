@@ -8,21 +8,24 @@ import com.vmware.vim25.mo.Task;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import jetbrains.buildServer.Used;
 import jetbrains.buildServer.clouds.*;
 import jetbrains.buildServer.clouds.base.AbstractCloudImage;
+import jetbrains.buildServer.clouds.base.InstanceStartTrace;
 import jetbrains.buildServer.clouds.base.connector.AbstractInstance;
 import jetbrains.buildServer.clouds.base.connector.CloudAsyncTaskExecutor;
+import jetbrains.buildServer.clouds.base.connector.CloudTaskLane;
+import jetbrains.buildServer.clouds.base.connector.CloudTaskResult;
 import jetbrains.buildServer.clouds.base.connector.TaskCallbackHandler;
 import jetbrains.buildServer.clouds.base.errors.TypedCloudErrorInfo;
+import jetbrains.buildServer.clouds.base.types.CloneBehaviour;
 import jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnector;
 import jetbrains.buildServer.clouds.vmware.connector.VmwareInstance;
 import jetbrains.buildServer.clouds.vmware.connector.VmwareTaskWrapper;
@@ -44,6 +47,8 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
 
   // consider <Clone;Delete> instances orphaned (won't be deleted), if they were stopped more than 5 minutes ago
   private static final long STOPPED_ORPHANED_TIMEOUT = 5*60*1000l;
+  // stopped instances are looked up in the inventory fetched by the update task, unless it is older than 30 seconds
+  private static final long INSTANCES_MAX_STALENESS = 30*1000l;
 
   private final VMWareApiConnector myApiConnector;
   @NotNull private final CloudAsyncTaskExecutor myAsyncTaskExecutor;
@@ -53,6 +58,13 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
   private final CloudProfile myProfile;
   private final AtomicInteger myIdxCounter = new AtomicInteger(0);
   private final AtomicBoolean myIdxTouched = new AtomicBoolean(false);
+  // powered off clones waiting to be handed out: VM name -> VM
+  private final Map<String, VmwareInstance> myWarmPool = new ConcurrentHashMap<>();
+  // warm pool VMs being cloned, they are moved to myWarmPool once they appear in the inventory
+  private final Set<String> myPendingWarmPoolClones = ConcurrentHashMap.newKeySet();
+  // outdated warm pool VMs being deleted
+  private final Set<String> myDeletedWarmPoolVms = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean myWarmPoolRefilling = new AtomicBoolean(false);
 
   public VmwareCloudImage(@NotNull final VMWareApiConnector apiConnector,
                           @NotNull final VmwareCloudImageDetails imageDetails,
@@ -82,6 +94,12 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
     asyncTaskExecutor.scheduleWithFixedDelay("Store idx", ()->{
       storeIdx();
     }, 5000, 5000, TimeUnit.MILLISECONDS);
+
+    if (imageDetails.getWarmPoolSize() > 0) {
+      final long refillDelay = TeamCityProperties.getIntervalMilliseconds("teamcity.vmware.warm.pool.refill.delay", 30 * 1000);
+      asyncTaskExecutor.scheduleWithFixedDelay("Refill warm pool of " + imageDetails.getSourceId(), this::refillWarmPool,
+                                               refillDelay, refillDelay, TimeUnit.MILLISECONDS);
+    }
   }
 
   @NotNull
@@ -138,6 +156,13 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
     }
 
     if (myImageDetails.getBehaviour().isDeleteAfterStop()){ // will clone into new instance
+      final WarmPoolVmwareCloudInstance warmPoolInstance = takeWarmPoolInstance();
+      if (warmPoolInstance != null) {
+        addInstance(warmPoolInstance);
+        myAsyncTaskExecutor.submit(CloudTaskLane.HOUSEKEEPING, "Refill warm pool of " + getId(), this::refillWarmPool);
+        return warmPoolInstance;
+      }
+
       final String newVmName = generateNewVmName();
 
       final StartingVmwareCloudInstance instance = new StartingVmwareCloudInstance(this, newVmName);
@@ -154,10 +179,11 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
   public synchronized VmwareCloudInstance startNewInstance(@NotNull final CloudInstanceUserData cloudInstanceUserData) throws QuotaException{
     final VmwareCloudInstance instanceCandidate = getStartableInstanceFast();
     instanceCandidate.setStatus(InstanceStatus.SCHEDULED_TO_START);
-    myAsyncTaskExecutor.submit("Preparing to start new instance...", () -> {
+    myAsyncTaskExecutor.submit(CloudTaskLane.START, "Preparing to start new instance...", () -> {
+      markStartPhase(instanceCandidate, InstanceStartTrace.SCHEDULING);
       VmwareInstance sourceVm = null;
       try {
-        boolean willClone = true;
+        boolean willClone = !(instanceCandidate instanceof WarmPoolVmwareCloudInstance);
         VmwareCloudInstance instance = instanceCandidate;
         if (myImageDetails.getBehaviour().isUseOriginal()){
           willClone = false;
@@ -187,6 +213,7 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
             VmwareCloudInstance existingInstanceToStart = getExistingInstanceToStart(sourceState);
             if (existingInstanceToStart != null) {
               removeInstance(instance.getInstanceId());
+              existingInstanceToStart.setStartTrace(instance.getStartTrace());
               instance = existingInstanceToStart;
               willClone = false;
             } else {
@@ -198,9 +225,11 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
             }
           }
 
+          markStartPhase(instance, InstanceStartTrace.SOURCE_RESOLUTION);
           final int instancesCount = getInstances().size();
-          LOG.info("Should clone into " + instance.getName() + ": " + willClone + ". Already have instances: " + instancesCount);
-          if (willClone && myImageDetails.getMaxInstances() < instancesCount) {
+          final int warmPoolVmsCount = getWarmPoolVmsCount();
+          LOG.info("Should clone into " + instance.getName() + ": " + willClone + ". Already have instances: " + instancesCount + ", warm pool VMs: " + warmPoolVmsCount);
+          if (willClone && myImageDetails.getMaxInstances() < instancesCount + warmPoolVmsCount) {
             LOG.info("Cannot clone - instances limit exceeded. Will try to clean up some old instances");
             cleanupOldInstances();
             // don't attempt to start so far
@@ -209,15 +238,26 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
           }
         }
 
-        if (willClone) {
+        if (willClone && myImageDetails.getBehaviour() == CloneBehaviour.INSTANT_CLONE) {
+          instantCloneVM(instance, cloudInstanceUserData);
+        } else if (willClone) {
 
           final VmwareCloudInstance finalInstance = instance;
+          // the guest info is known at clone time, so the clone doesn't need a separate reconfiguration
+          final boolean guestInfoInCloneSpec = TeamCityProperties.getBoolean(VmwareConstants.GUEST_INFO_IN_CLONE_SPEC);
           myAsyncTaskExecutor.executeAsync(
-            new VmwareTaskWrapper(() -> myApiConnector.cloneAndStartVm(finalInstance), "Clone and start instance " + instance.getName()),
+            new VmwareTaskWrapper(() -> guestInfoInCloneSpec
+                                        ? myApiConnector.cloneAndStartVm(finalInstance, finalInstance.getName(), cloudInstanceUserData)
+                                        : myApiConnector.cloneAndStartVm(finalInstance, null, null),
+                                  VmwareTaskWrapper.CLONE, "Clone and start instance " + instance.getName(), instance.getStartTrace()),
             new ImageStatusTaskWrapper(instance) {
               @Override
               public void onSuccess() {
-                reconfigureVmTask(finalInstance, cloudInstanceUserData);
+                if (guestInfoInCloneSpec) {
+                  markStarted(finalInstance, "Clone");
+                } else {
+                  reconfigureVmTask(finalInstance, cloudInstanceUserData);
+                }
               }
 
               @Override
@@ -262,7 +302,7 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
       public Task call() throws Exception {
         return myApiConnector.startInstance(instance, instance.getName(), cloudInstanceUserData);
       }
-    }, "Start instance " + instance.getName())
+    }, VmwareTaskWrapper.POWER_ON, "Start instance " + instance.getName(), instance.getStartTrace())
       , new ImageStatusTaskWrapper(instance) {
       @Override
       public void onSuccess() {
@@ -271,19 +311,44 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
     });
   }
 
+  private synchronized void instantCloneVM(@NotNull final VmwareCloudInstance instance, @NotNull final CloudInstanceUserData cloudInstanceUserData) {
+    instance.setStartDate(new Date());
+    instance.setStatus(InstanceStatus.STARTING);
+    myAsyncTaskExecutor.executeAsync(
+      new VmwareTaskWrapper(() -> myApiConnector.instantCloneVm(instance, instance.getName(), cloudInstanceUserData),
+                            VmwareTaskWrapper.INSTANT_CLONE, "Instant clone instance " + instance.getName(), instance.getStartTrace()),
+      new ImageStatusTaskWrapper(instance) {
+        @Override
+        public void onSuccess() {
+          markStarted(instance, "Instant clone");
+        }
+      });
+  }
+
+  private static void markStartPhase(@NotNull final VmwareCloudInstance instance, @NotNull final String phase) {
+    final InstanceStartTrace trace = instance.getStartTrace();
+    if (trace != null) {
+      trace.mark(phase);
+    }
+  }
+
+  private static void markStarted(@NotNull final VmwareCloudInstance instance, @NotNull final String operation) {
+    instance.setStatus(InstanceStatus.RUNNING);
+    instance.setStartDate(new Date());
+    instance.updateErrors();
+    LOG.info(operation + " of '" + instance.getInstanceId() + "' is finished. Instance started successfully");
+  }
+
   private synchronized void reconfigureVmTask(@NotNull final VmwareCloudInstance instance, @NotNull final CloudInstanceUserData cloudInstanceUserData) {
     myAsyncTaskExecutor.executeAsync(new VmwareTaskWrapper(new Callable<Task>() {
                                        public Task call() throws Exception {
                                          return myApiConnector.reconfigureInstance(instance, instance.getName(), cloudInstanceUserData);
                                        }
-                                     }, "Reconfigure " + instance.getName())
+                                     }, VmwareTaskWrapper.RECONFIGURE, "Reconfigure " + instance.getName(), instance.getStartTrace())
       , new ImageStatusTaskWrapper(instance) {
         @Override
         public void onSuccess() {
-          instance.setStatus(InstanceStatus.RUNNING);
-          instance.setStartDate(new Date());
-          instance.updateErrors();
-          LOG.info("Reconfiguration of '" + instance.getInstanceId() + "' is finished. Instance started successfully");
+          markStarted(instance, "Reconfiguration");
         }
 
         @Override
@@ -299,11 +364,11 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
 
     LOG.info("Stopping instance " + instance.getName());
     instance.setStatus(InstanceStatus.SCHEDULED_TO_STOP);
-    myAsyncTaskExecutor.executeAsync(new VmwareTaskWrapper(new Callable<Task>() {
+    myAsyncTaskExecutor.executeAsync(CloudTaskLane.STOP, new VmwareTaskWrapper(new Callable<Task>() {
       public Task call() throws Exception {
         return myApiConnector.stopInstance(instance);
       }
-    }, "Stop " + instance.getName()), new ImageStatusTaskWrapper(instance){
+    }, VmwareTaskWrapper.SHUTDOWN, "Stop " + instance.getName()), new ImageStatusTaskWrapper(instance){
 
       @Override
       public void onComplete() {
@@ -319,11 +384,11 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
   private void deleteInstance(@NotNull final VmwareCloudInstance instance){
     if (instance.getErrorInfo() == null) {
       LOG.info("Will delete instance " + instance.getName());
-      myAsyncTaskExecutor.executeAsync(new VmwareTaskWrapper(new Callable<Task>() {
+      myAsyncTaskExecutor.executeAsync(CloudTaskLane.DELETE, new VmwareTaskWrapper(new Callable<Task>() {
         public Task call() throws Exception {
           return myApiConnector.deleteInstance(instance);
         }
-      }, "Delete " + instance.getName()), new ImageStatusTaskWrapper(instance) {
+      }, VmwareTaskWrapper.DESTROY, "Delete " + instance.getName()), new ImageStatusTaskWrapper(instance) {
         @Override
         public void onSuccess() {
           removeInstance(instance.getName());
@@ -354,6 +419,22 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
       return CanStartNewInstanceResult.no("Original instance with id " + sourceId + " is not being stopped");
     }
 
+    final List<String> consideredInstances = getConsideredInstances();
+    // warm pool VMs are counted in the limit as well, unless the new instance is taken from the pool
+    int warmPoolVmsCount = getWarmPoolVmsCount();
+    if (warmPoolVmsCount > 0 && findWarmPoolVm() != null) {
+      warmPoolVmsCount--;
+    }
+    final boolean canStartMore =  consideredInstances.size() + warmPoolVmsCount < myImageDetails.getMaxInstances();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("[%s] Instances count: %d %s, warm pool VMs: %d, can start more: %s", sourceId,
+                              consideredInstances.size(), Arrays.toString(consideredInstances.toArray()), warmPoolVmsCount, String.valueOf(canStartMore)));
+    }
+    return canStartMore ? CanStartNewInstanceResult.yes() : CanStartNewInstanceResult.no("Image instance limit exceeded");
+  }
+
+  @NotNull
+  private List<String> getConsideredInstances() {
     final boolean countStoppedVmsInLimit = TeamCityProperties.getBoolean(VmwareConstants.CONSIDER_STOPPED_VMS_LIMIT)
                                            && myImageDetails.getBehaviour().isDeleteAfterStop();
 
@@ -362,12 +443,177 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
       if (instance.getStatus() != InstanceStatus.STOPPED || countStoppedVmsInLimit)
         consideredInstances.add(instance.getInstanceId());
     }
-    final boolean canStartMore =  consideredInstances.size() < myImageDetails.getMaxInstances();
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("[%s] Instances count: %d %s, can start more: %s", sourceId,
-                              consideredInstances.size(), Arrays.toString(consideredInstances.toArray()), String.valueOf(canStartMore)));
+    return consideredInstances;
+  }
+
+  /**
+   * @return number of warm pool VMs including the ones being cloned
+   */
+  private int getWarmPoolVmsCount() {
+    return myWarmPool.size() + myPendingWarmPoolClones.size();
+  }
+
+  @Nullable
+  private VmwareInstance findWarmPoolVm() {
+    final VmwareSourceState actualState = myActualSourceState.get();
+    for (VmwareInstance vm : myWarmPool.values()) {
+      final VmwareSourceState vmSourceState = vm.getVmSourceState();
+      if (vm.getInstanceStatus() == InstanceStatus.STOPPED && vmSourceState != null && (actualState == null || actualState.equals(vmSourceState)))
+        return vm;
     }
-    return canStartMore ? CanStartNewInstanceResult.yes() : CanStartNewInstanceResult.no("Image instance limit exceeded");
+    return null;
+  }
+
+  @Nullable
+  private WarmPoolVmwareCloudInstance takeWarmPoolInstance() {
+    VmwareInstance vm;
+    while ((vm = findWarmPoolVm()) != null) {
+      if (myWarmPool.remove(vm.getName()) != null) {
+        LOG.info("Will use warm pool VM " + vm.getName());
+        return new WarmPoolVmwareCloudInstance(this, vm.getName(), vm.getVmSourceState());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Deletes outdated warm pool VMs and clones the missing ones, as long as the image instances limit allows
+   */
+  /*package local*/ void refillWarmPool() {
+    final int warmPoolSize = myImageDetails.getWarmPoolSize();
+    if (warmPoolSize <= 0 || getErrorInfo() != null || !myWarmPoolRefilling.compareAndSet(false, true))
+      return;
+    try {
+      final VmwareInstance sourceVm = myApiConnector.getInstanceDetails(myImageDetails.getSourceVmName());
+      final String snapshotName = myImageDetails.useCurrentVersion()
+                                  ? null
+                                  : myApiConnector.getLatestSnapshot(sourceVm.getId(), myImageDetails.getSnapshotName());
+      if (snapshotName == null && !myImageDetails.useCurrentVersion()) {
+        // reported as an image error by checkImages
+        return;
+      }
+      final VmwareSourceState sourceState = VmwareSourceState.from(snapshotName, sourceVm.getId());
+      invalidateWarmPool(sourceState, sourceVm.getChangeVersion());
+
+      final int missing = Math.min(warmPoolSize - getWarmPoolVmsCount(),
+                                   myImageDetails.getMaxInstances() - getConsideredInstances().size() - getWarmPoolVmsCount());
+      for (int i = 0; i < missing; i++) {
+        cloneWarmPoolVm(sourceState);
+      }
+    } catch (VmwareCheckedCloudException e) {
+      LOG.warnAndDebugDetails("Unable to refill warm pool of image " + getId(), e);
+    } finally {
+      myWarmPoolRefilling.set(false);
+    }
+  }
+
+  private void cloneWarmPoolVm(@NotNull final VmwareSourceState sourceState) {
+    final String vmName = generateNewVmName();
+    final VmwareCloudInstance instance = new VmwareCloudInstance(this, vmName, sourceState);
+    myPendingWarmPoolClones.add(vmName);
+    LOG.info(String.format("Cloning %s into warm pool of image %s", vmName, getId()));
+    myAsyncTaskExecutor.executeAsync(
+      CloudTaskLane.HOUSEKEEPING,
+      new VmwareTaskWrapper(() -> myApiConnector.cloneWarmPoolVm(instance), VmwareTaskWrapper.CLONE, "Clone warm pool VM " + vmName),
+      new TaskCallbackHandler() {
+        @Override
+        public void onError(final Throwable error) {
+          myPendingWarmPoolClones.remove(vmName);
+          LOG.warnAndDebugDetails("Unable to clone warm pool VM " + vmName, error);
+        }
+      });
+  }
+
+  /**
+   * Deletes warm pool VMs which were cloned from another source state, and the ones exceeding the pool size
+   *
+   * @param sourceState actual source state of the image
+   * @param changeVersion actual change version of the source VM, used by images which clone current VM state.
+   */
+  private void invalidateWarmPool(@NotNull final VmwareSourceState sourceState, @Nullable final String changeVersion) {
+    for (VmwareInstance vm : myWarmPool.values()) {
+      final boolean outdated;
+      if (myImageDetails.useCurrentVersion()) {
+        outdated = changeVersion != null && !changeVersion.equals(vm.getProperty(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_CHANGE_VERSION));
+      } else {
+        outdated = !sourceState.equals(vm.getVmSourceState());
+      }
+      if (outdated && myWarmPool.remove(vm.getName()) != null) {
+        LOG.info(String.format("Warm pool VM %s is outdated and will be deleted", vm.getName()));
+        deleteWarmPoolVm(vm.getName());
+      }
+    }
+    deleteSurplusWarmPoolVms();
+  }
+
+  /**
+   * Deletes warm pool VMs exceeding the pool size, e.g. after the size was lowered or clones left by a previous client were found
+   */
+  private void deleteSurplusWarmPoolVms() {
+    int surplus = getWarmPoolVmsCount() - myImageDetails.getWarmPoolSize();
+    for (String vmName : myWarmPool.keySet()) {
+      if (surplus <= 0)
+        return;
+      if (myWarmPool.remove(vmName) != null) {
+        LOG.info(String.format("Warm pool VM %s exceeds the pool size of image %s and will be deleted", vmName, getId()));
+        deleteWarmPoolVm(vmName);
+        surplus--;
+      }
+    }
+  }
+
+  private void deleteWarmPoolVm(@NotNull final String vmName) {
+    myDeletedWarmPoolVms.add(vmName);
+    deleteInstance(new VmwareCloudInstance(this, vmName, VmwareSourceState.from(null, null)));
+  }
+
+  /**
+   * Deletes all warm pool VMs. Called when the client is disposed and the pool is not configured anymore,
+   * so the deletion runs right away instead of being submitted to the executor of the client, which is shut down next.
+   */
+  public void deleteWarmPool() {
+    for (String vmName : myWarmPool.keySet()) {
+      if (myWarmPool.remove(vmName) == null)
+        continue;
+      LOG.info(String.format("Warm pool of image %s is removed, VM %s will be deleted", getId(), vmName));
+      myDeletedWarmPoolVms.add(vmName);
+      try {
+        // the wrapper waits for the task, which also releases the permit of the operation governor
+        final CloudTaskResult result = new VmwareTaskWrapper(
+          () -> myApiConnector.deleteInstance(new VmwareCloudInstance(this, vmName, VmwareSourceState.from(null, null))),
+          VmwareTaskWrapper.DESTROY, "Delete warm pool VM " + vmName).executeOrGetResult();
+        if (result != null && result.isHasErrors()) {
+          LOG.warnAndDebugDetails("Unable to delete warm pool VM " + vmName, result.getThrowable());
+        }
+      } catch (Exception e) {
+        LOG.warnAndDebugDetails("Unable to delete warm pool VM " + vmName, e);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void detectNewInstances(final Map<String, ? extends AbstractInstance> realInstances) {
+    final Map<String, AbstractInstance> instances = new HashMap<>();
+    realInstances.forEach((name, realInstance) -> {
+      if (realInstance instanceof VmwareInstance && ((VmwareInstance)realInstance).isWarmPoolMember() && findInstanceById(name) == null) {
+        myPendingWarmPoolClones.remove(name);
+        if (!myDeletedWarmPoolVms.contains(name)) {
+          myWarmPool.put(name, (VmwareInstance)realInstance);
+        }
+      } else {
+        instances.put(name, realInstance);
+      }
+    });
+    myWarmPool.keySet().retainAll(realInstances.keySet());
+    myDeletedWarmPoolVms.retainAll(realInstances.keySet());
+    deleteSurplusWarmPoolVms();
+    super.detectNewInstances(instances);
+  }
+
+  @Used("Tests")
+  @NotNull
+  public Set<String> getWarmPoolVmNames() {
+    return Collections.unmodifiableSet(myWarmPool.keySet());
   }
 
   @Override
@@ -398,7 +644,8 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
   }
 
   private void processStoppedInstances(final Function<VmwareInstance, Boolean> function)  {
-    myApiConnector.processImageInstances(this, new VMWareApiConnector.VmwareInstanceProcessor() {
+    final long maxStaleness = TeamCityProperties.getIntervalMilliseconds("teamcity.vmware.instances.max.staleness", INSTANCES_MAX_STALENESS);
+    myApiConnector.processImageInstances(this, maxStaleness, new VMWareApiConnector.VmwareInstanceProcessor() {
       public void process(final VmwareInstance vmInstance) {
         if (vmInstance.getInstanceStatus() == InstanceStatus.STOPPED) {
 
@@ -467,6 +714,7 @@ public class VmwareCloudImage extends AbstractCloudImage<VmwareCloudInstance, Vm
     if (StringUtil.isNotEmpty(state.getSnapshotName()) && !state.equals(myActualSourceState.get())){
         myActualSourceState.set(state);
         LOG.info("Updated actual vm source state name for " + myImageDetails.getSourceId() + " to " + state);
+        invalidateWarmPool(state, null);
     }
   }
 
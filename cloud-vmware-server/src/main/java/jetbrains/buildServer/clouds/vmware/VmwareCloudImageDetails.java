@@ -24,6 +24,7 @@ public class VmwareCloudImageDetails implements CloudImageDetails {
   private final int myMaxInstances;
   private final String myCustomizationSpec;
   private final Integer myAgentPoolId;
+  private final int myWarmPoolSize;
   @NotNull private final String mySourceId;
 
   public VmwareCloudImageDetails(@NotNull final CloudImageParameters imageParameters){
@@ -36,6 +37,10 @@ public class VmwareCloudImageDetails implements CloudImageDetails {
     mySnapshotName = StringUtil.emptyIfNull(imageParameters.getParameter(VmwareConstants.SNAPSHOT));
     myNickname = StringUtil.nullIfEmpty(imageParameters.getParameter(VmwareConstants.NICKNAME));
     myAgentPoolId = imageParameters.getAgentPoolId();
+    // warm pool is only applicable to images which clone a new powered off VM for every start
+    myWarmPoolSize = myCloneBehaviour == CloneBehaviour.FRESH_CLONE
+                     ? StringUtil.parseInt(StringUtil.emptyIfNull(imageParameters.getParameter(VmwareConstants.WARM_POOL_SIZE)), 0)
+                     : 0;
     if (myCloneBehaviour.isUseOriginal()){
       mySourceId = mySourceVmName;
     } else {
@@ -79,10 +84,15 @@ public class VmwareCloudImageDetails implements CloudImageDetails {
   }
 
   public boolean useCurrentVersion(){
-    return VmwareConstants.CURRENT_STATE.equals(mySnapshotName);
+    // instant clone always forks the current state of the running source VM
+    return myCloneBehaviour == CloneBehaviour.INSTANT_CLONE || VmwareConstants.CURRENT_STATE.equals(mySnapshotName);
   }
 
   public Integer getAgentPoolId() {
     return myAgentPoolId;
   }
+
+  public int getWarmPoolSize() {
+    return myWarmPoolSize;
+  }
 }
\ No newline at end of file
@@ -14,6 +14,19 @@ public class VmwareConstants {
   @NotNull public static final String USE_LINKED_CLONE = "teamcity.clouds.vmware.use.linked.clone"; // true by default
   @NotNull public static final String DISABLE_OS_CUSTOMIZATION = "teamcity.clouds.vmware.disable.os.customization"; // false by default
   @NotNull public static final String CONSIDER_STOPPED_VMS_LIMIT = "teamcity.clouds.vmware.consider.stopped.vms.limit"; // true by default
+  @NotNull public static final String INCREMENTAL_INVENTORY = "teamcity.clouds.vmware.incremental.inventory"; // false by default
+  @NotNull public static final String SELECTIVE_EXTRA_CONFIG = "teamcity.clouds.vmware.selective.extra.config"; // false by default
+  @NotNull public static final String EVENT_DRIVEN_SHUTDOWN = "teamcity.clouds.vmware.event.driven.shutdown"; // false by default
+  @NotNull public static final String TRACK_TASKS = "teamcity.clouds.vmware.track.tasks"; // false by default
+  @NotNull public static final String POWER_ON_BATCH_WINDOW = "teamcity.clouds.vmware.power.on.batch.window.ms"; // 0 (disabled) by default
+  @NotNull public static final String GUEST_INFO_IN_CLONE_SPEC = "teamcity.clouds.vmware.guest.info.in.clone.spec"; // false by default
+  @NotNull public static final String SHARED_INVENTORY = "teamcity.clouds.vmware.shared.inventory"; // false by default
+  @NotNull public static final String SHARED_INVENTORY_USER = "teamcity.clouds.vmware.shared.inventory.user"; // read-only account, required by the shared inventory
+  @NotNull public static final String SHARED_INVENTORY_PASSWORD = "teamcity.clouds.vmware.shared.inventory.password"; // plain or scrambled
+  @NotNull public static final String GOVERNOR_CLONE_LIMIT = "teamcity.clouds.vmware.governor.clone.limit"; // 0 (unlimited) by default
+  @NotNull public static final String GOVERNOR_POWER_ON_LIMIT = "teamcity.clouds.vmware.governor.power.on.limit"; // 0 (unlimited) by default
+  @NotNull public static final String GOVERNOR_DESTROY_LIMIT = "teamcity.clouds.vmware.governor.destroy.limit"; // 0 (unlimited) by default
+  @NotNull public static final String GOVERNOR_WAIT_TIMEOUT = "teamcity.clouds.vmware.governor.wait.timeout"; // 30 minutes by default
   @NotNull public static final String LATEST_SNAPSHOT = "*"; // true by default
   @NotNull public static final String CURRENT_STATE = "__CURRENT_STATE__";
   @NotNull public static final String DEFAULT_RESOURCE_POOL = "__DEFAULT_RESOURCE_POOL__";
@@ -26,5 +39,6 @@ public class VmwareConstants {
   public static final String SNAPSHOT = "snapshot";
   public static final String NICKNAME = "nickname";
   public static final String SOURCE_VM_NAME = "sourceVmName";
+  public static final String WARM_POOL_SIZE = "warmPoolSize";
 
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package jetbrains.buildServer.clouds.vmware;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Instance started from a pre-cloned VM of the image warm pool
+ */
+public class WarmPoolVmwareCloudInstance extends VmwareCloudInstance {
+  public WarmPoolVmwareCloudInstance(@NotNull final VmwareCloudImage image,
+                                     @NotNull final String instanceName,
+                                     @NotNull final VmwareSourceState sourceState) {
+    super(image, instanceName, sourceState);
+  }
+}
@@ -39,6 +39,7 @@ public interface VMWareApiConnector extends CloudApiConnector<VmwareCloudImage,
   String TEAMCITY_VMWARE_CLONED_INSTANCE = TEAMCITY_VMWARE_PREFIX + "cloned.instance";
   String TEAMCITY_VMWARE_PROFILE_ID = TEAMCITY_VMWARE_PREFIX + CloudConstants.PROFILE_ID;
   String TEAMCITY_VMWARE_SERVER_UUID = TEAMCITY_VMWARE_PREFIX + "server.uuid";
+  String TEAMCITY_VMWARE_WARM_POOL = TEAMCITY_VMWARE_PREFIX + "warm.pool";
 
   void test() throws VmwareCheckedCloudException;
 
@@ -67,7 +68,25 @@ public interface VMWareApiConnector extends CloudApiConnector<VmwareCloudImage,
                            @NotNull final String agentName,
                            @NotNull final CloudInstanceUserData userData) throws VmwareCheckedCloudException;
 
-  Task cloneAndStartVm(@NotNull final VmwareCloudInstance instance) throws VmwareCheckedCloudException;
+  /**
+   * Clones and starts a VM. When agent name and user data are provided, the guest info is put into the clone spec,
+   * so the clone doesn't need to be reconfigured with {@link #reconfigureInstance}
+   */
+  Task cloneAndStartVm(@NotNull final VmwareCloudInstance instance,
+                       @Nullable final String agentName,
+                       @Nullable final CloudInstanceUserData userData) throws VmwareCheckedCloudException;
+
+  /**
+   * Clones a powered off VM marked as a warm pool member. The mark is cleared by {@link #reconfigureInstance}
+   */
+  Task cloneWarmPoolVm(@NotNull final VmwareCloudInstance instance) throws VmwareCheckedCloudException;
+
+  /**
+   * Forks a running instance from the running source VM. The guest info is passed with the clone, so no reconfiguration is required
+   */
+  Task instantCloneVm(@NotNull final VmwareCloudInstance instance,
+                      @NotNull final String agentName,
+                      @NotNull final CloudInstanceUserData userData) throws VmwareCheckedCloudException;
 
   <T extends ManagedEntity> boolean hasPrivilegeOnResource(@NotNull final String entityId,
                                                            @NotNull final Class<T> instanceType,
@@ -80,7 +99,11 @@ public interface VMWareApiConnector extends CloudApiConnector<VmwareCloudImage,
 
   boolean checkVirtualMachineExists(@NotNull String vmName);
 
-  void processImageInstances(@NotNull  final VmwareCloudImage image, @NotNull final VmwareInstanceProcessor processor);
+  /**
+   * @param maxStaleness how old, in milliseconds, the inventory may be. Instances of a recent enough inventory fetch are processed
+   *                     without fetching the inventory again, so their state may be outdated by up to this value
+   */
+  void processImageInstances(@NotNull final VmwareCloudImage image, final long maxStaleness, @NotNull final VmwareInstanceProcessor processor);
 
   @NotNull
   VmwareInstance getInstanceDetails(String instanceName) throws VmwareCheckedCloudException;
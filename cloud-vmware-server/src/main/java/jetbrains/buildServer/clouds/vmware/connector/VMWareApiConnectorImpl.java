@@ -2,13 +2,12 @@
 
 package jetbrains.buildServer.clouds.vmware.connector;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.vmware.vim25.*;
 import com.vmware.vim25.mo.*;
 import com.vmware.vim25.mo.util.MorUtil;
+import com.vmware.vim25.ws.Argument;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -16,7 +15,7 @@ import java.net.UnknownHostException;
 import java.rmi.RemoteException;
 import java.security.KeyStore;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -30,7 +29,9 @@ import jetbrains.buildServer.clouds.CloudException;
 import jetbrains.buildServer.clouds.CloudInstanceUserData;
 import jetbrains.buildServer.clouds.InstanceStatus;
 import jetbrains.buildServer.clouds.base.connector.AbstractInstance;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
 import jetbrains.buildServer.clouds.base.errors.TypedCloudErrorInfo;
+import jetbrains.buildServer.clouds.base.types.CloneBehaviour;
 import jetbrains.buildServer.clouds.server.CloudInstancesProvider;
 import jetbrains.buildServer.clouds.vmware.*;
 import jetbrains.buildServer.clouds.vmware.connector.beans.FolderBean;
@@ -39,6 +40,7 @@ import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
 import jetbrains.buildServer.clouds.base.errors.SimpleErrorMessages;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.util.ssl.SSLContextUtil;
 import jetbrains.buildServer.util.ssl.SSLTrustStoreProvider;
@@ -64,31 +66,63 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   private static final Pattern FOLDER_PATTERN = Pattern.compile("group-v\\d+");
   private static final Pattern VM_PATTERN = Pattern.compile("vm-\\d+");
 
+  private static final String DATACENTER_TYPE = Datacenter.class.getSimpleName();
   private static final String FOLDER_TYPE = Folder.class.getSimpleName();
   private static final String RESPOOL_TYPE = ResourcePool.class.getSimpleName();
-  private static final String SPEC_FOLDER = "vm";
-  private static final String SPEC_RESPOOL = "Resources";
 
 
   private static final long GUEST_SHUTDOWN_TIMEOUT = 60 * 1000;
+  private static final String DATACENTER_FETCH_TIMEOUT_PROPERTY = "teamcity.vmware.datacenter.fetch.timeout";
+  private static final long DATACENTER_FETCH_TIMEOUT = 120 * 1000;
+
+  private static final String EXTRA_CONFIG = "config.extraConfig";
+  private static final String EXTRA_CONFIG_KEY_PREFIX = EXTRA_CONFIG + "[\"";
+  private static final String[] VM_PROPERTIES = {
+    "name", EXTRA_CONFIG, "config.template", "config.changeVersion",
+    "runtime.powerState", "runtime.bootTime", "guest.ipAddress", "parent"
+  };
+  // the only extraConfig keys we read from VMs. Requesting them one by one instead of the whole extraConfig array
+  // makes the payload independent of the number of unrelated options the VMs carry.
+  // Guest info keys written by the plugin are requested too, so VM properties are the same as with the whole array
+  private static final String[] TEAMCITY_EXTRA_CONFIG_KEYS = {
+    TEAMCITY_VMWARE_CLONED_INSTANCE, TEAMCITY_VMWARE_IMAGE_SOURCE_VM_NAME, TEAMCITY_VMWARE_IMAGE_SOURCE_ID,
+    TEAMCITY_VMWARE_IMAGE_SOURCE_VM_ID, TEAMCITY_VMWARE_IMAGE_SNAPSHOT, TEAMCITY_VMWARE_IMAGE_CHANGE_VERSION,
+    TEAMCITY_VMWARE_PROFILE_ID, TEAMCITY_VMWARE_SERVER_UUID, TEAMCITY_VMWARE_WARM_POOL,
+    AGENT_NAME, AUTH_TOKEN, SERVER_URL, INSTANCE_NAME, IMAGE_NAME, USER_DATA
+  };
+  private static final String[] VM_SELECTIVE_PROPERTIES = createSelectiveProperties(VM_PROPERTIES, TEAMCITY_EXTRA_CONFIG_KEYS);
 
   private final URL myInstanceURL;
   private final String myUsername;
   private final String myPassword;
-  private ServiceInstance myServiceInstance;
   private final String myDomain;
 
-  // short living cache
-  private static final Cache<Pair<String, String>, String> MANAGED_ENTITIES_NAMES_CACHE = CacheBuilder.newBuilder()
-                                                                                        .expireAfterWrite(20, TimeUnit.SECONDS)
-                                                                                        .build();
-
   @Nullable private final String myServerUUID;
   // it can be null, when we create a temporary api connector for a short-term use (for example, when we prepopulate information on create/edit cloud profile page
   @Nullable private final String myProfileId;
   // we also create a separate connector for controller and which doesn't need this field
   @Nullable private final CloudInstancesProvider myInstancesProvider;
   @Nullable private SSLTrustStoreProvider myTrustStoreProvider;
+  @NotNull private final VmwareInventorySync myInventorySync = new VmwareInventorySync();
+  @NotNull private final VmwareInventoryTree myInventoryTree;
+  @NotNull private final ExecutorService myDatacenterExecutor = createDatacenterExecutor();
+  // forced power offs after guest shutdown timeouts, started from callbacks of the power state watcher
+  @NotNull private final ExecutorService myShutdownExecutor = createShutdownExecutor();
+  // VM name -> (VM id, datacenter id). Rebuilt on every inventory fetch and used to resolve VMs without inventory traversal
+  @NotNull private volatile Map<String, Pair<String, String>> myVmIndex = new ConcurrentHashMap<>();
+  // VMs of the last inventory fetch and the time the data was fetched at, for callers which accept slightly outdated data
+  @Nullable private volatile Pair<Long, Collection<VmwareInstance>> myLastInventory;
+  @NotNull private final VmwareSessionPool mySessions = new VmwareSessionPool(this::login, "VMware session keep-alive");
+  @NotNull private final VmwarePowerStateWatcher myPowerStateWatcher =
+    new VmwarePowerStateWatcher(mySessions::getPrimary, "VMware power state watcher");
+  @NotNull private final VmwareTaskTracker myTaskTracker =
+    new VmwareTaskTracker(mySessions::getPrimary, "VMware task tracker");
+  @NotNull private final VmwarePowerOnBatcher myPowerOnBatcher = new VmwarePowerOnBatcher(myTaskTracker, "VMware power on batcher");
+  // resolved on first use of the shared inventory
+  @Nullable private volatile String myVCenterUuid;
+  private volatile boolean mySharedInventoryAccountMissingReported = false;
+  // last successful per-datacenter results, used when a datacenter doesn't respond in time
+  @NotNull private final ConcurrentMap<String, List<?>> myLastDatacenterResults = new ConcurrentHashMap<>();
 
 
   public VMWareApiConnectorImpl(@NotNull final URL instanceURL,
@@ -105,6 +139,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     myProfileId = profileId;
     myInstancesProvider = instancesProvider;
     myTrustStoreProvider = trustStoreProvider;
+    myInventoryTree = VmwareApiConnectorsPool.getInventoryTree(instanceURL);
     myDomain = getTCServerDomain();
     if (myDomain == null){
       LOG.info("Unable to determine server domain. Linux guest hostname customization is disabled");
@@ -113,55 +148,60 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     }
   }
 
-  private synchronized Folder getRootFolder() throws VmwareCheckedCloudException {
+  private Folder getRootFolder() throws VmwareCheckedCloudException {
+    return mySessions.get().getRootFolder();
+  }
+
+  //protected 4 tests
+  @NotNull
+  protected ServerConnection getServerConnection() throws VmwareCheckedCloudException {
+    return mySessions.get().getServerConnection();
+  }
+
+  @NotNull
+  private ServiceInstance login() throws VmwareCheckedCloudException {
     try {
-      if (myServiceInstance != null) {
-        final SessionManager sessionManager = myServiceInstance.getSessionManager();
-        if (sessionManager == null || sessionManager.getCurrentSession() == null) {
-          myServiceInstance = null;
+      SSLSocketFactory factory = null;
+      if(myTrustStoreProvider != null){
+        final KeyStore trustStore = myTrustStoreProvider.getTrustStore();
+        if (trustStore != null) {
+          factory = SSLContextUtil.createUserSSLContext(trustStore).getSocketFactory();
         }
       }
-    } catch (Exception ex){
-      ex.printStackTrace();
-      myServiceInstance = null;
-    }
-
-    if (myServiceInstance == null){
-      try {
-        SSLSocketFactory factory = null;
-        if(myTrustStoreProvider != null){
-          final KeyStore trustStore = myTrustStoreProvider.getTrustStore();
-          if (trustStore != null) {
-            factory = SSLContextUtil.createUserSSLContext(trustStore).getSocketFactory();
-          }
-        }
-        boolean forceCertificateCheck = TeamCityProperties.getBooleanOrTrue("teamcity.vmware.force.certificate.check");
-
-        if (forceCertificateCheck && factory != null){
-          myServiceInstance = new ServiceInstance(myInstanceURL,
-                                                  myUsername,
-                                                  myPassword,
-                                                  factory,
-                                                  10 * 1000,
-                                                  30 * 1000);
+      boolean forceCertificateCheck = TeamCityProperties.getBooleanOrTrue("teamcity.vmware.force.certificate.check");
+
+      if (forceCertificateCheck && factory != null){
+        return new ServiceInstance(myInstanceURL,
+                                   myUsername,
+                                   myPassword,
+                                   factory,
+                                   10 * 1000,
+                                   30 * 1000);
+      } else {
+        return new ServiceInstance(myInstanceURL, myUsername, myPassword, true, 10 * 1000, 30 * 1000);
+      }
+    } catch (MalformedURLException e) {
+      throw new VmwareCheckedCloudException("Invalid server URL", e);
+    } catch (RemoteException e) {
+      if (e.getCause() != null) {
+        final String message = SimpleErrorMessages.getInstance().getFriendlyErrorMessage(e, "Unknown error");
+        if (e.getCause() instanceof SSLException){
+          throw new VmwareCheckedCloudException("An SSL error occurred while connecting to vCenter (is server certificate uploaded to \"SSL / HTTPS Certificates\" of the Root project?):" + message, e.getCause());
         } else {
-          myServiceInstance = new ServiceInstance(myInstanceURL, myUsername, myPassword, true, 10 * 1000, 30 * 1000);
+          throw new VmwareCheckedCloudException(message, e.getCause());
         }
-      } catch (MalformedURLException e) {
-        throw new VmwareCheckedCloudException("Invalid server URL", e);
-      } catch (RemoteException e) {
-        if (e.getCause() != null) {
-          final String message = SimpleErrorMessages.getInstance().getFriendlyErrorMessage(e, "Unknown error");
-          if (e.getCause() instanceof SSLException){
-            throw new VmwareCheckedCloudException("An SSL error occurred while connecting to vCenter (is server certificate uploaded to \"SSL / HTTPS Certificates\" of the Root project?):" + message, e.getCause());
-          } else {
-            throw new VmwareCheckedCloudException(message, e.getCause());
-          }
-        } else
-          throw new VmwareCheckedCloudException(e);
-      }
+      } else
+        throw new VmwareCheckedCloudException(e);
     }
-    return myServiceInstance.getRootFolder();
+  }
+
+  /**
+   * Drops the session if the fault means that it is not authenticated anymore, so the next call logs in again
+   */
+  @NotNull
+  private VmwareCheckedCloudException processFault(@NotNull final RemoteException e) {
+    mySessions.processFault(e);
+    return new VmwareCheckedCloudException(e);
   }
 
   private boolean isId(@NotNull String idName, Class instanceType){
@@ -192,12 +232,21 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
         return searchManagedEntity(idName, instanceType, dc);
       }
     } catch (RemoteException e) {
-      throw new VmwareCheckedCloudException(e);
+      throw processFault(e);
     }
   }
 
   protected  <T extends ManagedEntity> T createExactManagedEntity(final ManagedObjectReference mor) {
-    return (T)MorUtil.createExactManagedEntity(myServiceInstance.getServerConnection(), mor);
+    try {
+      return createExactManagedEntity(getServerConnection(), mor);
+    } catch (VmwareCheckedCloudException e) {
+      throw new CloudException(e.getMessage(), e);
+    }
+  }
+
+  //protected 4 tests
+  protected  <T extends ManagedEntity> T createExactManagedEntity(@NotNull final ServerConnection connection, final ManagedObjectReference mor) {
+    return (T)MorUtil.createExactManagedEntity(connection, mor);
   }
 
   protected <T extends ManagedEntity> T searchManagedEntity(final @NotNull String idName,
@@ -220,12 +269,23 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
       Map<String, ManagedEntity> rawVmsMaps = new InventoryNavigator(searchFolder).searchManagedEntities("VirtualMachine", names);
       return rawVmsMaps.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> (VirtualMachine)e.getValue(), (k, v) -> k));
     } catch (RemoteException  re){
-      throw new VmwareCheckedCloudException(re);
+      throw processFault(re);
     }
   }
 
   @NotNull
   protected <T extends ManagedEntity> Pair<T,Datacenter> findEntityByIdNameOld(String idName, Class<T> instanceType) throws VmwareCheckedCloudException  {
+    if (instanceType == VirtualMachine.class) {
+      final Pair<String, String> indexed = myVmIndex.get(idName);
+      if (indexed != null) {
+        final Pair<T, Datacenter> found = findIndexedVirtualMachine(idName, indexed.getFirst(), indexed.getSecond());
+        if (found != null) {
+          return found;
+        }
+        // deleted or renamed since the last fetch
+        myVmIndex.remove(idName);
+      }
+    }
     final AtomicReference<VmwareCheckedCloudException> exceptionRef = new AtomicReference<>();
     final Optional<Pair<T, Datacenter>> any = findAllEntitiesOld(Datacenter.class)
       .stream()
@@ -252,68 +312,232 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     return any.get();
   }
 
+  /**
+   * Checks that the VM from the index still exists under the same name, so callers don't get a dangling reference
+   * @return the VM and its datacenter, bound to the same session, or null if the VM is gone or renamed
+   */
+  @Nullable
+  private <T extends ManagedEntity> Pair<T, Datacenter> findIndexedVirtualMachine(@NotNull final String vmName,
+                                                                                 @NotNull final String vmId,
+                                                                                 @NotNull final String datacenterId)
+    throws VmwareCheckedCloudException {
+    final ManagedObjectReference vmMor = createMOR(VM_TYPE, vmId);
+    try {
+      final ObjectContent oc = getVirtualMachineContent(vmMor, new String[]{"name"});
+      if (oc == null || oc.getPropSet() == null || oc.getPropSet().length == 0 || !vmName.equals(oc.getPropSet()[0].getVal())) {
+        return null;
+      }
+    } catch (ManagedObjectNotFound e) {
+      return null;
+    } catch (RemoteException e) {
+      throw processFault(e);
+    }
+    final ServerConnection connection = getServerConnection();
+    final T vm = createExactManagedEntity(connection, vmMor);
+    final Datacenter dc = createExactManagedEntity(connection, createMOR(DATACENTER_TYPE, datacenterId));
+    return Pair.create(vm, dc);
+  }
+
   protected Collection<VmwareInstance> findAllVirtualMachines() throws VmwareCheckedCloudException {
-    final AtomicReference<VmwareCheckedCloudException> exceptionRef = new AtomicReference<>();
-    final Collection<VmwareInstance> result = findWithDatacenter(dc -> {
+    return findAllVirtualMachinesNotOlderThan(Long.MAX_VALUE);
+  }
+
+  /**
+   * @param maxStaleness how old the last fetched inventory may be, in milliseconds
+   * @return VMs of the last inventory fetch if it is recent enough, otherwise fetches the inventory
+   */
+  protected Collection<VmwareInstance> findAllVirtualMachines(final long maxStaleness) throws VmwareCheckedCloudException {
+    final Pair<Long, Collection<VmwareInstance>> lastInventory = myLastInventory;
+    if (lastInventory != null && System.currentTimeMillis() - lastInventory.getFirst() <= maxStaleness) {
+      return lastInventory.getSecond();
+    }
+    // a shared snapshot can be older than the bound, so it is passed on. Own fetches are always fresh
+    return TeamCityProperties.getBoolean(VmwareConstants.SHARED_INVENTORY) ? findAllVirtualMachinesNotOlderThan(maxStaleness) : findAllVirtualMachines();
+  }
+
+  @NotNull
+  private Collection<VmwareInstance> findAllVirtualMachinesNotOlderThan(final long maxStaleness) throws VmwareCheckedCloudException {
+    final long fetchTime;
+    final Collection<VmwareInstance> result;
+    final VMWareApiConnectorImpl sharedInventoryConnector = TeamCityProperties.getBoolean(VmwareConstants.SHARED_INVENTORY) ? getSharedInventoryConnector() : null;
+    if (sharedInventoryConnector != null) {
+      // listed before the snapshot is taken, so that a VM created meanwhile is not reported before its data is fetched
+      final Set<String> visibleIds = findVisibleVirtualMachineIds();
+      final Pair<Long, Collection<VmwareInstance>> shared =
+        VmwareSharedInventory.getInstance().getVirtualMachines(getVCenterUuid(), maxStaleness, sharedInventoryConnector::fetchAllVirtualMachines);
+      fetchTime = shared.getFirst();
+      result = shared.getSecond().stream().filter(vm -> visibleIds.contains(vm.getId())).collect(Collectors.toList());
+    } else {
+      fetchTime = System.currentTimeMillis();
+      result = fetchAllVirtualMachines();
+    }
+    updateVmIndex(result);
+    myLastInventory = Pair.create(fetchTime, result);
+    return result;
+  }
+
+  /**
+   * @return connector of the read-only account the shared inventory is fetched with, or null if it is not configured
+   */
+  //protected 4 tests
+  @Nullable
+  protected VMWareApiConnectorImpl getSharedInventoryConnector() {
+    final VMWareApiConnectorImpl connector = VmwareApiConnectorsPool.getSharedInventoryConnector(myInstanceURL, myTrustStoreProvider);
+    if (connector == null && !mySharedInventoryAccountMissingReported) {
+      mySharedInventoryAccountMissingReported = true;
+      LOG.warn(String.format("%s is enabled, but %s is not set. Inventory of %s is fetched with the profile account",
+                             VmwareConstants.SHARED_INVENTORY, VmwareConstants.SHARED_INVENTORY_USER, myInstanceURL));
+    }
+    return connector;
+  }
+
+  /**
+   * @return ids of the VMs the account of this connector can see. Only names are requested, so it is much cheaper than the inventory fetch
+   */
+  @NotNull
+  private Set<String> findVisibleVirtualMachineIds() throws VmwareCheckedCloudException {
+    final Set<String> result = new HashSet<>();
+    for (Datacenter dc : findAllEntitiesOld(Datacenter.class)) {
+      try {
+        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{{VM_TYPE, "name"}});
+        if (ocs != null) {
+          Arrays.stream(ocs).forEach(oc -> result.add(oc.getObj().getVal()));
+        }
+      } catch (RemoteException e) {
+        LOG.warnAndDebugDetails("An error occurred while listing virtual machines", e);
+        throw processFault(e);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private Collection<VmwareInstance> fetchAllVirtualMachines() throws VmwareCheckedCloudException {
+    if (TeamCityProperties.getBoolean(VmwareConstants.INCREMENTAL_INVENTORY)) {
+      return findAllVirtualMachinesIncrementally();
+    }
+    final String[] vmTypeInfo = createTypeInfo(VM_TYPE, getVmProperties());
+    final Collection<VmwareInstance> result = findWithDatacenter("virtual machines", dc -> {
       final String datacenterId = dc.getMOR().getVal();
       try {
-        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{{
-          "VirtualMachine", "name", "config.extraConfig", "config.template" , "config.changeVersion"
-          , "runtime.powerState", "runtime.bootTime",
-          "guest.ipAddress", "parent"
-        },});
+        final long startTime = System.currentTimeMillis();
+        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{vmTypeInfo});
+        CloudMetrics.getInstance().recordTime(CloudMetrics.INVENTORY_FETCH, System.currentTimeMillis() - startTime, "datacenter", datacenterId);
         if (ocs == null){
           return Stream.empty();
         }
         return Arrays.stream(ocs)
-                     .map(oc->{
-            final Map<String, Object> mappedProperties = Arrays.stream(oc.getPropSet()).collect(Collectors.toMap(
-              DynamicProperty::getName, DynamicProperty::getVal
-            ));
-
-          final String vmName = String.valueOf(mappedProperties.get("name"));
-          try {
-            return new VmwareInstance(
-              vmName,
-              oc.getObj().getVal(),
-              ((ArrayOfOptionValue)mappedProperties.get("config.extraConfig")).getOptionValue(),
-              (VirtualMachinePowerState)mappedProperties.get("runtime.powerState"),
-              (Boolean)mappedProperties.get("config.template"),
-              String.valueOf(mappedProperties.get("config.changeVersion")),
-              (Calendar)mappedProperties.get("runtime.bootTime"),
-              (String)mappedProperties.get("guest.ipAddress"),
-              (ManagedObjectReference)mappedProperties.get("parent"),
-              datacenterId
-            );
-          } catch (Exception ex) {
-            LOG.warnAndDebugDetails("Unable to process VM with name '" + vmName + "'. Not all properties are available", ex);
-            return null;
-          }}).filter(Objects::nonNull);
+                     .map(oc -> createVmwareInstance(oc.getObj().getVal(), oc.getPropSet(), datacenterId))
+                     .filter(Objects::nonNull);
       } catch (RemoteException e) {
-        LOG.warnAndDebugDetails("An error occurred while searching for all folders", e);
-        exceptionRef.set(new VmwareCheckedCloudException(e));
-        return Stream.empty();
+        LOG.warnAndDebugDetails("An error occurred while searching for all virtual machines", e);
+        throw processFault(e);
       }
     });
+    logAllInstances(result);
+    return result;
+  }
+
+  private Collection<VmwareInstance> findAllVirtualMachinesIncrementally() throws VmwareCheckedCloudException {
+    final Collection<Datacenter> datacenters = findAllEntitiesOld(Datacenter.class);
+    try {
+      final Collection<VmwareInstance> result = myInventorySync.getVirtualMachines(mySessions.getPrimary(), datacenters, getVmProperties());
+      logAllInstances(result);
+      return result;
+    } catch (RemoteException e) {
+      LOG.warnAndDebugDetails("An exception occurred while processing incremental inventory update", e);
+      throw processFault(e);
+    }
+  }
+
+  /**
+   * @return instance UUID of the vCenter, or the server URL if it is not available (e.g. standalone ESXi)
+   */
+  //protected 4 tests
+  @NotNull
+  protected String getVCenterUuid() throws VmwareCheckedCloudException {
+    String uuid = myVCenterUuid;
+    if (uuid == null) {
+      final AboutInfo aboutInfo = getRootFolder().getServerConnection().getServiceInstance().getAboutInfo();
+      uuid = aboutInfo == null || StringUtil.isEmpty(aboutInfo.getInstanceUuid())
+             ? myInstanceURL.toString().toLowerCase()
+             : aboutInfo.getInstanceUuid();
+      myVCenterUuid = uuid;
+    }
+    return uuid;
+  }
+
+  private void updateVmIndex(@NotNull final Collection<VmwareInstance> instances) {
+    final Map<String, Pair<String, String>> index = new ConcurrentHashMap<>(instances.size());
+    final Set<String> duplicateNames = new HashSet<>();
+    for (VmwareInstance instance : instances) {
+      if (index.put(instance.getName(), Pair.create(instance.getId(), instance.getDatacenterId())) != null) {
+        duplicateNames.add(instance.getName());
+      }
+    }
+    // names are not unique across datacenters. Ambiguous names are resolved by search as before
+    duplicateNames.forEach(index::remove);
+    myVmIndex = index;
+  }
+
+  private void logAllInstances(@NotNull final Collection<VmwareInstance> instances) {
     if (LOG.isDebugEnabled()) {
       LOG.debug(
         String.format("[%s]. All instances: [%s]"
-          , myProfileId, String.join(",", result
+          , myProfileId, String.join(",", instances
             .stream()
             .map(VmwareInstance::getName).collect(Collectors.toList())
           )
         )
       );
     }
-    if (exceptionRef.get() != null){
-      LOG.warnAndDebugDetails("An exception occurred while processing findAllVirtualMachines", exceptionRef.get());
-      throw exceptionRef.get();
+  }
+
+  @NotNull
+  private static String[] getVmProperties() {
+    return TeamCityProperties.getBoolean(VmwareConstants.SELECTIVE_EXTRA_CONFIG) ? VM_SELECTIVE_PROPERTIES : VM_PROPERTIES;
+  }
+
+  /**
+   * Reads the property set directly, without building an intermediate map for every VM
+   */
+  @Nullable
+  static VmwareInstance createVmwareInstance(@NotNull final String vmId,
+                                             @Nullable final DynamicProperty[] propSet,
+                                             @NotNull final String datacenterId) {
+    final VmwareInstanceRecord.Builder builder = new VmwareInstanceRecord.Builder();
+    try {
+      if (propSet != null) {
+        for (DynamicProperty property : propSet) {
+          builder.set(property.getName(), property.getVal());
+        }
+      }
+    } catch (Exception ex) {
+      LOG.warnAndDebugDetails("Unable to process VM with name '" + builder.getName() + "'. Not all properties are available", ex);
+      return null;
+    }
+    return createVmwareInstance(vmId, builder, datacenterId);
+  }
+
+  @Nullable
+  static VmwareInstance createVmwareInstance(@NotNull final String vmId,
+                                             @NotNull final VmwareInstanceRecord.Builder builder,
+                                             @NotNull final String datacenterId) {
+    try {
+      return new VmwareInstance(builder.build(vmId, datacenterId));
+    } catch (Exception ex) {
+      LOG.warnAndDebugDetails("Unable to process VM with name '" + builder.getName() + "'. Not all properties are available", ex);
+      return null;
     }
-    return result;
   }
 
   protected Map<String, VmwareInstance> findAllVirtualMachinesAsMap() throws VmwareCheckedCloudException{
-    return findAllVirtualMachines()
+    return toMap(findAllVirtualMachines());
+  }
+
+  @NotNull
+  private static Map<String, VmwareInstance> toMap(@NotNull final Collection<VmwareInstance> instances) {
+    return instances
       .stream()
       .collect(Collectors.toMap(VmwareInstance::getName, Function.identity(), (k, v) -> k));
   }
@@ -328,17 +552,18 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   }
 
   protected Collection<FolderBean> findAllFolders() throws VmwareCheckedCloudException {
-    final AtomicReference<VmwareCheckedCloudException> exceptionRef = new AtomicReference<>();
-    final Collection<FolderBean> result = findWithDatacenter(dc -> {
+    final Collection<FolderBean> result = findWithDatacenter("folders", dc -> {
       try {
-        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{{
-          "Folder", "name", "childType", "parent"
-        },});
+        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{
+          {"Folder", "name", "childType", "parent"},
+          {DATACENTER_TYPE, "name", "parent"},
+        });
         if (ocs == null){
           return Stream.empty();
         }
+        myInventoryTree.update(ocs);
         final String datacenterId = dc.getMOR().getVal();
-        return Arrays.stream(ocs).map(oc -> {
+        return Arrays.stream(ocs).filter(oc -> FOLDER_TYPE.equals(oc.getObj().getType())).map(oc -> {
           try {
             final Map<String, Object> mappedProperties = Arrays.stream(oc.getPropSet()).collect(Collectors.toMap(
               DynamicProperty::getName, DynamicProperty::getVal
@@ -362,7 +587,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
               return null;
             }
 
-            final String fullFolderPath = getFullPath(simpleName, oc.obj, parent, dc);
+            final String fullFolderPath = getFullPath(simpleName, oc.obj, parent);
             LOG.debug("Calculated path: " + fullFolderPath);
 
             return new FolderBean(oc.obj,
@@ -379,8 +604,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
         });
       } catch (RemoteException e) {
         LOG.warnAndDebugDetails("An error occurred while searching for all folders", e);
-        exceptionRef.set(new VmwareCheckedCloudException(e));
-        return Stream.empty();
+        throw processFault(e);
       }
     });
 
@@ -388,15 +612,19 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   }
 
   protected Collection<ResourcePoolBean> findAllResourcePools() throws VmwareCheckedCloudException {
-    final AtomicReference<VmwareCheckedCloudException> exceptionRef = new AtomicReference<>();
-    final Collection<ResourcePoolBean> result = findWithDatacenter(dc -> {
+    final Collection<ResourcePoolBean> result = findWithDatacenter("resource pools", dc -> {
       try {
         final String datacenterId = dc.getMOR().getVal();
-        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{{"ResourcePool", "name", "parent"},});
+        final ObjectContent[] ocs = getObjectContents(dc, new String[][]{
+          {RESPOOL_TYPE, "name", "parent"},
+          {"ComputeResource", "name", "parent"},
+          {DATACENTER_TYPE, "name", "parent"},
+        });
         if (ocs == null){
           return Stream.empty();
         }
-        return Arrays.stream(ocs).map(oc -> {
+        myInventoryTree.update(ocs);
+        return Arrays.stream(ocs).filter(oc -> RESPOOL_TYPE.equals(oc.getObj().getType())).map(oc -> {
           final Map<String, Object> mappedProperties = Arrays.stream(oc.getPropSet()).collect(Collectors.toMap(
             DynamicProperty::getName, DynamicProperty::getVal
           ));
@@ -404,9 +632,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
           final ManagedObjectReference parent = (ManagedObjectReference)mappedProperties.get("parent");
           LOG.debug("Found respool with name '" + simpleName + "'. Parent: " + (parent == null ? "null" : parent.toString()));
 
-          final ResourcePool pool =  (ResourcePool)createExactManagedEntity(oc.getObj());
-
-          final String path = getFullPath(simpleName, oc.obj, parent, dc);
+          final String path = getFullPath(simpleName, oc.obj, parent);
           LOG.debug("Calculated path: " + path);
 
           return new ResourcePoolBean(oc.obj,
@@ -418,13 +644,9 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
         });
       } catch (RemoteException e) {
         LOG.warnAndDebugDetails("An error occurred while searching for all resource pools", e);
-        exceptionRef.set(new VmwareCheckedCloudException(e));
-        return Stream.empty();
+        throw processFault(e);
       }
     });
-    if (exceptionRef.get() != null){
-      throw exceptionRef.get();
-    }
     return result;
   }
 
@@ -433,9 +655,86 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     return new InventoryNavigator(dc).retrieveObjectContents(typeinfo, true);
   }
 
+  /**
+   * Fetches entities from all datacenters in parallel.
+   * If a datacenter fails or doesn't respond in time, the last successfully fetched result for it is used.
+   * If there is no such result, the whole fetch fails, because returning a partial list would make
+   * the missing instances look deleted.
+   */
   private <T extends VmwareManagedEntity> Collection<T> findWithDatacenter(
-    Function<Datacenter, Stream<T>> mapper) throws VmwareCheckedCloudException {
-    return findAllEntitiesOld(Datacenter.class).stream().flatMap(mapper).filter(Objects::nonNull).collect(Collectors.toList());
+    @NotNull final String entitiesName,
+    @NotNull final DatacenterFetcher<T> fetcher) throws VmwareCheckedCloudException {
+    final Collection<Datacenter> datacenters = findAllEntitiesOld(Datacenter.class);
+    if (datacenters.size() <= 1) {
+      final List<T> result = new ArrayList<>();
+      for (Datacenter dc : datacenters) {
+        fetcher.fetch(dc).filter(Objects::nonNull).forEach(result::add);
+      }
+      return result;
+    }
+
+    final Map<Datacenter, Future<List<T>>> futures = new LinkedHashMap<>();
+    for (Datacenter dc : datacenters) {
+      futures.put(dc, myDatacenterExecutor.submit(() -> fetcher.fetch(dc).filter(Objects::nonNull).collect(Collectors.toList())));
+    }
+
+    final long deadline = System.currentTimeMillis() + TeamCityProperties.getIntervalMilliseconds(DATACENTER_FETCH_TIMEOUT_PROPERTY, DATACENTER_FETCH_TIMEOUT);
+    final List<T> result = new ArrayList<>();
+    for (Map.Entry<Datacenter, Future<List<T>>> entry : futures.entrySet()) {
+      final String dcId = entry.getKey().getMOR().getVal();
+      final String cacheKey = entitiesName + ":" + dcId;
+      try {
+        final List<T> dcResult = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        myLastDatacenterResults.put(cacheKey, dcResult);
+        result.addAll(dcResult);
+      } catch (InterruptedException e) {
+        cancelAll(futures.values());
+        Thread.currentThread().interrupt();
+        throw new VmwareCheckedCloudException("Interrupted while fetching " + entitiesName, e);
+      } catch (TimeoutException | ExecutionException e) {
+        entry.getValue().cancel(true);
+        final List<T> lastKnown = (List<T>)myLastDatacenterResults.get(cacheKey);
+        final String reason = e instanceof TimeoutException ? "timeout" : String.valueOf(e.getCause());
+        if (lastKnown == null) {
+          cancelAll(futures.values());
+          throw new VmwareCheckedCloudException(String.format("Unable to fetch %s from datacenter %s: %s", entitiesName, dcId, reason), e);
+        }
+        LOG.warn(String.format("Unable to fetch %s from datacenter %s (%s). Will use the previous result", entitiesName, dcId, reason));
+        result.addAll(lastKnown);
+      }
+    }
+    return result;
+  }
+
+  private static void cancelAll(@NotNull final Collection<? extends Future<?>> futures) {
+    futures.forEach(f -> f.cancel(true));
+  }
+
+  private interface DatacenterFetcher<T> {
+    /**
+     * @return entities of the datacenter. Throws instead of returning a partial result, so that it is not remembered as the last known one
+     */
+    @NotNull
+    Stream<T> fetch(@NotNull Datacenter dc) throws VmwareCheckedCloudException;
+  }
+
+  @NotNull
+  private static ExecutorService createShutdownExecutor() {
+    // waits for untracked power off tasks, so every forced shutdown gets its own thread
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                                  new SynchronousQueue<>(),
+                                  new NamedDaemonThreadFactory("VMware forced shutdown"));
+  }
+
+  @NotNull
+  private static ExecutorService createDatacenterExecutor() {
+    final int threadCount = Math.max(1, TeamCityProperties.getInteger("teamcity.vmware.datacenter.fetch.threads", 4));
+    // temporary connectors are never disposed, so let idle threads die instead of keeping them forever
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                                                               new LinkedBlockingQueue<>(),
+                                                               new NamedDaemonThreadFactory("VMware datacenter fetch"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(Class<T> instanceType) throws VmwareCheckedCloudException  {
@@ -444,7 +743,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
       managedEntities = new InventoryNavigator(getRootFolder())
         .searchManagedEntities(new String[][]{{instanceType.getSimpleName(), "name"},}, true);
     } catch (RemoteException e) {
-      throw new VmwareCheckedCloudException(e);
+      throw processFault(e);
     }
     List<T> retval = new ArrayList<T>();
     for (ManagedEntity managedEntity : managedEntities) {
@@ -459,7 +758,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
       managedEntities = new InventoryNavigator(getRootFolder())
         .searchManagedEntities(new String[][]{{instanceType.getSimpleName(), "name"},}, true);
     } catch (RemoteException e) {
-      throw new VmwareCheckedCloudException(e);
+      throw processFault(e);
     }
     Map<String, T> retval = new HashMap<String, T>();
     for (ManagedEntity managedEntity : managedEntities) {
@@ -490,11 +789,16 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   @Override
   @NotNull
   public <R extends AbstractInstance> Map<VmwareCloudImage, Map<String, R>> fetchInstances(@NotNull final Collection<VmwareCloudImage> images) throws VmwareCheckedCloudException {
+    return groupInstances(images, findAllVirtualMachinesAsMap());
+  }
+
+  @NotNull
+  private <R extends AbstractInstance> Map<VmwareCloudImage, Map<String, R>> groupInstances(@NotNull final Collection<VmwareCloudImage> images,
+                                                                                           @NotNull final Map<String, VmwareInstance> allVmsAsMap)
+    throws VmwareCheckedCloudException {
     Map<VmwareCloudImage, Map<String, R>> result = new HashMap<>();
     List<VmwareCloudImage> unprocessed = new ArrayList<>();
 
-    final Map<String, VmwareInstance> allVmsAsMap = findAllVirtualMachinesAsMap();
-
     for (VmwareCloudImage image: images) {
       final VmwareCloudImageDetails imageDetails = image.getImageDetails();
       if(imageDetails.getBehaviour().isUseOriginal()){
@@ -547,7 +851,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   public Map<String, String> getCustomizationSpecs() {
     final Map<String,String> retval = new HashMap<>();
     try {
-      final CustomizationSpecManager specManager = myServiceInstance.getCustomizationSpecManager();
+      final CustomizationSpecManager specManager = mySessions.get().getCustomizationSpecManager();
       if (specManager == null)
         return retval;
       final CustomizationSpecInfo[] specs = specManager.getInfo();
@@ -564,7 +868,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
 
   @Override
   public CustomizationSpec getCustomizationSpec(final String name) throws VmwareCheckedCloudException {
-    final CustomizationSpecManager specManager = myServiceInstance.getCustomizationSpecManager();
+    final CustomizationSpecManager specManager = mySessions.get().getCustomizationSpecManager();
     if (specManager == null){
       throw new VmwareCheckedCloudException("Customization Spec in not available: '" + name + "'");
     }
@@ -609,14 +913,13 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
 
   private String getFullPath(@NotNull final String entityName,
                              @NotNull final ManagedObjectReference mor,
-                             @Nullable final ManagedObjectReference firstParent,
-                             @Nullable final Datacenter dc){
+                             @Nullable final ManagedObjectReference firstParent){
     final String uniqueName = String.format("%s (%s)", entityName, mor.getVal());
     if (firstParent == null) {
       return uniqueName;
     }
     try {
-      final String morPath = getFullMORPath(createExactManagedEntity(firstParent), dc);
+      final String morPath = myInventoryTree.getPath(firstParent, this::resolveNameAndParent);
       if (StringUtil.isEmpty(morPath)) {
         return uniqueName;
       } else if (("Resources".equals(entityName) || "vm".equals(entityName)) && !mor.getType().equals(firstParent.getType())) {
@@ -631,59 +934,14 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     }
   }
 
-  @Nullable
-  private String getFullFolderPath(final ManagedObjectReference mor, final Datacenter dc) {
-    ManagedEntity entity;
-    try {
-      entity = findEntityByIdNameNullableOld(mor.getVal(), Folder.class, dc);
-      if (entity != null) {
-        return getFullMORPath(entity, dc);
-      } else {
-        return null;
-      }
-    } catch (VmwareCheckedCloudException e) {
-      return mor.getVal();
-    }
-  }
-
-  @Nullable
-  private String getResourcePoolPath(final ManagedObjectReference mor, final Datacenter dc) {
-    ManagedEntity entity;
-    try {
-      entity = findEntityByIdNameNullableOld(mor.getVal(), ResourcePool.class, dc);
-      if (entity != null) {
-        return getFullMORPath(entity, dc);
-      } else {
-        return null;
-      }
-    } catch (VmwareCheckedCloudException e) {
-      return mor.getVal();
-    }
-  }
-
-  private String getFullMORPath(@NotNull final ManagedEntity entity, @Nullable final Datacenter dc) {
-    final ManagedObjectReference mor = entity.getMOR();
-    final Pair<String, String> morPair = Pair.create(mor.getType(), mor.getVal());
-    final String existingPath = MANAGED_ENTITIES_NAMES_CACHE.getIfPresent(morPair);
-    if (existingPath != null)
-      return existingPath;
+  /**
+   * Fetches an ancestor which wasn't retrieved together with the entities, see {@link VmwareInventoryTree}
+   */
+  @NotNull
+  private Pair<String, ManagedObjectReference> resolveNameAndParent(@NotNull final ManagedObjectReference mor) {
+    final ManagedEntity entity = createExactManagedEntity(mor);
     final ManagedEntity parent = entity.getParent();
-    final String entityName = entity.getName();
-    boolean skipName =
-      (mor.getType().equals(FOLDER_TYPE) && (entityName.equals(SPEC_FOLDER) || !FOLDER_PATTERN.matcher(morPair.getSecond()).matches() )) ||
-      (mor.getType().equals(RESPOOL_TYPE) && entityName.equals(SPEC_RESPOOL));
-
-    if (parent == null){
-      final String name = skipName ? "" : entityName;
-      MANAGED_ENTITIES_NAMES_CACHE.put(morPair, name);
-      return name;
-    } else {
-      final String fullMORPath = getFullMORPath(parent, dc);
-      final String delimiter = fullMORPath.isEmpty() ? "" : "/";
-      final String name = skipName ? fullMORPath : fullMORPath + delimiter + entityName;
-      MANAGED_ENTITIES_NAMES_CACHE.put(morPair, name);
-      return name;
-    }
+    return Pair.create(entity.getName(), parent == null ? null : parent.getMOR());
   }
 
 
@@ -745,12 +1003,19 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   @Nullable
   public Task startInstance(@NotNull final VmwareCloudInstance instance, @NotNull final String agentName, @NotNull final CloudInstanceUserData userData)
     throws VmwareCheckedCloudException, InterruptedException {
-    final VirtualMachine vm = findEntityByIdNameOld(instance.getInstanceId(), VirtualMachine.class).getFirst();
+    final Pair<VirtualMachine, Datacenter> pair = findEntityByIdNameOld(instance.getInstanceId(), VirtualMachine.class);
+    final VirtualMachine vm = pair.getFirst();
     if (vm != null) {
+      final long batchWindow = TeamCityProperties.getIntervalMilliseconds(VmwareConstants.POWER_ON_BATCH_WINDOW, 0);
       try {
-        return vm.powerOnVM_Task(null);
+        return getGovernor().execute(VmwareOperationGovernor.Operation.POWER_ON, () -> {
+          if (batchWindow > 0 && pair.getSecond() != null) {
+            return myPowerOnBatcher.powerOn(vm, pair.getSecond(), batchWindow);
+          }
+          return trackTask(vm.powerOnVM_Task(null));
+        });
       } catch (RemoteException e) {
-        throw new VmwareCheckedCloudException(e);
+        throw processFault(e);
       }
     } else {
       instance.updateErrors(new TypedCloudErrorInfo(String.format("Instance %s doesn't exist", instance.getInstanceId())));
@@ -762,24 +1027,36 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     throws VmwareCheckedCloudException {
     final VirtualMachine vm = findEntityByIdNameOld(instance.getInstanceId(), VirtualMachine.class).getFirst();
     final VirtualMachineConfigSpec spec = new VirtualMachineConfigSpec();
-    spec.setExtraConfig(new OptionValue[]{
-      createOptionValue(AGENT_NAME, agentName),
-      createOptionValue(INSTANCE_NAME, instance.getInstanceId()),
-      createOptionValue(AUTH_TOKEN, userData.getAuthToken()),
-      createOptionValue(SERVER_URL, userData.getServerAddress()),
-      createOptionValue(IMAGE_NAME, instance.getImageId()),
-      createOptionValue(USER_DATA, userData.serialize())
-    });
+    final List<OptionValue> options = createGuestInfoOptions(instance, agentName, userData);
+    if (instance instanceof WarmPoolVmwareCloudInstance) {
+      // the VM leaves the warm pool. Other VMs never had the mark, so their config is not touched
+      options.add(createOptionValue(TEAMCITY_VMWARE_WARM_POOL, ""));
+    }
+    spec.setExtraConfig(options.toArray(new OptionValue[0]));
     try {
-      return vm.reconfigVM_Task(spec);
+      return trackTask(vm.reconfigVM_Task(spec));
     } catch (RemoteException e) {
-      throw new VmwareCheckedCloudException(e);
+      throw processFault(e);
     }
   }
 
   @Nullable
   @Override
-  public Task cloneAndStartVm(@NotNull final VmwareCloudInstance instance) throws VmwareCheckedCloudException {
+  public Task cloneAndStartVm(@NotNull final VmwareCloudInstance instance,
+                              @Nullable final String agentName,
+                              @Nullable final CloudInstanceUserData userData) throws VmwareCheckedCloudException {
+    return cloneVm(instance, false, agentName, userData);
+  }
+
+  @Override
+  public Task cloneWarmPoolVm(@NotNull final VmwareCloudInstance instance) throws VmwareCheckedCloudException {
+    return cloneVm(instance, true, null, null);
+  }
+
+  private Task cloneVm(@NotNull final VmwareCloudInstance instance,
+                       final boolean warmPool,
+                       @Nullable final String agentName,
+                       @Nullable final CloudInstanceUserData userData) throws VmwareCheckedCloudException {
     final VmwareCloudImageDetails imageDetails = instance.getImage().getImageDetails();
     LOG.info(String.format("Attempting to clone VM %s into %s", imageDetails.getSourceVmName(), instance.getName()));
 
@@ -791,20 +1068,11 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     final VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
     final VirtualMachineRelocateSpec location = new VirtualMachineRelocateSpec();
 
-    cloneSpec.setPowerOn(true);
+    cloneSpec.setPowerOn(!warmPool);
     cloneSpec.setLocation(location);
     cloneSpec.setConfig(config);
     final boolean disableOsCustomization = TeamCityProperties.getBoolean(VmwareConstants.DISABLE_OS_CUSTOMIZATION);
-    if (!VmwareConstants.DEFAULT_RESOURCE_POOL.equals(imageDetails.getResourcePoolId())) {
-      final ResourcePool pool = findEntityByIdNameNullableOld(imageDetails.getResourcePoolId(), ResourcePool.class, datacenter);
-      if (pool != null) {
-          location.setPool(pool.getMOR());
-      } else {
-        LOG.warn(String.format("Unable to find resource pool %s at datacenter %s. Will clone at the image resource pool instead"
-          , imageDetails.getResourcePoolId()
-          , datacenter == null? "<not provided>":  datacenter.getName()));
-      }
-    }
+    setResourcePool(location, imageDetails, datacenter);
     final Map<String, VirtualMachineSnapshotTree> snapshotList = getSnapshotList(vm);
     final VmwareSourceState sourceState = instance.getSourceState();
     if (imageDetails.useCurrentVersion() || StringUtil.isEmptyOrSpaces(sourceState.getSnapshotName())) {
@@ -827,16 +1095,12 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     }
 
     final VirtualMachineConfigInfo vmConfig = vm.getConfig();
-    config.setExtraConfig(new OptionValue[]{
-      createOptionValue(TEAMCITY_VMWARE_CLONED_INSTANCE, "true"),
-      createOptionValue(TEAMCITY_VMWARE_IMAGE_SOURCE_VM_NAME, imageDetails.getSourceVmName()),
-      createOptionValue(TEAMCITY_VMWARE_IMAGE_SOURCE_ID, imageDetails.getSourceId()),
-      createOptionValue(TEAMCITY_VMWARE_IMAGE_SOURCE_VM_ID, vm.getMOR().getVal()),
-      createOptionValue(TEAMCITY_VMWARE_IMAGE_SNAPSHOT, sourceState.getSnapshotName()),
-      createOptionValue(TEAMCITY_VMWARE_IMAGE_CHANGE_VERSION, vmConfig.getChangeVersion()),
-      createOptionValue(TEAMCITY_VMWARE_PROFILE_ID, StringUtil.emptyIfNull(myProfileId)),
-      createOptionValue(TEAMCITY_VMWARE_SERVER_UUID, StringUtil.emptyIfNull(myServerUUID))
-    });
+    final List<OptionValue> options = createClonedInstanceOptions(instance, vm, vmConfig);
+    options.add(createOptionValue(TEAMCITY_VMWARE_WARM_POOL, warmPool ? "true" : ""));
+    if (agentName != null && userData != null) {
+      options.addAll(createGuestInfoOptions(instance, agentName, userData));
+    }
+    config.setExtraConfig(options.toArray(new OptionValue[0]));
 
     final GuestInfo guest = vm.getGuest();
     String guestFamily = guest != null ? guest.getGuestFamily() : null;
@@ -876,7 +1140,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     try {
       final Folder folder = findEntityByIdNameNullableOld(imageDetails.getFolderId(), Folder.class, datacenter);
       if (folder != null) {
-        return vm.cloneVM_Task(folder, instance.getName(), cloneSpec);
+        return getGovernor().execute(VmwareOperationGovernor.Operation.CLONE, () -> trackTask(vm.cloneVM_Task(folder, instance.getName(), cloneSpec)));
       } else {
         String dcName = datacenter == null ? "root" : datacenter.getName();
         throw new VmwareCheckedCloudException(
@@ -885,10 +1149,112 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
       }
     } catch (RemoteException e) {
       instance.setStatus(InstanceStatus.ERROR);
-      throw new VmwareCheckedCloudException(e);
+      throw processFault(e);
+    }
+  }
+
+  @Override
+  public Task instantCloneVm(@NotNull final VmwareCloudInstance instance,
+                             @NotNull final String agentName,
+                             @NotNull final CloudInstanceUserData userData) throws VmwareCheckedCloudException {
+    final VmwareCloudImageDetails imageDetails = instance.getImage().getImageDetails();
+    LOG.info(String.format("Attempting to instant clone VM %s into %s", imageDetails.getSourceVmName(), instance.getName()));
+
+    final Pair<VirtualMachine, Datacenter> pair = findEntityByIdNameOld(imageDetails.getSourceVmName(), VirtualMachine.class);
+    final VirtualMachine vm = pair.getFirst();
+    final Datacenter datacenter = pair.getSecond();
+
+    final VirtualMachineRuntimeInfo runtime = vm.getRuntime();
+    if (runtime == null || runtime.getPowerState() != VirtualMachinePowerState.poweredOn) {
+      throw new VmwareCheckedCloudException(String.format("Unable to instant clone %s: source VM is not running", imageDetails.getSourceVmName()));
+    }
+
+    final VirtualMachineRelocateSpec location = new VirtualMachineRelocateSpec();
+    setResourcePool(location, imageDetails, datacenter);
+    final Folder folder = findEntityByIdNameNullableOld(imageDetails.getFolderId(), Folder.class, datacenter);
+    if (folder == null) {
+      String dcName = datacenter == null ? "root" : datacenter.getName();
+      throw new VmwareCheckedCloudException(
+        String.format("Unable to find folder %s in datacenter %s", imageDetails.getFolderId(), dcName)
+      );
+    }
+    location.setFolder(folder.getMOR());
+
+    final List<OptionValue> options = createClonedInstanceOptions(instance, vm, vm.getConfig());
+    options.addAll(createGuestInfoOptions(instance, agentName, userData));
+
+    final VirtualMachineInstantCloneSpec spec = new VirtualMachineInstantCloneSpec();
+    spec.setName(instance.getName());
+    spec.setLocation(location);
+    spec.setConfig(options.toArray(new OptionValue[0]));
+    try {
+      return getGovernor().execute(VmwareOperationGovernor.Operation.CLONE, () -> trackTask(instantClone(vm, spec)));
+    } catch (RemoteException e) {
+      instance.setStatus(InstanceStatus.ERROR);
+      throw processFault(e);
     }
   }
 
+  /**
+   * Calls InstantClone_Task directly, as it is not available in the vSphere API bindings
+   */
+  @NotNull
+  protected Task instantClone(@NotNull final VirtualMachine vm, @NotNull final VirtualMachineInstantCloneSpec spec) throws RemoteException {
+    final Argument[] arguments = {
+      new Argument("_this", "ManagedObjectReference", vm.getMOR()),
+      new Argument("spec", "DynamicData", spec)
+    };
+    final ManagedObjectReference taskMor =
+      (ManagedObjectReference)vm.getServerConnection().getVimService().getWsc().invoke("InstantClone_Task", arguments, "ManagedObjectReference");
+    return new Task(vm.getServerConnection(), taskMor);
+  }
+
+  private void setResourcePool(@NotNull final VirtualMachineRelocateSpec location,
+                               @NotNull final VmwareCloudImageDetails imageDetails,
+                               @Nullable final Datacenter datacenter) throws VmwareCheckedCloudException {
+    if (VmwareConstants.DEFAULT_RESOURCE_POOL.equals(imageDetails.getResourcePoolId()))
+      return;
+    final ResourcePool pool = findEntityByIdNameNullableOld(imageDetails.getResourcePoolId(), ResourcePool.class, datacenter);
+    if (pool != null) {
+        location.setPool(pool.getMOR());
+    } else {
+      LOG.warn(String.format("Unable to find resource pool %s at datacenter %s. Will clone at the image resource pool instead"
+        , imageDetails.getResourcePoolId()
+        , datacenter == null? "<not provided>":  datacenter.getName()));
+    }
+  }
+
+  @NotNull
+  private List<OptionValue> createClonedInstanceOptions(@NotNull final VmwareCloudInstance instance,
+                                                        @NotNull final VirtualMachine vm,
+                                                        @NotNull final VirtualMachineConfigInfo vmConfig) {
+    final VmwareCloudImageDetails imageDetails = instance.getImage().getImageDetails();
+    return new ArrayList<>(Arrays.asList(
+      createOptionValue(TEAMCITY_VMWARE_CLONED_INSTANCE, "true"),
+      createOptionValue(TEAMCITY_VMWARE_IMAGE_SOURCE_VM_NAME, imageDetails.getSourceVmName()),
+      createOptionValue(TEAMCITY_VMWARE_IMAGE_SOURCE_ID, imageDetails.getSourceId()),
+      createOptionValue(TEAMCITY_VMWARE_IMAGE_SOURCE_VM_ID, vm.getMOR().getVal()),
+      createOptionValue(TEAMCITY_VMWARE_IMAGE_SNAPSHOT, instance.getSourceState().getSnapshotName()),
+      createOptionValue(TEAMCITY_VMWARE_IMAGE_CHANGE_VERSION, vmConfig.getChangeVersion()),
+      createOptionValue(TEAMCITY_VMWARE_PROFILE_ID, StringUtil.emptyIfNull(myProfileId)),
+      createOptionValue(TEAMCITY_VMWARE_SERVER_UUID, StringUtil.emptyIfNull(myServerUUID))
+    ));
+  }
+
+  @NotNull
+  private List<OptionValue> createGuestInfoOptions(@NotNull final VmwareCloudInstance instance,
+                                                   @NotNull final String agentName,
+                                                   @NotNull final CloudInstanceUserData userData) {
+    return new ArrayList<>(Arrays.asList(
+      createOptionValue(AGENT_NAME, agentName),
+      createOptionValue(INSTANCE_NAME, instance.getInstanceId()),
+      createOptionValue(AUTH_TOKEN, userData.getAuthToken()),
+      createOptionValue(SERVER_URL, userData.getServerAddress()),
+      createOptionValue(IMAGE_NAME, instance.getImageId()),
+      createOptionValue(USER_DATA, userData.serialize())
+    ));
+  }
+
   /**
    * checks whether user has a certain privilege on a certain resource.
    * @param pool
@@ -914,7 +1280,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
       rolesSet.add(roleId);
     }
 
-    final AuthorizationManager authorizationManager = myServiceInstance.getAuthorizationManager();
+    final AuthorizationManager authorizationManager = mySessions.get().getAuthorizationManager();
     if (authorizationManager == null)
       return true; // don't perform the check
 
@@ -976,6 +1342,9 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   }
 
   private Task doShutdown(@NotNull final VmwareCloudInstance instance, @NotNull final VirtualMachine vm) throws VmwareCheckedCloudException {
+    if (TeamCityProperties.getBoolean(VmwareConstants.EVENT_DRIVEN_SHUTDOWN)) {
+      return doShutdownAsync(instance, vm);
+    }
     try {
       guestShutdown(instance, vm);
       final long shutdownStartTime = System.currentTimeMillis();
@@ -1059,11 +1428,77 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     } catch (RemoteException e) {
       LOG.info("Will attempt to force shutdown due to error: " + e.toString());
       try {
-        return forceShutdown(vm);
+        return trackTask(forceShutdown(vm));
+      } catch (RemoteException e1) {
+        throw processFault(e1);
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #doShutdown(VmwareCloudInstance, VirtualMachine)}, but doesn't poll the VM state.
+   * Power off is delivered by {@link VmwarePowerStateWatcher}, so the returned task doesn't occupy a thread while waiting.
+   */
+  private Task doShutdownAsync(@NotNull final VmwareCloudInstance instance, @NotNull final VirtualMachine vm) throws VmwareCheckedCloudException {
+    try {
+      guestShutdown(instance, vm);
+    } catch (RemoteException e) {
+      LOG.info("Will attempt to force shutdown due to error: " + e.toString());
+      try {
+        return trackTask(forceShutdown(vm));
       } catch (RemoteException e1) {
-        throw new VmwareCheckedCloudException(e1);
+        throw processFault(e1);
       }
     }
+    final long guestShutdownTimeout = getGuestShutdownTimeout();
+    final CompletableFuture<TaskInfo> result = myPowerStateWatcher.waitForPowerOff(vm.getMOR(), guestShutdownTimeout).thenCompose(poweredOff -> {
+      if (poweredOff) {
+        return CompletableFuture.completedFuture(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+      }
+      LOG.info(String.format("Guest shutdown of '%s' hasn't finished in %d seconds. Will force shutdown", instance.getName(), guestShutdownTimeout / 1000));
+      // the callback runs on the watcher thread, which must not be blocked by remote calls
+      return CompletableFuture.supplyAsync(() -> forcePowerOff(vm), myShutdownExecutor).thenCompose(f -> f);
+    });
+    return new VmwareFutureTask(result);
+  }
+
+  /**
+   * @return result of the power off task
+   */
+  @NotNull
+  private CompletableFuture<TaskInfo> forcePowerOff(@NotNull final VirtualMachine vm) {
+    try {
+      final Task task = trackTask(forceShutdown(vm));
+      if (task instanceof VmwareFutureTask) {
+        return ((VmwareFutureTask)task).getFuture();
+      }
+      task.waitForTask();
+      return CompletableFuture.completedFuture(task.getTaskInfo());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.completedFuture(VmwareFutureTask.createTaskInfo(TaskInfoState.error, e.toString()));
+    } catch (RemoteException e) {
+      processFault(e);
+      return CompletableFuture.completedFuture(VmwareFutureTask.createTaskInfo(TaskInfoState.error, e.toString()));
+    } catch (Exception e) {
+      return CompletableFuture.completedFuture(VmwareFutureTask.createTaskInfo(TaskInfoState.error, e.toString()));
+    }
+  }
+
+  @NotNull
+  private VmwareOperationGovernor getGovernor() {
+    return VmwareApiConnectorsPool.getGovernor(getKey());
+  }
+
+  /**
+   * Hands the task over to {@link VmwareTaskTracker}, so waiting for its completion doesn't block a thread
+   */
+  @NotNull
+  private Task trackTask(@NotNull final Task task) {
+    if (TeamCityProperties.getBoolean(VmwareConstants.TRACK_TASKS)) {
+      return myTaskTracker.track(task);
+    }
+    return task;
   }
 
   private static long getCheckInstanceStatusDelay() {
@@ -1103,7 +1538,8 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     LOG.info("Will delete instance " + instance.getName());
     try {
       final VirtualMachine vm = findEntityByIdNameOld(instance.getInstanceId(), VirtualMachine.class).getFirst();
-      return vm.destroy_Task();
+      myVmIndex.remove(instance.getInstanceId());
+      return getGovernor().execute(VmwareOperationGovernor.Operation.DESTROY, () -> trackTask(vm.destroy_Task()));
     } catch (Exception e) {
       // stacktrace goes to SDK details, so no value of dumping it to log here
       LOG.warnAndDebugDetails("An error occured during deleting instance " + instance.getName(), e);
@@ -1117,7 +1553,7 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     try {
       vm.rebootGuest();
     } catch (RemoteException e) {
-      throw new VmwareCheckedCloudException(e);
+      throw processFault(e);
     }
   }
 
@@ -1130,9 +1566,11 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     }
   }
 
-  public void processImageInstances(@NotNull final VmwareCloudImage image, @NotNull final VmwareInstanceProcessor processor) {
+  public void processImageInstances(@NotNull final VmwareCloudImage image, final long maxStaleness, @NotNull final VmwareInstanceProcessor processor) {
     try {
-      final Map<String, VmwareInstance> instances = fetchInstances(image);
+      final Map<String, VmwareInstance> instances = this.<VmwareInstance>groupInstances(Collections.singleton(image), toMap(findAllVirtualMachines(maxStaleness))).get(image);
+      if (instances == null)
+        return;
       for (VmwareInstance instance : instances.values()) {
         processor.process(instance);
       }
@@ -1141,11 +1579,54 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
     }
   }
 
+  /**
+   * Reads a single VM if its id is known from the last inventory fetch, otherwise searches the whole inventory
+   */
   @NotNull
   public VmwareInstance getInstanceDetails(String instanceName) throws VmwareCheckedCloudException {
+    final Pair<String, String> indexed = myVmIndex.get(instanceName);
+    if (indexed != null) {
+      final VmwareInstance instance = fetchVirtualMachine(indexed.getFirst(), indexed.getSecond());
+      if (instance != null && instanceName.equals(instance.getName())) {
+        return instance;
+      }
+      // deleted or renamed since the last fetch
+      myVmIndex.remove(instanceName);
+    }
     return findVirtualMachineOrThrowException(instanceName);
   }
 
+  @Nullable
+  private VmwareInstance fetchVirtualMachine(@NotNull final String vmId, @NotNull final String datacenterId) throws VmwareCheckedCloudException {
+    try {
+      final ObjectContent oc = getVirtualMachineContent(createMOR(VM_TYPE, vmId), getVmProperties());
+      return oc == null ? null : createVmwareInstance(vmId, oc.getPropSet(), datacenterId);
+    } catch (ManagedObjectNotFound e) {
+      return null;
+    } catch (RemoteException e) {
+      throw processFault(e);
+    }
+  }
+
+  //protected 4 tests
+  @Nullable
+  protected ObjectContent getVirtualMachineContent(@NotNull final ManagedObjectReference vm, @NotNull final String[] properties) throws RemoteException, VmwareCheckedCloudException {
+    final PropertySpec propertySpec = new PropertySpec();
+    propertySpec.setType(VM_TYPE);
+    propertySpec.setPathSet(properties);
+    final ObjectSpec objectSpec = new ObjectSpec();
+    objectSpec.setObj(vm);
+    objectSpec.setSkip(Boolean.FALSE);
+    final PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+    filterSpec.setPropSet(new PropertySpec[]{propertySpec});
+    filterSpec.setObjectSet(new ObjectSpec[]{objectSpec});
+
+    final RetrieveResult result = mySessions.get().getPropertyCollector().retrievePropertiesEx(new PropertyFilterSpec[]{filterSpec}, new RetrieveOptions());
+    if (result == null || result.getObjects() == null || result.getObjects().length == 0)
+      return null;
+    return result.getObjects()[0];
+  }
+
   @Nullable
   private String getOptionValue(@NotNull final VirtualMachine vm, @NotNull final String optionName) {
     final VirtualMachineConfigInfo config = vm.getConfig();
@@ -1172,13 +1653,13 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
   }
 
   public void dispose(){
-    try {
-      if (myServiceInstance != null) {
-        final ServerConnection serverConnection = myServiceInstance.getServerConnection();
-        if (serverConnection != null)
-          serverConnection.logout();
-      }
-    } catch (Exception ex){}
+    myInventorySync.reset();
+    myDatacenterExecutor.shutdownNow();
+    myShutdownExecutor.shutdownNow();
+    myPowerStateWatcher.dispose();
+    myPowerOnBatcher.dispose();
+    myTaskTracker.dispose();
+    mySessions.dispose();
   }
 
   public void test() throws VmwareCheckedCloudException {
@@ -1218,6 +1699,14 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
         retval.put(image, new TypedCloudErrorInfo[]{new TypedCloudErrorInfo("NoVM", "No such VM: " + imageDetails.getSourceVmName())});
         return;
       }
+      if (imageDetails.getBehaviour() == CloneBehaviour.INSTANT_CLONE) {
+        final VirtualMachineRuntimeInfo runtime = vm.getRuntime();
+        if (runtime == null || runtime.getPowerState() != VirtualMachinePowerState.poweredOn) {
+          retval.put(image, new TypedCloudErrorInfo[]{
+            new TypedCloudErrorInfo("NotRunning", "VM must be running to be instant cloned: " + imageDetails.getSourceVmName())});
+          return;
+        }
+      }
       if (!imageDetails.getBehaviour().isUseOriginal() && !imageDetails.useCurrentVersion()) {
         final String snapshotName = imageDetails.getSnapshotName();
         final Map<String, VirtualMachineSnapshotTree> snapshotList = getSnapshotList(vm);
@@ -1282,6 +1771,35 @@ public class VMWareApiConnectorImpl implements VMWareApiConnector {
 
   }
 
+  private static String[] createSelectiveProperties(@NotNull final String[] properties, @NotNull final String[] extraConfigKeys){
+    final List<String> result = new ArrayList<>();
+    for (String property : properties) {
+      if (EXTRA_CONFIG.equals(property)) {
+        for (String key : extraConfigKeys) {
+          result.add(EXTRA_CONFIG_KEY_PREFIX + key + "\"]");
+        }
+      } else {
+        result.add(property);
+      }
+    }
+    return result.toArray(new String[0]);
+  }
+
+  @NotNull
+  private static ManagedObjectReference createMOR(@NotNull final String type, @NotNull final String val){
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(val);
+    return mor;
+  }
+
+  private static String[] createTypeInfo(@NotNull final String type, @NotNull final String[] properties){
+    final String[] typeInfo = new String[properties.length + 1];
+    typeInfo[0] = type;
+    System.arraycopy(properties, 0, typeInfo, 1, properties.length);
+    return typeInfo;
+  }
+
   private static Task emptyTask(){
     return new Task(null, null) {
       @Override
@@ -0,0 +1,50 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.DynamicData;
+import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.VirtualMachineRelocateSpec;
+
+/**
+ * Data object for InstantClone_Task (vSphere 6.7+), which is absent in the vSphere API bindings.
+ *
+ * Class name is sent as the xsi:type of the request argument, so it must match the name of the vSphere data object.
+ * Fields are serialized in their declaration order.
+ */
+public class VirtualMachineInstantCloneSpec extends DynamicData {
+  public String name;
+  public VirtualMachineRelocateSpec location;
+  public OptionValue[] config;
+  public String biosUuid;
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(final String name) {
+    this.name = name;
+  }
+
+  public VirtualMachineRelocateSpec getLocation() {
+    return location;
+  }
+
+  public void setLocation(final VirtualMachineRelocateSpec location) {
+    this.location = location;
+  }
+
+  public OptionValue[] getConfig() {
+    return config;
+  }
+
+  public void setConfig(final OptionValue[] config) {
+    this.config = config;
+  }
+
+  public String getBiosUuid() {
+    return biosUuid;
+  }
+
+  public void setBiosUuid(final String biosUuid) {
+    this.biosUuid = biosUuid;
+  }
+}
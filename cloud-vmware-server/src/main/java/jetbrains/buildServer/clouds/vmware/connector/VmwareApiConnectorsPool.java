@@ -6,6 +6,10 @@ import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import jetbrains.buildServer.clouds.server.CloudInstancesProvider;
+import jetbrains.buildServer.clouds.vmware.VmwareConstants;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
+import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.util.ssl.SSLTrustStoreProvider;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -17,7 +21,47 @@ public class VmwareApiConnectorsPool {
 
   private static final ConcurrentMap<String, VMWareApiConnector> myConnectors =
     new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, VmwareOperationGovernor> myGovernors =
+    new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, VmwareInventoryTree> myInventoryTrees =
+    new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, VMWareApiConnectorImpl> mySharedInventoryConnectors =
+    new ConcurrentHashMap<>();
+
+  /**
+   * @param connectorKey see {@link VMWareApiConnectorImpl#getKey(URL, String, String)}
+   * @return governor of mutating operations shared by all connectors with this key
+   */
+  @NotNull
+  public static VmwareOperationGovernor getGovernor(@NotNull final String connectorKey) {
+    return myGovernors.computeIfAbsent(connectorKey, k -> new VmwareOperationGovernor());
+  }
+
+  /**
+   * @return inventory tree shared by all connectors of the vCenter, including the temporary ones
+   */
+  @NotNull
+  public static VmwareInventoryTree getInventoryTree(@NotNull final URL instanceURL) {
+    return myInventoryTrees.computeIfAbsent(instanceURL.toString().toLowerCase(), k -> new VmwareInventoryTree());
+  }
 
+  /**
+   * @return connector of the read-only account which fetches the shared inventory of the vCenter,
+   * or null if {@link VmwareConstants#SHARED_INVENTORY_USER} is not configured
+   */
+  @Nullable
+  public static VMWareApiConnectorImpl getSharedInventoryConnector(@NotNull final URL instanceURL,
+                                                                   @Nullable final SSLTrustStoreProvider trustStoreProvider) {
+    final String username = TeamCityProperties.getPropertyOrNull(VmwareConstants.SHARED_INVENTORY_USER);
+    final String password = TeamCityProperties.getPropertyOrNull(VmwareConstants.SHARED_INVENTORY_PASSWORD);
+    if (StringUtil.isEmpty(username) || password == null)
+      return null;
+    final String plainPassword = EncryptUtil.isScrambled(password) ? EncryptUtil.unscramble(password) : password;
+    final String key = VMWareApiConnectorImpl.getKey(instanceURL, username, plainPassword);
+    // only fetches data, so it is not bound to a server or a profile
+    return mySharedInventoryConnectors.computeIfAbsent(key, k -> new VMWareApiConnectorImpl(
+      instanceURL, username, plainPassword, null, null, null, trustStoreProvider));
+  }
 
   public static VMWareApiConnector getOrCreateConnector(@NotNull final URL instanceURL,
                                                         @NotNull final String username,
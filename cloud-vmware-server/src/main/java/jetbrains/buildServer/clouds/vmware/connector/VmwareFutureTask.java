@@ -0,0 +1,74 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.mo.Task;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A client-side task which is completed by the plugin itself rather than by vCenter.
+ * {@link VmwareTaskWrapper} waits for such tasks without blocking a thread.
+ */
+public class VmwareFutureTask extends Task {
+  @NotNull private final CompletableFuture<TaskInfo> myFuture;
+
+  public VmwareFutureTask(@NotNull final CompletableFuture<TaskInfo> future) {
+    super(null, null);
+    myFuture = future;
+  }
+
+  @NotNull
+  public CompletableFuture<TaskInfo> getFuture() {
+    return myFuture;
+  }
+
+  @Override
+  public TaskInfo getTaskInfo() {
+    if (!myFuture.isDone()) {
+      return createTaskInfo(TaskInfoState.running, null);
+    }
+    try {
+      return myFuture.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return createTaskInfo(TaskInfoState.error, e.toString());
+    } catch (ExecutionException e) {
+      return createTaskInfo(TaskInfoState.error, String.valueOf(e.getCause()));
+    }
+  }
+
+  @Override
+  public String waitForTask() throws InterruptedException {
+    try {
+      myFuture.get();
+    } catch (ExecutionException ignored) {
+    }
+    return getTaskInfo().getState().name();
+  }
+
+  @Override
+  public String waitForTask(final int runningDelayInMillSecond, final int queuedDelayInMillSecond) throws InterruptedException {
+    return waitForTask();
+  }
+
+  @Override
+  public void cancelTask() {
+    // do nothing
+  }
+
+  @NotNull
+  public static TaskInfo createTaskInfo(@NotNull final TaskInfoState state, @Nullable final String errorMessage) {
+    final TaskInfo taskInfo = new TaskInfo();
+    taskInfo.setState(state);
+    if (errorMessage != null) {
+      final LocalizedMethodFault fault = new LocalizedMethodFault();
+      fault.setLocalizedMessage(errorMessage);
+      taskInfo.setError(fault);
+    }
+    return taskInfo;
+  }
+}
@@ -2,7 +2,6 @@
 
 package jetbrains.buildServer.clouds.vmware.connector;
 
-import com.intellij.openapi.diagnostic.Logger;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.OptionValue;
 import com.vmware.vim25.VirtualMachinePowerState;
@@ -22,19 +21,7 @@ import org.jetbrains.annotations.Nullable;
  *         Time: 6:45 PM
  */
 public class VmwareInstance extends AbstractInstance implements VmwareManagedEntity, Comparable<VmwareInstance> {
-  private static final Logger LOG = Logger.getInstance(VmwareInstance.class.getName());
-
-  private final String myId;
-  @NotNull private final OptionValue[] myExtraConfig;
-  @NotNull private final VirtualMachinePowerState myPowerState;
-  private final boolean myIsTemplate;
-  @NotNull private final String myChangeVersion;
-  @Nullable private final Calendar myBootTime;
-  @Nullable private final String myIpAddress;
-  @Nullable private final ManagedObjectReference myParent;
-  @NotNull private final String myDatacenterId;
-  private final Map<String, String> myProperties;
-  private final String myName;
+  @NotNull private final VmwareInstanceRecord myRecord;
 
   @Used("Tests")
   public VmwareInstance(@NotNull final VirtualMachine vm, String datacenterId){
@@ -46,7 +33,6 @@ public class VmwareInstance extends AbstractInstance implements VmwareManagedEnt
          vm.getConfig() == null ? "" : vm.getConfig().getChangeVersion(),
          vm.getRuntime().getBootTime(),
          vm.getGuest() == null ? null : vm.getGuest().getIpAddress(),
-         vm.getParent().getMOR(),
          datacenterId);
   }
 
@@ -58,45 +44,28 @@ public class VmwareInstance extends AbstractInstance implements VmwareManagedEnt
                         @NotNull final String changeVersion,
                         @Nullable final Calendar bootTime,
                         @Nullable final String ipAddress,
-                        @Nullable final ManagedObjectReference parent,
                         @NotNull final String datacenterId
                         ) {
-    myName = name;
-    myProperties = extractProperties(extraConfig);
-    myId = id;
-    myExtraConfig = extraConfig;
-    myPowerState = powerState;
-    myIsTemplate = isTemplate;
-    myChangeVersion = changeVersion;
-    myBootTime = bootTime;
-    myIpAddress = ipAddress;
-    myParent = parent;
-    myDatacenterId = datacenterId;
+    this(VmwareInstanceRecord.create(name, id, extraConfig, powerState, isTemplate, changeVersion, bootTime, ipAddress, datacenterId));
   }
 
+  public VmwareInstance(@NotNull final VmwareInstanceRecord record) {
+    myRecord = record;
+  }
 
-  @Nullable
-  private  Map<String, String> extractProperties(@NotNull final OptionValue[] configInfo) {
-    try {
-      Map<String, String> retval = new HashMap<String, String>();
-      for (OptionValue optionValue : configInfo) {
-        retval.put(optionValue.getKey(), String.valueOf(optionValue.getValue()));
-      }
-      return retval;
-    } catch (Exception ex){
-      LOG.info("Unable to retrieve instance properties for " + myName  + ": " + ex.toString());
-      return null;
-    }
+  @NotNull
+  public VmwareInstanceRecord getRecord() {
+    return myRecord;
   }
 
   public boolean isPoweredOn() {
-    return myPowerState == VirtualMachinePowerState.poweredOn;
+    return myRecord.getPowerState() == VirtualMachinePowerState.poweredOn;
   }
 
   @NotNull
   @Override
   public String getName() {
-    return myName;
+    return myRecord.getName();
   }
 
   @NotNull
@@ -108,45 +77,46 @@ public class VmwareInstance extends AbstractInstance implements VmwareManagedEnt
 
   @Override
   public boolean isInitialized() {
-    return myProperties != null;
+    return myRecord.hasProperties();
   }
 
   @Nullable
   public String getProperty(@NotNull final String propertyName) {
-    return myProperties == null ? null : myProperties.get(propertyName);
+    return myRecord.getProperty(propertyName);
   }
 
   @Nullable
   public Date getStartDate() {
-    if (myPowerState != VirtualMachinePowerState.poweredOn) {
+    if (myRecord.getPowerState() != VirtualMachinePowerState.poweredOn) {
       return null;
     }
-    return myBootTime == null ? null : myBootTime.getTime();
+    return myRecord.getBootTime();
   }
 
   @Nullable
   public String getIpAddress() {
-    return myIpAddress;
+    return myRecord.getIpAddress();
   }
 
   @Override
   public InstanceStatus getInstanceStatus() {
-    if (myPowerState == VirtualMachinePowerState.poweredOff) {
+    final VirtualMachinePowerState powerState = myRecord.getPowerState();
+    if (powerState == VirtualMachinePowerState.poweredOff) {
       return InstanceStatus.STOPPED;
     }
-    if (myPowerState == VirtualMachinePowerState.poweredOn) {
+    if (powerState == VirtualMachinePowerState.poweredOn) {
       return InstanceStatus.RUNNING;
     }
     return InstanceStatus.UNKNOWN;
   }
 
   public boolean isReadonly() {
-    return myIsTemplate;
+    return myRecord.isTemplate();
   }
 
   @NotNull
   public String getChangeVersion() {
-    return myChangeVersion;
+    return myRecord.getChangeVersion();
   }
 
   @Nullable
@@ -159,12 +129,12 @@ public class VmwareInstance extends AbstractInstance implements VmwareManagedEnt
 
   @NotNull
   public String getId() {
-    return myId;
+    return myRecord.getId();
   }
 
   @NotNull
   public String getDatacenterId() {
-    return myDatacenterId;
+    return myRecord.getDatacenterId();
   }
 
   @NotNull
@@ -191,7 +161,11 @@ public class VmwareInstance extends AbstractInstance implements VmwareManagedEnt
   }
 
   public Map<String, String> getProperties() {
-    return Collections.unmodifiableMap(myProperties);
+    return myRecord.getProperties();
+  }
+
+  public boolean isWarmPoolMember(){
+    return "true".equals(getProperty(VMWareApiConnector.TEAMCITY_VMWARE_WARM_POOL));
   }
 
   @Nullable
@@ -209,15 +183,15 @@ public class VmwareInstance extends AbstractInstance implements VmwareManagedEnt
 
   @Override
   public int compareTo(@NotNull final VmwareInstance o) {
-    return StringUtil.compare(StringUtil.toLowerCase(myName), StringUtil.toLowerCase(o.myName));
+    return StringUtil.compare(StringUtil.toLowerCase(getName()), StringUtil.toLowerCase(o.getName()));
   }
 
   @Override
   public String toString() {
     return "VmwareInstance{" +
-           "myId='" + myId + '\'' +
-           ", myPowerState=" + myPowerState +
-           ", myChangeVersion='" + myChangeVersion + '\'' +
+           "myId='" + getId() + '\'' +
+           ", myPowerState=" + myRecord.getPowerState() +
+           ", myChangeVersion='" + getChangeVersion() + '\'' +
            '}';
   }
 }
\ No newline at end of file
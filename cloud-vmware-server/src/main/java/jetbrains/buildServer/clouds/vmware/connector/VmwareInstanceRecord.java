@@ -0,0 +1,275 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.ArrayOfOptionValue;
+import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.VirtualMachinePowerState;
+import java.util.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compact immutable state of a virtual machine, which is kept between inventory fetches.
+ *
+ * Only TeamCity and guest info extraConfig keys are kept, as flat key-value pairs. The keys and the values shared
+ * by many VMs (image, profile, server UUID, datacenter) are interned, boot time is stored as epoch millis and power state as a byte.
+ */
+public final class VmwareInstanceRecord {
+  private static final Logger LOG = Logger.getInstance(VmwareInstanceRecord.class.getName());
+
+  private static final String EXTRA_CONFIG = "config.extraConfig";
+  private static final String EXTRA_CONFIG_KEY_PREFIX = EXTRA_CONFIG + "[\"";
+  private static final String GUEST_INFO_PREFIX = "guestinfo.";
+  private static final long NO_BOOT_TIME = Long.MIN_VALUE;
+  private static final byte NO_POWER_STATE = -1;
+  private static final VirtualMachinePowerState[] POWER_STATES = VirtualMachinePowerState.values();
+
+  private static final Interner<String> STRINGS = Interners.newWeakInterner();
+  // values of these keys are the same for all VMs of an image or a profile
+  private static final Set<String> SHARED_VALUE_KEYS = new HashSet<>(Arrays.asList(
+    VMWareApiConnector.TEAMCITY_VMWARE_CLONED_INSTANCE, VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_VM_NAME,
+    VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_ID, VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_VM_ID,
+    VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SNAPSHOT, VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_CHANGE_VERSION,
+    VMWareApiConnector.TEAMCITY_VMWARE_PROFILE_ID, VMWareApiConnector.TEAMCITY_VMWARE_SERVER_UUID,
+    VMWareApiConnector.TEAMCITY_VMWARE_WARM_POOL
+  ));
+
+  @NotNull private final String myName;
+  @NotNull private final String myId;
+  @NotNull private final String myDatacenterId;
+  @NotNull private final String myChangeVersion;
+  @Nullable private final String myIpAddress;
+  private final long myBootTime;
+  private final byte myPowerState;
+  private final boolean myTemplate;
+  // key0, value0, key1, value1, ... null if extraConfig couldn't be read
+  @Nullable private final String[] myProperties;
+
+  private VmwareInstanceRecord(@NotNull final String name,
+                               @NotNull final String id,
+                               @NotNull final String datacenterId,
+                               @NotNull final String changeVersion,
+                               @Nullable final String ipAddress,
+                               final long bootTime,
+                               final byte powerState,
+                               final boolean template,
+                               @Nullable final String[] properties) {
+    myName = name;
+    myId = id;
+    myDatacenterId = STRINGS.intern(datacenterId);
+    myChangeVersion = changeVersion;
+    myIpAddress = ipAddress;
+    myBootTime = bootTime;
+    myPowerState = powerState;
+    myTemplate = template;
+    myProperties = properties;
+  }
+
+  @NotNull
+  public static VmwareInstanceRecord create(@NotNull final String name,
+                                            @NotNull final String id,
+                                            @NotNull final OptionValue[] extraConfig,
+                                            @Nullable final VirtualMachinePowerState powerState,
+                                            final boolean isTemplate,
+                                            @NotNull final String changeVersion,
+                                            @Nullable final Calendar bootTime,
+                                            @Nullable final String ipAddress,
+                                            @NotNull final String datacenterId) {
+    return new VmwareInstanceRecord(name, id, datacenterId, changeVersion, ipAddress,
+                                    bootTime == null ? NO_BOOT_TIME : bootTime.getTimeInMillis(),
+                                    powerState == null ? NO_POWER_STATE : (byte)powerState.ordinal(),
+                                    isTemplate, toArray(extractProperties(name, extraConfig)));
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  @NotNull
+  public String getId() {
+    return myId;
+  }
+
+  @NotNull
+  public String getDatacenterId() {
+    return myDatacenterId;
+  }
+
+  @NotNull
+  public String getChangeVersion() {
+    return myChangeVersion;
+  }
+
+  @Nullable
+  public String getIpAddress() {
+    return myIpAddress;
+  }
+
+  @Nullable
+  public Date getBootTime() {
+    return myBootTime == NO_BOOT_TIME ? null : new Date(myBootTime);
+  }
+
+  @Nullable
+  public VirtualMachinePowerState getPowerState() {
+    return myPowerState == NO_POWER_STATE ? null : POWER_STATES[myPowerState];
+  }
+
+  public boolean isTemplate() {
+    return myTemplate;
+  }
+
+  public boolean hasProperties() {
+    return myProperties != null;
+  }
+
+  @Nullable
+  public String getProperty(@NotNull final String name) {
+    if (myProperties == null)
+      return null;
+    for (int i = 0; i < myProperties.length; i += 2) {
+      if (name.equals(myProperties[i])) {
+        return myProperties[i + 1];
+      }
+    }
+    return null;
+  }
+
+  @NotNull
+  public Map<String, String> getProperties() {
+    if (myProperties == null)
+      return Collections.emptyMap();
+    final Map<String, String> result = new HashMap<>();
+    for (int i = 0; i < myProperties.length; i += 2) {
+      result.put(myProperties[i], myProperties[i + 1]);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * @return builder with the state of this record, used to apply incremental property changes
+   */
+  @NotNull
+  public Builder toBuilder() {
+    final Builder builder = new Builder();
+    builder.myName = myName;
+    builder.myChangeVersion = myChangeVersion;
+    builder.myIpAddress = myIpAddress;
+    builder.myBootTime = myBootTime;
+    builder.myPowerState = getPowerState();
+    builder.myTemplate = myTemplate;
+    builder.myProperties = myProperties == null ? null : new LinkedHashMap<>(getProperties());
+    return builder;
+  }
+
+  @Nullable
+  private static Map<String, String> extractProperties(@NotNull final String vmName, @Nullable final OptionValue[] configInfo) {
+    final Map<String, String> result = new LinkedHashMap<>();
+    if (configInfo == null)
+      return result;
+    try {
+      for (OptionValue optionValue : configInfo) {
+        putProperty(result, optionValue.getKey(), optionValue.getValue());
+      }
+      return result;
+    } catch (Exception ex){
+      LOG.info("Unable to retrieve instance properties for " + vmName  + ": " + ex.toString());
+      return null;
+    }
+  }
+
+  // VMs usually carry 50-100 extraConfig options, while only TeamCity and guest info keys are ever read
+  private static void putProperty(@NotNull final Map<String, String> properties, @Nullable final String key, @Nullable final Object value) {
+    if (key == null || !(key.startsWith(VMWareApiConnector.TEAMCITY_VMWARE_PREFIX) || key.startsWith(GUEST_INFO_PREFIX)))
+      return;
+    final String internedKey = STRINGS.intern(key);
+    final String stringValue = String.valueOf(value);
+    properties.put(internedKey, SHARED_VALUE_KEYS.contains(internedKey) ? STRINGS.intern(stringValue) : stringValue);
+  }
+
+  @Nullable
+  private static String[] toArray(@Nullable final Map<String, String> properties) {
+    if (properties == null)
+      return null;
+    final String[] result = new String[properties.size() * 2];
+    int idx = 0;
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      result[idx++] = entry.getKey();
+      result[idx++] = entry.getValue();
+    }
+    return result;
+  }
+
+  /**
+   * Collects VM properties as they come from the property collector, i.e. {@code runtime.powerState -> VirtualMachinePowerState}
+   */
+  public static class Builder {
+    @Nullable private Object myName;
+    @Nullable private Object myChangeVersion;
+    @Nullable private String myIpAddress;
+    private long myBootTime = NO_BOOT_TIME;
+    @Nullable private VirtualMachinePowerState myPowerState;
+    @Nullable private Boolean myTemplate;
+    @Nullable private Map<String, String> myProperties = new LinkedHashMap<>();
+
+    /**
+     * @param propertyName property path
+     * @param val property value, null if the property is removed
+     */
+    public void set(@NotNull final String propertyName, @Nullable final Object val) {
+      switch (propertyName) {
+        case "name":
+          myName = val;
+          break;
+        case EXTRA_CONFIG:
+          myProperties = val == null ? new LinkedHashMap<>() : extractProperties(String.valueOf(myName), ((ArrayOfOptionValue)val).getOptionValue());
+          break;
+        case "config.template":
+          myTemplate = (Boolean)val;
+          break;
+        case "config.changeVersion":
+          myChangeVersion = val;
+          break;
+        case "runtime.powerState":
+          myPowerState = (VirtualMachinePowerState)val;
+          break;
+        case "runtime.bootTime":
+          myBootTime = val == null ? NO_BOOT_TIME : ((Calendar)val).getTimeInMillis();
+          break;
+        case "guest.ipAddress":
+          myIpAddress = (String)val;
+          break;
+        default:
+          // selectively requested keys come as separate properties, i.e. config.extraConfig["key"] -> OptionValue
+          if (propertyName.startsWith(EXTRA_CONFIG_KEY_PREFIX)) {
+            if (myProperties == null) {
+              myProperties = new LinkedHashMap<>();
+            }
+            if (val instanceof OptionValue) {
+              putProperty(myProperties, ((OptionValue)val).getKey(), ((OptionValue)val).getValue());
+            } else if (val == null) {
+              myProperties.remove(propertyName.substring(EXTRA_CONFIG_KEY_PREFIX.length(), propertyName.length() - 2));
+            }
+          }
+      }
+    }
+
+    @NotNull
+    public String getName() {
+      return String.valueOf(myName);
+    }
+
+    @NotNull
+    public VmwareInstanceRecord build(@NotNull final String vmId, @NotNull final String datacenterId) {
+      if (myTemplate == null) {
+        throw new IllegalStateException("config.template is not available");
+      }
+      return new VmwareInstanceRecord(getName(), vmId, datacenterId, String.valueOf(myChangeVersion), myIpAddress, myBootTime,
+                                      myPowerState == null ? NO_POWER_STATE : (byte)myPowerState.ordinal(),
+                                      myTemplate, toArray(myProperties));
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.Datacenter;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.PropertyFilter;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+import java.rmi.RemoteException;
+import java.util.*;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps a local model of all virtual machines visible to a connector and updates it incrementally
+ * using {@link PropertyCollector#waitForUpdatesEx(String, WaitOptions)}.
+ *
+ * A property filter is created once per datacenter. The first call after creation (or after a version gap, or a reconnect)
+ * receives the whole inventory, all subsequent calls receive only the changed properties.
+ */
+public class VmwareInventorySync {
+  private static final Logger LOG = Logger.getInstance(VmwareInventorySync.class.getName());
+
+  private static final String VM_TYPE = "VirtualMachine";
+  private static final int DEFAULT_MAX_OBJECT_UPDATES = 1000;
+
+  @NotNull private String[] myProperties = new String[0];
+  @NotNull private final Map<String, VmState> myVirtualMachines = new HashMap<>();
+  @NotNull private final Map<String, String> myFilterToDatacenter = new HashMap<>();
+  @NotNull private final Map<String, PropertyFilter> myDatacenterFilters = new HashMap<>();
+  @Nullable private ServiceInstance myServiceInstance;
+  @Nullable private PropertyCollector myCollector;
+  @NotNull private String myVersion = "";
+
+  /**
+   * Applies all pending inventory changes to the local model and returns its current state
+   *
+   * @param serviceInstance service instance the model is bound to. A new instance (i.e. reconnect) causes a full resync
+   * @param datacenters all currently known datacenters
+   * @param properties VM properties to collect. A change of the property set causes a full resync
+   * @return all known virtual machines
+   * @throws RemoteException if vCenter communication fails. The model is reset in this case
+   */
+  @NotNull
+  public synchronized Collection<VmwareInstance> getVirtualMachines(@NotNull final ServiceInstance serviceInstance,
+                                                                    @NotNull final Collection<Datacenter> datacenters,
+                                                                    @NotNull final String[] properties) throws RemoteException {
+    try {
+      if (myServiceInstance != serviceInstance || myCollector == null || !Arrays.equals(myProperties, properties)) {
+        LOG.info("Initializing incremental inventory sync");
+        reset();
+        myServiceInstance = serviceInstance;
+        myProperties = properties;
+        myCollector = serviceInstance.getPropertyCollector().createPropertyCollector();
+      }
+      updateFilters(datacenters);
+      try {
+        applyPendingUpdates();
+      } catch (InvalidCollectorVersion ex) {
+        LOG.info("Inventory version '" + myVersion + "' is no longer valid. Will perform full resync");
+        myVersion = "";
+        myVirtualMachines.clear();
+        applyPendingUpdates();
+      }
+    } catch (RemoteException ex) {
+      reset();
+      throw ex;
+    }
+
+    final List<VmwareInstance> result = new ArrayList<>(myVirtualMachines.size());
+    for (Map.Entry<String, VmState> entry : myVirtualMachines.entrySet()) {
+      final VmwareInstance instance = entry.getValue().getInstance(entry.getKey());
+      if (instance != null) {
+        result.add(instance);
+      }
+    }
+    return result;
+  }
+
+  private void updateFilters(@NotNull final Collection<Datacenter> datacenters) throws RemoteException {
+    final Set<String> actualIds = new HashSet<>();
+    for (Datacenter dc : datacenters) {
+      final String dcId = dc.getMOR().getVal();
+      actualIds.add(dcId);
+      if (myDatacenterFilters.containsKey(dcId))
+        continue;
+
+      final PropertyFilterSpec spec = new PropertyFilterSpec();
+      spec.setObjectSet(new ObjectSpec[]{PropertyCollectorUtil.creatObjectSpec(dc.getMOR(), Boolean.FALSE, PropertyCollectorUtil.buildFullTraversalV4())});
+      spec.setPropSet(new PropertySpec[]{PropertyCollectorUtil.createPropertySpec(VM_TYPE, false, myProperties)});
+      final PropertyFilter filter = myCollector.createFilter(spec, false);
+      myDatacenterFilters.put(dcId, filter);
+      myFilterToDatacenter.put(filter.getMOR().getVal(), dcId);
+      LOG.debug("Created inventory filter for datacenter " + dcId);
+    }
+
+    final Iterator<Map.Entry<String, PropertyFilter>> iterator = myDatacenterFilters.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<String, PropertyFilter> entry = iterator.next();
+      if (actualIds.contains(entry.getKey()))
+        continue;
+      LOG.info("Datacenter " + entry.getKey() + " is no longer available. Removing its virtual machines from inventory");
+      iterator.remove();
+      myFilterToDatacenter.remove(entry.getValue().getMOR().getVal());
+      myVirtualMachines.values().removeIf(vmState -> entry.getKey().equals(vmState.myDatacenterId));
+      try {
+        entry.getValue().destroyPropertyFilter();
+      } catch (Exception ex) {
+        LOG.debug("Unable to destroy property filter: " + ex.toString());
+      }
+    }
+  }
+
+  private void applyPendingUpdates() throws RemoteException {
+    final WaitOptions options = new WaitOptions();
+    options.setMaxWaitSeconds(0);
+    options.setMaxObjectUpdates(TeamCityProperties.getInteger("teamcity.vmware.inventory.incremental.max.updates", DEFAULT_MAX_OBJECT_UPDATES));
+
+    int updatedCount = 0;
+    while (true) {
+      final UpdateSet updateSet = myCollector.waitForUpdatesEx(myVersion, options);
+      if (updateSet == null)
+        break;
+      myVersion = updateSet.getVersion();
+      if (updateSet.getFilterSet() != null) {
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+          updatedCount += applyFilterUpdate(filterUpdate);
+        }
+      }
+      if (!Boolean.TRUE.equals(updateSet.getTruncated()))
+        break;
+    }
+    if (updatedCount > 0 && LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Applied %d inventory updates. Current version: '%s'", updatedCount, myVersion));
+    }
+  }
+
+  private int applyFilterUpdate(@NotNull final PropertyFilterUpdate filterUpdate) {
+    final String datacenterId = myFilterToDatacenter.get(filterUpdate.getFilter().getVal());
+    final ObjectUpdate[] objectSet = filterUpdate.getObjectSet();
+    if (datacenterId == null || objectSet == null)
+      return 0;
+
+    for (ObjectUpdate objectUpdate : objectSet) {
+      final String vmId = objectUpdate.getObj().getVal();
+      if (objectUpdate.getKind() == ObjectUpdateKind.leave) {
+        myVirtualMachines.remove(vmId);
+        continue;
+      }
+      VmState vmState = myVirtualMachines.get(vmId);
+      if (vmState == null) {
+        vmState = new VmState(datacenterId);
+        myVirtualMachines.put(vmId, vmState);
+      }
+      vmState.apply(objectUpdate.getChangeSet());
+    }
+    return objectSet.length;
+  }
+
+  /**
+   * Drops the local model and the server-side collector. Next call will perform a full resync
+   */
+  public synchronized void reset() {
+    if (myCollector != null) {
+      try {
+        myCollector.destroyPropertyCollector();
+      } catch (Exception ex) {
+        LOG.debug("Unable to destroy property collector: " + ex.toString());
+      }
+    }
+    myCollector = null;
+    myServiceInstance = null;
+    myVersion = "";
+    myDatacenterFilters.clear();
+    myFilterToDatacenter.clear();
+    myVirtualMachines.clear();
+  }
+
+  private static class VmState {
+    @NotNull private final String myDatacenterId;
+    // collects properties until a complete instance can be created. Afterwards only the compact instance is kept
+    @Nullable private VmwareInstanceRecord.Builder myPending = new VmwareInstanceRecord.Builder();
+    @Nullable private VmwareInstance myInstance;
+
+    private VmState(@NotNull final String datacenterId) {
+      myDatacenterId = datacenterId;
+    }
+
+    private void apply(@Nullable final PropertyChange[] changes) {
+      if (changes == null)
+        return;
+      final VmwareInstanceRecord.Builder builder = myPending != null ? myPending : myInstance.getRecord().toBuilder();
+      for (PropertyChange change : changes) {
+        final boolean removed = change.getOp() == PropertyChangeOp.remove || change.getOp() == PropertyChangeOp.indirectRemove;
+        try {
+          builder.set(change.getName(), removed ? null : change.getVal());
+        } catch (Exception ex) {
+          LOG.warn("Unable to apply change of '" + change.getName() + "': " + ex.toString());
+        }
+      }
+      myPending = builder;
+      myInstance = null;
+    }
+
+    @Nullable
+    private VmwareInstance getInstance(@NotNull final String vmId) {
+      if (myInstance == null && myPending != null) {
+        myInstance = VMWareApiConnectorImpl.createVmwareInstance(vmId, myPending, myDatacenterId);
+        if (myInstance != null) {
+          myPending = null;
+        }
+      }
+      return myInstance;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.util.Pair;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.ResourcePool;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Names and parents of the inventory entities of one vCenter, used to build folder and resource pool paths locally.
+ *
+ * The tree is filled from the <code>name</code> and <code>parent</code> properties retrieved together with the entities,
+ * so the paths are built without a remote call per entity. Ancestors which are not part of such a batch (e.g. the root folder)
+ * are resolved remotely once and kept for {@link #RESOLVED_TTL_PROPERTY}.
+ * Computed paths are dropped as soon as a batch reports a renamed, moved or new entity.
+ */
+public class VmwareInventoryTree {
+  public static final String RESOLVED_TTL_PROPERTY = "teamcity.vmware.inventory.tree.resolved.ttl";
+  private static final long DEFAULT_RESOLVED_TTL = 10 * 60 * 1000;
+  private static final int MAX_DEPTH = 100;
+
+  private static final String FOLDER_TYPE = Folder.class.getSimpleName();
+  private static final String RESPOOL_TYPE = ResourcePool.class.getSimpleName();
+  private static final String SPEC_FOLDER = "vm";
+  private static final String SPEC_RESPOOL = "Resources";
+  private static final Pattern FOLDER_PATTERN = Pattern.compile("group-v\\d+");
+
+  // (type, id) -> node
+  @NotNull private final Map<Pair<String, String>, Node> myNodes = new HashMap<>();
+  // (type, id) -> path
+  @NotNull private final Map<Pair<String, String>, String> myPaths = new HashMap<>();
+
+  /**
+   * Adds entities with their <code>name</code> and <code>parent</code> properties to the tree. Entities without a name are ignored
+   */
+  public synchronized void update(@NotNull final ObjectContent[] ocs) {
+    for (ObjectContent oc : ocs) {
+      if (oc == null || oc.getObj() == null || oc.getPropSet() == null)
+        continue;
+      String name = null;
+      ManagedObjectReference parent = null;
+      for (DynamicProperty property : oc.getPropSet()) {
+        if ("name".equals(property.getName())) {
+          name = String.valueOf(property.getVal());
+        } else if ("parent".equals(property.getName())) {
+          parent = (ManagedObjectReference)property.getVal();
+        }
+      }
+      if (name != null) {
+        put(oc.getObj(), name, parent, false);
+      }
+    }
+  }
+
+  /**
+   * @param mor entity to get the path of
+   * @param resolver fetches the name and the parent of an entity which is not in the tree
+   * @return path of the entity. Special folders and resource pools, as well as folders that can't contain VMs, are skipped
+   */
+  @NotNull
+  public String getPath(@NotNull final ManagedObjectReference mor, @NotNull final EntityResolver resolver) throws Exception {
+    for (int i = 0; i < MAX_DEPTH; i++) {
+      final ManagedObjectReference missing;
+      synchronized (this) {
+        missing = findMissing(key(mor));
+        if (missing == null)
+          return computePath(key(mor));
+      }
+      final Pair<String, ManagedObjectReference> resolved = resolver.resolve(missing);
+      synchronized (this) {
+        put(missing, resolved.getFirst(), resolved.getSecond(), true);
+      }
+    }
+    throw new IllegalStateException("Unable to resolve the path of " + mor.getVal());
+  }
+
+  private void put(@NotNull final ManagedObjectReference mor,
+                   @NotNull final String name,
+                   @Nullable final ManagedObjectReference parent,
+                   final boolean resolved) {
+    final Pair<String, String> key = key(mor);
+    final Node node = new Node(name, parent == null ? null : key(parent), resolved ? System.currentTimeMillis() : 0);
+    final Node existing = myNodes.put(key, node);
+    if (existing == null || !existing.sameAs(node)) {
+      myPaths.clear();
+    }
+  }
+
+  @Nullable
+  private ManagedObjectReference findMissing(@NotNull Pair<String, String> key) {
+    final long resolvedTtl = TeamCityProperties.getIntervalMilliseconds(RESOLVED_TTL_PROPERTY, DEFAULT_RESOLVED_TTL);
+    for (int depth = 0; depth < MAX_DEPTH; depth++) {
+      final Node node = myNodes.get(key);
+      if (node == null || node.myResolvedTime > 0 && System.currentTimeMillis() - node.myResolvedTime > resolvedTtl) {
+        final ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(key.getFirst());
+        mor.setVal(key.getSecond());
+        return mor;
+      }
+      if (node.myParent == null)
+        return null;
+      key = node.myParent;
+    }
+    throw new IllegalStateException("Inventory is too deep or has a cycle at " + key.getSecond());
+  }
+
+  @NotNull
+  private String computePath(@NotNull final Pair<String, String> key) {
+    final List<Pair<String, String>> chain = new ArrayList<>();
+    Pair<String, String> current = key;
+    String path = "";
+    while (current != null) {
+      final String knownPath = myPaths.get(current);
+      if (knownPath != null) {
+        path = knownPath;
+        break;
+      }
+      chain.add(current);
+      current = myNodes.get(current).myParent;
+    }
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      final Pair<String, String> entityKey = chain.get(i);
+      final String name = myNodes.get(entityKey).myName;
+      if (!skipName(entityKey, name)) {
+        path = path.isEmpty() ? name : path + "/" + name;
+      }
+      myPaths.put(entityKey, path);
+    }
+    return path;
+  }
+
+  private static boolean skipName(@NotNull final Pair<String, String> key, @NotNull final String name) {
+    return (FOLDER_TYPE.equals(key.getFirst()) && (SPEC_FOLDER.equals(name) || !FOLDER_PATTERN.matcher(key.getSecond()).matches())) ||
+           (RESPOOL_TYPE.equals(key.getFirst()) && SPEC_RESPOOL.equals(name));
+  }
+
+  @NotNull
+  private static Pair<String, String> key(@NotNull final ManagedObjectReference mor) {
+    return Pair.create(mor.getType(), mor.getVal());
+  }
+
+  public interface EntityResolver {
+    /**
+     * @return name and parent of the entity
+     */
+    @NotNull
+    Pair<String, ManagedObjectReference> resolve(@NotNull ManagedObjectReference mor) throws Exception;
+  }
+
+  private static class Node {
+    @NotNull private final String myName;
+    @Nullable private final Pair<String, String> myParent;
+    // 0 for entities received in a batch, they are updated with every batch
+    private final long myResolvedTime;
+
+    private Node(@NotNull final String name, @Nullable final Pair<String, String> parent, final long resolvedTime) {
+      myName = name;
+      myParent = parent;
+      myResolvedTime = resolvedTime;
+    }
+
+    private boolean sameAs(@NotNull final Node other) {
+      return myName.equals(other.myName) && (myParent == null ? other.myParent == null : myParent.equals(other.myParent));
+    }
+  }
+}
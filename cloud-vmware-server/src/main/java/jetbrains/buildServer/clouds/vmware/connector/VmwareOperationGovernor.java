@@ -0,0 +1,287 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.mo.Task;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
+import jetbrains.buildServer.clouds.vmware.VmwareConstants;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Limits the number of mutating vSphere tasks in flight, separately for clones, power-ons and destroys.
+ *
+ * One governor is shared by all clients of the same connector (see {@link VmwareApiConnectorsPool#getGovernor(String)}).
+ * While the limit is reached, operations are queued in FIFO order and the caller gets a {@link VmwareFutureTask} right away,
+ * so no executor thread is parked. A queued operation is started on a governor thread once a permit is released.
+ * An operation holds its permit until the vSphere task is finished. The limits are read on every acquisition, 0 means no limit.
+ */
+public class VmwareOperationGovernor {
+  private static final Logger LOG = Logger.getInstance(VmwareOperationGovernor.class.getName());
+
+  private static final long DEFAULT_WAIT_TIMEOUT = 30 * 60 * 1000;
+
+  public enum Operation {
+    CLONE("clone", VmwareConstants.GOVERNOR_CLONE_LIMIT),
+    POWER_ON("power_on", VmwareConstants.GOVERNOR_POWER_ON_LIMIT),
+    DESTROY("destroy", VmwareConstants.GOVERNOR_DESTROY_LIMIT);
+
+    @NotNull private final String myName;
+    @NotNull private final String myLimitProperty;
+
+    Operation(@NotNull final String name, @NotNull final String limitProperty) {
+      myName = name;
+      myLimitProperty = limitProperty;
+    }
+
+    private int getLimit() {
+      return TeamCityProperties.getInteger(myLimitProperty, 0);
+    }
+  }
+
+  @NotNull private final Map<Operation, Gate> myGates = new EnumMap<>(Operation.class);
+  // starts queued operations. Plain vSphere tasks (not tracked by VmwareTaskTracker) of queued operations are waited for here as well
+  @NotNull private final ExecutorService myExecutor;
+  // fails operations which are queued for too long
+  @NotNull private final ScheduledExecutorService myTimer;
+
+  public VmwareOperationGovernor() {
+    for (Operation operation : Operation.values()) {
+      myGates.put(operation, new Gate(operation));
+    }
+    // governors are never disposed, so let idle threads die instead of keeping them forever
+    myExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                                        new NamedDaemonThreadFactory("VMware operations governor"));
+    final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new NamedDaemonThreadFactory("VMware operations governor timeouts"));
+    timer.setRemoveOnCancelPolicy(true);
+    timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+    timer.allowCoreThreadTimeOut(true);
+    myTimer = timer;
+  }
+
+  /**
+   * Starts the task if a permit is available, otherwise queues it. The permit is released when the task is finished
+   * @return the started task or a {@link VmwareFutureTask} which is completed together with the queued one,
+   * null if the starter didn't start anything
+   */
+  @Nullable
+  public Task execute(@NotNull final Operation operation, @NotNull final TaskStarter starter) throws VmwareCheckedCloudException, RemoteException {
+    final Gate gate = myGates.get(operation);
+    final PendingOperation pending = new PendingOperation(starter);
+    if (gate.acquireOrEnqueue(pending)) {
+      CloudMetrics.getInstance().recordTime(CloudMetrics.GOVERNOR_WAIT, 0, "operation", operation.myName);
+      return gate.start(starter);
+    }
+    final long timeout = TeamCityProperties.getIntervalMilliseconds(VmwareConstants.GOVERNOR_WAIT_TIMEOUT, DEFAULT_WAIT_TIMEOUT);
+    pending.myTimeout = myTimer.schedule(() -> gate.expire(pending), timeout, TimeUnit.MILLISECONDS);
+    return new VmwareFutureTask(pending.myResult);
+  }
+
+  public int getInFlight(@NotNull final Operation operation) {
+    return myGates.get(operation).getInFlight();
+  }
+
+  public int getQueueLength(@NotNull final Operation operation) {
+    return myGates.get(operation).getQueueLength();
+  }
+
+  public interface TaskStarter {
+    @Nullable
+    Task start() throws VmwareCheckedCloudException, RemoteException;
+  }
+
+  private static class PendingOperation {
+    @NotNull private final TaskStarter myStarter;
+    @NotNull private final CompletableFuture<TaskInfo> myResult = new CompletableFuture<>();
+    private final long myQueuedTime = System.currentTimeMillis();
+    @Nullable private volatile Future<?> myTimeout;
+
+    private PendingOperation(@NotNull final TaskStarter starter) {
+      myStarter = starter;
+    }
+  }
+
+  private class Gate {
+    @NotNull private final Operation myOperation;
+    @NotNull private final Deque<PendingOperation> myQueue = new ArrayDeque<>();
+    private int myInFlight;
+
+    private Gate(@NotNull final Operation operation) {
+      myOperation = operation;
+    }
+
+    /**
+     * @return true if the permit is acquired, false if the operation is queued
+     */
+    private synchronized boolean acquireOrEnqueue(@NotNull final PendingOperation pending) {
+      if (myQueue.isEmpty() && !isLimitReached()) {
+        myInFlight++;
+        return true;
+      }
+      myQueue.add(pending);
+      return false;
+    }
+
+    private boolean isLimitReached() {
+      final int limit = myOperation.getLimit();
+      return limit > 0 && myInFlight >= limit;
+    }
+
+    /**
+     * Starts the task holding the permit, the permit is released if nothing is started
+     */
+    @Nullable
+    private Task start(@NotNull final TaskStarter starter) throws VmwareCheckedCloudException, RemoteException {
+      final Task task;
+      try {
+        task = starter.start();
+      } catch (Throwable th) {
+        release();
+        throw th;
+      }
+      if (task == null) {
+        release();
+        return null;
+      }
+      if (task instanceof VmwareFutureTask) {
+        ((VmwareFutureTask)task).getFuture().whenComplete((info, th) -> release());
+        return task;
+      }
+      return new GovernedTask(task, this);
+    }
+
+    private void release() {
+      final List<PendingOperation> startable = new ArrayList<>();
+      synchronized (this) {
+        myInFlight--;
+        while (!myQueue.isEmpty() && !isLimitReached()) {
+          myInFlight++;
+          startable.add(myQueue.poll());
+        }
+      }
+      for (PendingOperation pending : startable) {
+        final Future<?> timeout = pending.myTimeout;
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+        CloudMetrics.getInstance().recordTime(CloudMetrics.GOVERNOR_WAIT, System.currentTimeMillis() - pending.myQueuedTime, "operation", myOperation.myName);
+        myExecutor.execute(() -> startQueued(pending));
+      }
+    }
+
+    private void startQueued(@NotNull final PendingOperation pending) {
+      final Task task;
+      try {
+        task = start(pending.myStarter);
+      } catch (Throwable th) {
+        pending.myResult.completeExceptionally(th);
+        return;
+      }
+      if (task == null) {
+        pending.myResult.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+      } else if (task instanceof VmwareFutureTask) {
+        ((VmwareFutureTask)task).getFuture().whenComplete((info, th) -> {
+          if (th != null) {
+            pending.myResult.completeExceptionally(th);
+          } else {
+            pending.myResult.complete(info);
+          }
+        });
+      } else {
+        // the caller already has the future task, so the plain task is waited for here
+        try {
+          task.waitForTask();
+          pending.myResult.complete(task.getTaskInfo());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          pending.myResult.completeExceptionally(e);
+        } catch (Exception e) {
+          pending.myResult.completeExceptionally(e);
+        }
+      }
+    }
+
+    private void expire(@NotNull final PendingOperation pending) {
+      final int inFlight;
+      synchronized (this) {
+        if (!myQueue.remove(pending))
+          return;
+        inFlight = myInFlight;
+      }
+      CloudMetrics.getInstance().recordTime(CloudMetrics.GOVERNOR_WAIT, System.currentTimeMillis() - pending.myQueuedTime, "operation", myOperation.myName);
+      final String message = String.format("Timed out waiting for a %s slot: %d operations are in progress", myOperation.myName, inFlight);
+      LOG.warn(message);
+      pending.myResult.completeExceptionally(new VmwareCheckedCloudException(message));
+    }
+
+    private synchronized int getInFlight() {
+      return myInFlight;
+    }
+
+    private synchronized int getQueueLength() {
+      return myQueue.size();
+    }
+  }
+
+  /**
+   * Releases the permit when {@link VmwareTaskWrapper} has waited for the task
+   */
+  private static class GovernedTask extends Task {
+    @NotNull private final Task myTask;
+    @NotNull private final Gate myGate;
+    private final AtomicBoolean myReleased = new AtomicBoolean();
+
+    private GovernedTask(@NotNull final Task task, @NotNull final Gate gate) {
+      super(task.getServerConnection(), task.getMOR());
+      myTask = task;
+      myGate = gate;
+    }
+
+    @Override
+    public TaskInfo getTaskInfo() throws RemoteException {
+      return myTask.getTaskInfo();
+    }
+
+    @Override
+    public String waitForTask() throws RemoteException, InterruptedException {
+      try {
+        return myTask.waitForTask();
+      } finally {
+        release();
+      }
+    }
+
+    @Override
+    public String waitForTask(final int runningDelayInMillSecond, final int queuedDelayInMillSecond) throws RemoteException, InterruptedException {
+      try {
+        return myTask.waitForTask(runningDelayInMillSecond, queuedDelayInMillSecond);
+      } finally {
+        release();
+      }
+    }
+
+    @Override
+    public void cancelTask() throws RuntimeFault, RemoteException {
+      try {
+        myTask.cancelTask();
+      } finally {
+        release();
+      }
+    }
+
+    private void release() {
+      if (myReleased.compareAndSet(false, true)) {
+        myGate.release();
+      }
+    }
+  }
+}
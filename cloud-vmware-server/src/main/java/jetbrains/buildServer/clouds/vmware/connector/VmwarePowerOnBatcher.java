@@ -0,0 +1,201 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.Datacenter;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.VirtualMachine;
+import java.util.*;
+import java.util.concurrent.*;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import jetbrains.buildServer.util.ThreadUtil;
+import jetbrains.buildServer.util.executors.ExecutorsFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Coalesces VM power on requests received within a short window into one {@link Datacenter#powerOnMultiVM_Task(VirtualMachine[])} per datacenter.
+ *
+ * The multi power on task and the per-VM tasks it spawns are awaited through {@link VmwareTaskTracker}, so no thread waits for them.
+ */
+public class VmwarePowerOnBatcher {
+  private static final Logger LOG = Logger.getInstance(VmwarePowerOnBatcher.class.getName());
+
+  @NotNull private final VmwareTaskTracker myTaskTracker;
+  @NotNull private final String myName;
+  // datacenter id -> pending requests
+  private final Map<String, Batch> myBatches = new HashMap<>();
+  @Nullable private ScheduledExecutorService myExecutor;
+  // waits for tasks which are not handled by the tracker, so the scheduler thread is kept for batch windows
+  @NotNull private final ExecutorService myTaskWaitExecutor;
+  private boolean myDisposed = false;
+
+  public VmwarePowerOnBatcher(@NotNull final VmwareTaskTracker taskTracker, @NotNull final String name) {
+    myTaskTracker = taskTracker;
+    myName = name;
+    myTaskWaitExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                                                new SynchronousQueue<>(),
+                                                new NamedDaemonThreadFactory(name + " task wait"));
+  }
+
+  /**
+   * Schedules power on of the VM
+   *
+   * @param vm virtual machine to power on
+   * @param datacenter datacenter of the VM
+   * @param windowMillis time to wait for other requests in the same datacenter
+   * @return task which completes when the VM is powered on
+   */
+  @NotNull
+  public synchronized Task powerOn(@NotNull final VirtualMachine vm, @NotNull final Datacenter datacenter, final long windowMillis) {
+    if (myDisposed) {
+      throw new IllegalStateException("Power on batcher is disposed");
+    }
+    final String datacenterId = datacenter.getMOR().getVal();
+    Batch batch = myBatches.get(datacenterId);
+    if (batch == null) {
+      batch = new Batch(datacenter);
+      myBatches.put(datacenterId, batch);
+      getExecutor().schedule(() -> NamedThreadFactory.executeWithNewThreadName(myName, () -> flush(datacenterId)), windowMillis, TimeUnit.MILLISECONDS);
+    }
+    final PowerOnRequest existing = batch.myRequests.get(vm.getMOR().getVal());
+    if (existing != null) {
+      return new VmwareFutureTask(existing.myFuture);
+    }
+    final CompletableFuture<TaskInfo> future = new CompletableFuture<>();
+    batch.myRequests.put(vm.getMOR().getVal(), new PowerOnRequest(vm, future));
+    return new VmwareFutureTask(future);
+  }
+
+  @NotNull
+  private synchronized ScheduledExecutorService getExecutor() {
+    if (myDisposed) {
+      throw new IllegalStateException("Power on batcher is disposed");
+    }
+    if (myExecutor == null) {
+      myExecutor = ExecutorsFactory.newFixedScheduledDaemonExecutor(myName, 1);
+    }
+    return myExecutor;
+  }
+
+  /*package local*/ void flush(@NotNull final String datacenterId) {
+    final Batch batch;
+    synchronized (this) {
+      batch = myBatches.remove(datacenterId);
+    }
+    if (batch == null || batch.myRequests.isEmpty())
+      return;
+
+    final List<PowerOnRequest> requests = new ArrayList<>(batch.myRequests.values());
+    LOG.info(String.format("Powering on %d VMs in datacenter %s", requests.size(), batch.myDatacenter.getName()));
+    final VirtualMachine[] vms = requests.stream().map(r -> r.myVm).toArray(VirtualMachine[]::new);
+    final Task multiTask;
+    try {
+      multiTask = batch.myDatacenter.powerOnMultiVM_Task(vms);
+    } catch (Exception ex) {
+      LOG.warnAndDebugDetails("Unable to power on VMs in datacenter " + batch.myDatacenter.getName(), ex);
+      requests.forEach(r -> r.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.error, ex.toString())));
+      return;
+    }
+    getFuture(multiTask).whenComplete((taskInfo, th) -> {
+      if (th != null || taskInfo.getState() != TaskInfoState.success) {
+        final TaskInfo errorInfo = th != null ? VmwareFutureTask.createTaskInfo(TaskInfoState.error, th.toString()) : taskInfo;
+        requests.forEach(r -> r.complete(errorInfo));
+        return;
+      }
+      processResult(batch, taskInfo.getResult());
+    });
+  }
+
+  private void processResult(@NotNull final Batch batch, @Nullable final Object result) {
+    if (result instanceof ClusterPowerOnVmResult) {
+      final ClusterPowerOnVmResult powerOnResult = (ClusterPowerOnVmResult)result;
+      if (powerOnResult.getNotAttempted() != null) {
+        for (ClusterNotAttemptedVmInfo notAttempted : powerOnResult.getNotAttempted()) {
+          final PowerOnRequest request = batch.myRequests.remove(notAttempted.getVm().getVal());
+          if (request != null) {
+            final LocalizedMethodFault fault = notAttempted.getFault();
+            request.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.error, fault == null ? "Power on was not attempted" : fault.getLocalizedMessage()));
+          }
+        }
+      }
+      if (powerOnResult.getAttempted() != null) {
+        for (ClusterAttemptedVmInfo attempted : powerOnResult.getAttempted()) {
+          final PowerOnRequest request = batch.myRequests.remove(attempted.getVm().getVal());
+          if (request == null)
+            continue;
+          if (attempted.getTask() == null) {
+            request.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+          } else {
+            getFuture(new Task(batch.myDatacenter.getServerConnection(), attempted.getTask())).whenComplete((taskInfo, th) -> request.complete(
+              th != null ? VmwareFutureTask.createTaskInfo(TaskInfoState.error, th.toString()) : taskInfo));
+          }
+        }
+      }
+    }
+    // VMs not mentioned in the result were powered on by the multi power on task itself
+    batch.myRequests.values().forEach(r -> r.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null)));
+  }
+
+  @NotNull
+  private CompletableFuture<TaskInfo> getFuture(@NotNull final Task task) {
+    final Task trackedTask = myTaskTracker.track(task);
+    if (trackedTask instanceof VmwareFutureTask) {
+      return ((VmwareFutureTask)trackedTask).getFuture();
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        trackedTask.waitForTask();
+        return trackedTask.getTaskInfo();
+      } catch (Exception e) {
+        return VmwareFutureTask.createTaskInfo(TaskInfoState.error, e.toString());
+      }
+    }, myTaskWaitExecutor);
+  }
+
+  /**
+   * Completes all pending requests with an error and stops the scheduler
+   */
+  public void dispose() {
+    final List<Batch> batches;
+    final ScheduledExecutorService executor;
+    synchronized (this) {
+      myDisposed = true;
+      batches = new ArrayList<>(myBatches.values());
+      myBatches.clear();
+      executor = myExecutor;
+      myExecutor = null;
+    }
+    // a running flush needs the lock, so the executor is awaited without holding it
+    if (executor != null) {
+      ThreadUtil.shutdownNowAndWait(executor, myName);
+    }
+    myTaskWaitExecutor.shutdownNow();
+    batches.forEach(b -> b.myRequests.values().forEach(r -> r.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.error, "Power on was cancelled"))));
+  }
+
+  private static class Batch {
+    @NotNull private final Datacenter myDatacenter;
+    // VM id -> request
+    @NotNull private final Map<String, PowerOnRequest> myRequests = new LinkedHashMap<>();
+
+    private Batch(@NotNull final Datacenter datacenter) {
+      myDatacenter = datacenter;
+    }
+  }
+
+  private static class PowerOnRequest {
+    @NotNull private final VirtualMachine myVm;
+    @NotNull private final CompletableFuture<TaskInfo> myFuture;
+
+    private PowerOnRequest(@NotNull final VirtualMachine vm, @NotNull final CompletableFuture<TaskInfo> future) {
+      myVm = vm;
+      myFuture = future;
+    }
+
+    private void complete(@NotNull final TaskInfo taskInfo) {
+      myFuture.complete(taskInfo);
+    }
+  }
+}
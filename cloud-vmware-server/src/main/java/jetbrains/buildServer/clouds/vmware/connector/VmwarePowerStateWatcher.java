@@ -0,0 +1,271 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.PropertyFilter;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Delivers power state transitions of virtual machines using a single property collector subscription.
+ *
+ * Each watched VM gets its own property filter, all filters share one collector which is served by one thread
+ * calling {@link PropertyCollector#waitForUpdatesEx(String, WaitOptions)}. The thread only lives while there are watched VMs.
+ */
+public class VmwarePowerStateWatcher {
+  private static final Logger LOG = Logger.getInstance(VmwarePowerStateWatcher.class.getName());
+
+  private static final String POWER_STATE = "runtime.powerState";
+  private static final int MAX_WAIT_SECONDS = 10;
+
+  @NotNull private final Callable<ServiceInstance> mySessionProvider;
+  @NotNull private final String myName;
+  private final Object myLock = new Object();
+  // VM id -> watch
+  private final Map<String, Watch> myWatches = new HashMap<>();
+  @Nullable private Thread myThread;
+  @Nullable private volatile PropertyCollector myCollector;
+
+  /**
+   * @param sessionProvider provides current connector session. A new session causes all filters to be recreated
+   * @param name watcher thread name
+   */
+  public VmwarePowerStateWatcher(@NotNull final Callable<ServiceInstance> sessionProvider, @NotNull final String name) {
+    mySessionProvider = sessionProvider;
+    myName = name;
+  }
+
+  /**
+   * @param vm virtual machine to watch
+   * @param timeoutMillis maximum time to wait
+   * @return future which completes with true when VM is powered off or with false when timeout is reached
+   */
+  @NotNull
+  public CompletableFuture<Boolean> waitForPowerOff(@NotNull final ManagedObjectReference vm, final long timeoutMillis) {
+    final Watch watch = new Watch(vm, System.currentTimeMillis() + timeoutMillis);
+    synchronized (myLock) {
+      final Watch previous = myWatches.put(vm.getVal(), watch);
+      if (previous != null) {
+        // chain the previous waiter, it will be completed together with the new one
+        watch.myFuture.whenComplete((result, th) -> previous.complete(result != null && result));
+        watch.myFilter = previous.myFilter;
+      }
+      if (myThread == null) {
+        myThread = new Thread(this::watchLoop, myName);
+        myThread.setDaemon(true);
+        myThread.start();
+        return watch.myFuture;
+      }
+      if (Thread.currentThread() == myThread) {
+        // called from a callback of the watcher thread, the new VM is picked up on the next iteration
+        return watch.myFuture;
+      }
+    }
+    // wake up the watcher thread, so it creates a filter for the new VM right away
+    final PropertyCollector collector = myCollector;
+    if (collector != null) {
+      try {
+        collector.cancelWaitForUpdates();
+      } catch (Exception ex) {
+        LOG.debug("Unable to cancel waiting for updates: " + ex.toString());
+      }
+    }
+    return watch.myFuture;
+  }
+
+  private void watchLoop() {
+    PropertyCollector collector = null;
+    ServiceInstance session = null;
+    String version = "";
+    try {
+      while (true) {
+        final List<Watch> watches;
+        synchronized (myLock) {
+          if (myWatches.isEmpty()) {
+            myThread = null;
+            return;
+          }
+          watches = new ArrayList<>(myWatches.values());
+        }
+        try {
+          final ServiceInstance currentSession = mySessionProvider.call();
+          if (collector == null || currentSession != session) {
+            destroyCollector(collector);
+            session = currentSession;
+            collector = session.getPropertyCollector().createPropertyCollector();
+            myCollector = collector;
+            version = "";
+            watches.forEach(w -> w.myFilter = null);
+          }
+
+          long nextDeadline = Long.MAX_VALUE;
+          for (Watch watch : watches) {
+            if (watch.myFilter == null) {
+              watch.myFilter = createFilter(collector, watch.myVm);
+            }
+            nextDeadline = Math.min(nextDeadline, watch.myDeadline);
+          }
+
+          final WaitOptions options = new WaitOptions();
+          final long waitSeconds = (nextDeadline - System.currentTimeMillis() + 999) / 1000;
+          options.setMaxWaitSeconds((int)Math.max(1, Math.min(MAX_WAIT_SECONDS, waitSeconds)));
+          final UpdateSet updateSet = collector.waitForUpdatesEx(version, options);
+          if (updateSet != null) {
+            version = updateSet.getVersion();
+            processUpdates(updateSet);
+          }
+          processTimeouts();
+        } catch (RequestCanceled ex) {
+          // a new VM is added
+        } catch (InvalidCollectorVersion ex) {
+          version = "";
+        } catch (Exception ex) {
+          LOG.warnAndDebugDetails("An error occurred while waiting for VM power state changes", ex);
+          destroyCollector(collector);
+          collector = null;
+          myCollector = null;
+          processTimeouts();
+          Thread.sleep(TeamCityProperties.getIntervalMilliseconds("teamcity.vmware.instance.status.check.delay", 5000));
+        }
+      }
+    } catch (InterruptedException ex) {
+      LOG.debug("Power state watcher was interrupted");
+      failAll();
+    } catch (Throwable th) {
+      LOG.warnAndDebugDetails("Power state watcher failed", th);
+      failAll();
+    } finally {
+      myCollector = null;
+      destroyCollector(collector);
+    }
+  }
+
+  private void processUpdates(@NotNull final UpdateSet updateSet) {
+    if (updateSet.getFilterSet() == null)
+      return;
+    for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+      if (filterUpdate.getObjectSet() == null)
+        continue;
+      for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+        final String vmId = objectUpdate.getObj().getVal();
+        final boolean poweredOff = objectUpdate.getKind() == ObjectUpdateKind.leave || isPoweredOff(objectUpdate.getChangeSet());
+        if (!poweredOff)
+          continue;
+        final Watch watch;
+        synchronized (myLock) {
+          watch = myWatches.remove(vmId);
+        }
+        if (watch != null) {
+          LOG.debug("Detected power off of " + vmId);
+          watch.destroyFilter();
+          watch.complete(true);
+        }
+      }
+    }
+  }
+
+  private static boolean isPoweredOff(@Nullable final PropertyChange[] changes) {
+    if (changes == null)
+      return false;
+    for (PropertyChange change : changes) {
+      if (POWER_STATE.equals(change.getName()) && change.getVal() == VirtualMachinePowerState.poweredOff) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void processTimeouts() {
+    final long now = System.currentTimeMillis();
+    final List<Watch> expired = new ArrayList<>();
+    synchronized (myLock) {
+      final Iterator<Watch> iterator = myWatches.values().iterator();
+      while (iterator.hasNext()) {
+        final Watch watch = iterator.next();
+        if (watch.myDeadline <= now) {
+          iterator.remove();
+          expired.add(watch);
+        }
+      }
+    }
+    for (Watch watch : expired) {
+      watch.destroyFilter();
+      watch.complete(false);
+    }
+  }
+
+  private void failAll() {
+    final List<Watch> watches;
+    synchronized (myLock) {
+      watches = new ArrayList<>(myWatches.values());
+      myWatches.clear();
+      myThread = null;
+    }
+    watches.forEach(w -> w.complete(false));
+  }
+
+  /**
+   * Stops watching. All pending waiters are completed with false
+   */
+  public void dispose() {
+    final Thread thread;
+    synchronized (myLock) {
+      thread = myThread;
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  @NotNull
+  private static PropertyFilter createFilter(@NotNull final PropertyCollector collector, @NotNull final ManagedObjectReference vm) throws Exception {
+    final PropertyFilterSpec spec = new PropertyFilterSpec();
+    spec.setObjectSet(new ObjectSpec[]{PropertyCollectorUtil.creatObjectSpec(vm, false, null)});
+    spec.setPropSet(new PropertySpec[]{PropertyCollectorUtil.createPropertySpec(vm.getType(), false, new String[]{POWER_STATE})});
+    return collector.createFilter(spec, false);
+  }
+
+  private static void destroyCollector(@Nullable final PropertyCollector collector) {
+    if (collector == null)
+      return;
+    try {
+      collector.destroyPropertyCollector();
+    } catch (Exception ex) {
+      LOG.debug("Unable to destroy property collector: " + ex.toString());
+    }
+  }
+
+  private static class Watch {
+    @NotNull private final ManagedObjectReference myVm;
+    private final long myDeadline;
+    @NotNull private final CompletableFuture<Boolean> myFuture = new CompletableFuture<>();
+    @Nullable private volatile PropertyFilter myFilter;
+
+    private Watch(@NotNull final ManagedObjectReference vm, final long deadline) {
+      myVm = vm;
+      myDeadline = deadline;
+    }
+
+    private void complete(boolean poweredOff) {
+      myFuture.complete(poweredOff);
+    }
+
+    private void destroyFilter() {
+      final PropertyFilter filter = myFilter;
+      if (filter == null)
+        return;
+      try {
+        filter.destroyPropertyFilter();
+      } catch (Exception ex) {
+        LOG.debug("Unable to destroy property filter: " + ex.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.SessionManager;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import jetbrains.buildServer.util.executors.ExecutorsFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Authenticated vCenter session of a connector.
+ *
+ * Callers get the current session without a lock or a remote call. Its validity is checked in background
+ * (which also keeps it from expiring on the server), and a session that turned out to be invalid is dropped,
+ * so the next caller logs in again. A session that nobody used for {@link #IDLE_TIMEOUT_PROPERTY} is logged out.
+ */
+public class VmwareSession {
+  private static final Logger LOG = Logger.getInstance(VmwareSession.class.getName());
+
+  public static final String KEEP_ALIVE_INTERVAL_PROPERTY = "teamcity.vmware.session.keep.alive.interval";
+  public static final String IDLE_TIMEOUT_PROPERTY = "teamcity.vmware.session.idle.timeout";
+
+  private static final long DEFAULT_KEEP_ALIVE_INTERVAL = 60 * 1000;
+  private static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000;
+
+  @NotNull private final Login myLogin;
+  @NotNull private final String myName;
+  @NotNull private final AtomicReference<ServiceInstance> myServiceInstance = new AtomicReference<>();
+  private volatile long myLastAccessTime;
+  @NotNull private final AtomicBoolean myCheckScheduled = new AtomicBoolean();
+  @Nullable private ScheduledExecutorService myExecutor;
+  private boolean myDisposed = false;
+
+  /**
+   * @param login creates a new authenticated session
+   * @param name keep-alive thread name
+   */
+  public VmwareSession(@NotNull final Login login, @NotNull final String name) {
+    myLogin = login;
+    myName = name;
+  }
+
+  /**
+   * @return current session, logs in if there is none
+   */
+  @NotNull
+  public ServiceInstance get() throws VmwareCheckedCloudException {
+    // access time is written before the session is read, see clearIfIdle
+    myLastAccessTime = System.currentTimeMillis();
+    final ServiceInstance serviceInstance = myServiceInstance.get();
+    if (serviceInstance != null)
+      return serviceInstance;
+    return login();
+  }
+
+  private synchronized ServiceInstance login() throws VmwareCheckedCloudException {
+    ServiceInstance serviceInstance = myServiceInstance.get();
+    if (serviceInstance == null) {
+      serviceInstance = myLogin.login();
+      myServiceInstance.set(serviceInstance);
+      ensureStarted();
+    }
+    return serviceInstance;
+  }
+
+  /**
+   * Drops the current session if the error means that it is no longer authenticated
+   *
+   * @return true if the session was dropped
+   */
+  public boolean processFault(@NotNull final Throwable th) {
+    final ServiceInstance serviceInstance = myServiceInstance.get();
+    if (serviceInstance == null || !isNotAuthenticated(th))
+      return false;
+    LOG.info(String.format("vCenter session of %s is not authenticated anymore, will log in again on next call", myName));
+    invalidate(serviceInstance);
+    return true;
+  }
+
+  private void invalidate(@NotNull final ServiceInstance serviceInstance) {
+    myServiceInstance.compareAndSet(serviceInstance, null);
+  }
+
+  /**
+   * Checks the session on the keep-alive thread as soon as possible, callers are not blocked by the remote call.
+   * Requests made before the check starts are served by the same check
+   */
+  public synchronized void scheduleCheck() {
+    if (myExecutor == null || !myCheckScheduled.compareAndSet(false, true))
+      return;
+    myExecutor.execute(() -> {
+      myCheckScheduled.set(false);
+      NamedThreadFactory.executeWithNewThreadName(myName, this::checkSession);
+    });
+  }
+
+  private synchronized void ensureStarted() {
+    if (myExecutor != null || myDisposed)
+      return;
+    final long interval = TeamCityProperties.getIntervalMilliseconds(KEEP_ALIVE_INTERVAL_PROPERTY, DEFAULT_KEEP_ALIVE_INTERVAL);
+    myExecutor = ExecutorsFactory.newFixedScheduledDaemonExecutor(myName, 1);
+    myCheckScheduled.set(false);
+    myExecutor.scheduleWithFixedDelay(() -> NamedThreadFactory.executeWithNewThreadName(myName, this::checkSession), interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /*package local*/ void checkSession() {
+    final ServiceInstance serviceInstance = myServiceInstance.get();
+    if (serviceInstance == null)
+      return;
+    if (isIdle()) {
+      if (clearIfIdle(serviceInstance)) {
+        LOG.debug(String.format("vCenter session of %s was not used for a long time, logging out", myName));
+        logout(serviceInstance);
+      }
+      return;
+    }
+    try {
+      final SessionManager sessionManager = serviceInstance.getSessionManager();
+      if (sessionManager != null && sessionManager.getCurrentSession() != null)
+        return;
+      LOG.info(String.format("vCenter session of %s has expired, will log in again on next call", myName));
+    } catch (Exception ex) {
+      LOG.warnAndDebugDetails(String.format("Unable to check vCenter session of %s, will log in again on next call", myName), ex);
+    }
+    invalidate(serviceInstance);
+  }
+
+  private boolean isIdle() {
+    return System.currentTimeMillis() - myLastAccessTime > TeamCityProperties.getIntervalMilliseconds(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Callers write the access time before reading the session and the session is cleared before the access time is checked again,
+   * so a caller either gets no session and logs in under the lock, or its access is seen here and the session is kept
+   */
+  /*package local*/ synchronized boolean clearIfIdle(@NotNull final ServiceInstance serviceInstance) {
+    if (!myServiceInstance.compareAndSet(serviceInstance, null))
+      return false;
+    if (!isIdle()) {
+      // login() is guarded by the same lock, so nobody could have set another session meanwhile
+      myServiceInstance.set(serviceInstance);
+      return false;
+    }
+    if (myExecutor != null) {
+      myExecutor.shutdown();
+      myExecutor = null;
+    }
+    return true;
+  }
+
+  public void dispose() {
+    final ServiceInstance serviceInstance;
+    synchronized (this) {
+      myDisposed = true;
+      if (myExecutor != null) {
+        myExecutor.shutdownNow();
+        myExecutor = null;
+      }
+      serviceInstance = myServiceInstance.getAndSet(null);
+    }
+    if (serviceInstance != null) {
+      logout(serviceInstance);
+    }
+  }
+
+  private static void logout(@NotNull final ServiceInstance serviceInstance) {
+    try {
+      final ServerConnection serverConnection = serviceInstance.getServerConnection();
+      if (serverConnection != null)
+        serverConnection.logout();
+    } catch (Exception ex){}
+  }
+
+  /*package local*/ static boolean isNotAuthenticated(@Nullable Throwable th) {
+    while (th != null) {
+      if (th instanceof NotAuthenticated)
+        return true;
+      th = th.getCause() == th ? null : th.getCause();
+    }
+    return false;
+  }
+
+  public interface Login {
+    @NotNull
+    ServiceInstance login() throws VmwareCheckedCloudException;
+  }
+}
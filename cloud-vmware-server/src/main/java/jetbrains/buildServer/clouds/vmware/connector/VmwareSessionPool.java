@@ -0,0 +1,74 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.mo.ServiceInstance;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Authenticated vCenter sessions of a connector.
+ *
+ * Requests of one session are processed one after another, so the connector spreads its calls over
+ * {@link #POOL_SIZE_PROPERTY} sessions, handing them out in turn. Managed objects keep the session they were obtained with,
+ * so all calls made for one operation go through the same session. Every session logs in lazily and is kept alive separately.
+ * Property collector filters are bound to a session, so incremental updates and task tracking always use {@link #getPrimary()}.
+ */
+public class VmwareSessionPool {
+  public static final String POOL_SIZE_PROPERTY = "teamcity.vmware.session.pool.size";
+
+  @NotNull private final VmwareSession[] mySessions;
+  @NotNull private final AtomicInteger myNext = new AtomicInteger();
+
+  /**
+   * @param login creates a new authenticated session
+   * @param name keep-alive thread name
+   */
+  public VmwareSessionPool(@NotNull final VmwareSession.Login login, @NotNull final String name) {
+    final int size = Math.max(1, TeamCityProperties.getInteger(POOL_SIZE_PROPERTY, 1));
+    mySessions = new VmwareSession[size];
+    for (int i = 0; i < size; i++) {
+      mySessions[i] = new VmwareSession(login, size == 1 ? name : name + " " + (i + 1));
+    }
+  }
+
+  /**
+   * @return next session of the pool, logs in if it has no session yet
+   */
+  @NotNull
+  public ServiceInstance get() throws VmwareCheckedCloudException {
+    if (mySessions.length == 1)
+      return mySessions[0].get();
+    return mySessions[Math.floorMod(myNext.getAndIncrement(), mySessions.length)].get();
+  }
+
+  /**
+   * @return the first session of the pool. Used for server-side state bound to a session, such as property collector filters
+   */
+  @NotNull
+  public ServiceInstance getPrimary() throws VmwareCheckedCloudException {
+    return mySessions[0].get();
+  }
+
+  /**
+   * Drops the sessions which are no longer authenticated if the error says so.
+   * The error doesn't tell which session it came from, so every session of the pool is checked on its keep-alive thread
+   */
+  public void processFault(@NotNull final Throwable th) {
+    if (mySessions.length == 1) {
+      mySessions[0].processFault(th);
+      return;
+    }
+    if (!VmwareSession.isNotAuthenticated(th))
+      return;
+    for (VmwareSession session : mySessions) {
+      session.scheduleCheck();
+    }
+  }
+
+  public void dispose() {
+    for (VmwareSession session : mySessions) {
+      session.dispose();
+    }
+  }
+}
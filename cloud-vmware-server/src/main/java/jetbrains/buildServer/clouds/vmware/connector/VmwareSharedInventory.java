@@ -0,0 +1,145 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import jetbrains.buildServer.Used;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Inventory snapshots shared by all connectors of the same vCenter.
+ *
+ * The snapshot is fetched with the read-only account of {@link jetbrains.buildServer.clouds.vmware.VmwareConstants#SHARED_INVENTORY_USER}
+ * by the first connector that needs it and reused by the others until it gets older than {@link #MAX_AGE_PROPERTY}.
+ * Connectors filter the snapshot by the VMs their own account can see.
+ *
+ * A recent enough snapshot is returned without locking. Callers that need a newer one wait for a single fetch in flight.
+ */
+public class VmwareSharedInventory {
+  private static final Logger LOG = Logger.getInstance(VmwareSharedInventory.class.getName());
+
+  public static final String MAX_AGE_PROPERTY = "teamcity.clouds.vmware.shared.inventory.max.age.ms";
+  private static final long DEFAULT_MAX_AGE = 30 * 1000;
+
+  private static final VmwareSharedInventory INSTANCE = new VmwareSharedInventory();
+
+  // vCenter UUID -> snapshot
+  @NotNull private final ConcurrentMap<String, Snapshot> mySnapshots = new ConcurrentHashMap<>();
+
+  @Used("Tests")
+  VmwareSharedInventory() {
+  }
+
+  @NotNull
+  public static VmwareSharedInventory getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param vCenterUuid instance UUID of the vCenter
+   * @param fetcher fetches the inventory if there is no recent snapshot. Concurrent callers wait for a single fetch
+   * @return time the snapshot was fetched at and read-only collection of all virtual machines
+   */
+  @NotNull
+  public Pair<Long, Collection<VmwareInstance>> getVirtualMachines(@NotNull final String vCenterUuid,
+                                                                   @NotNull final InventoryFetcher fetcher) throws VmwareCheckedCloudException {
+    return getVirtualMachines(vCenterUuid, Long.MAX_VALUE, fetcher);
+  }
+
+  /**
+   * @param maxStaleness how old, in milliseconds, the snapshot may be for this caller, in addition to {@link #MAX_AGE_PROPERTY}.
+   *                     A fetch which is already in flight is joined, as its data is not older than the call
+   */
+  @NotNull
+  public Pair<Long, Collection<VmwareInstance>> getVirtualMachines(@NotNull final String vCenterUuid,
+                                                                   final long maxStaleness,
+                                                                   @NotNull final InventoryFetcher fetcher) throws VmwareCheckedCloudException {
+    final Snapshot snapshot = mySnapshots.computeIfAbsent(vCenterUuid, k -> new Snapshot());
+    final Pair<Long, Collection<VmwareInstance>> data = snapshot.myData;
+    if (isRecent(data, maxStaleness)) {
+      return data;
+    }
+
+    final CompletableFuture<Pair<Long, Collection<VmwareInstance>>> fetch;
+    final boolean fetching;
+    synchronized (snapshot) {
+      // another fetch could have completed meanwhile
+      if (isRecent(snapshot.myData, maxStaleness)) {
+        return snapshot.myData;
+      }
+      fetching = snapshot.myFetch == null;
+      if (fetching) {
+        snapshot.myFetch = new CompletableFuture<>();
+      }
+      fetch = snapshot.myFetch;
+    }
+    if (fetching) {
+      fetch(vCenterUuid, snapshot, fetch, fetcher);
+    }
+
+    try {
+      return fetch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VmwareCheckedCloudException("Interrupted while waiting for the shared inventory of " + vCenterUuid, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof VmwareCheckedCloudException) {
+        throw (VmwareCheckedCloudException)e.getCause();
+      }
+      throw new VmwareCheckedCloudException(e.getCause());
+    }
+  }
+
+  private static void fetch(@NotNull final String vCenterUuid,
+                            @NotNull final Snapshot snapshot,
+                            @NotNull final CompletableFuture<Pair<Long, Collection<VmwareInstance>>> fetch,
+                            @NotNull final InventoryFetcher fetcher) {
+    try {
+      // the data is as old as the start of the fetch
+      final long startTime = System.currentTimeMillis();
+      final Pair<Long, Collection<VmwareInstance>> data = Pair.create(startTime, Collections.unmodifiableCollection(fetcher.fetch()));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Fetched shared inventory of %s: %d VMs in %d ms",
+                                vCenterUuid, data.getSecond().size(), System.currentTimeMillis() - startTime));
+      }
+      synchronized (snapshot) {
+        snapshot.myData = data;
+        snapshot.myFetch = null;
+      }
+      fetch.complete(data);
+    } catch (Throwable th) {
+      // failed fetch is not cached, the next caller tries again
+      synchronized (snapshot) {
+        snapshot.myFetch = null;
+      }
+      fetch.completeExceptionally(th);
+    }
+  }
+
+  private static boolean isRecent(@Nullable final Pair<Long, Collection<VmwareInstance>> data, final long maxStaleness) {
+    if (data == null)
+      return false;
+    final long age = System.currentTimeMillis() - data.getFirst();
+    return age < TeamCityProperties.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE) && age <= maxStaleness;
+  }
+
+  public interface InventoryFetcher {
+    @NotNull
+    Collection<VmwareInstance> fetch() throws VmwareCheckedCloudException;
+  }
+
+  private static class Snapshot {
+    // fetch time and VMs
+    @Nullable private volatile Pair<Long, Collection<VmwareInstance>> myData;
+    // guarded by the snapshot
+    @Nullable private CompletableFuture<Pair<Long, Collection<VmwareInstance>>> myFetch;
+  }
+}
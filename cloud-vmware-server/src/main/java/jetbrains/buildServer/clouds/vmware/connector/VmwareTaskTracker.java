@@ -0,0 +1,178 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+import java.util.*;
+import java.util.concurrent.*;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import jetbrains.buildServer.util.ThreadUtil;
+import jetbrains.buildServer.util.executors.ExecutorsFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tracks running vSphere tasks without dedicating a thread to each of them.
+ *
+ * All registered tasks are polled by one thread with a single {@link PropertyCollector#retrievePropertiesEx(PropertyFilterSpec[], RetrieveOptions)} call.
+ * If the batch request fails (e.g. one of the tasks has already expired on the server), tasks are polled one by one.
+ */
+public class VmwareTaskTracker {
+  private static final Logger LOG = Logger.getInstance(VmwareTaskTracker.class.getName());
+
+  private static final String TASK_TYPE = "Task";
+  private static final String INFO_STATE = "info.state";
+  private static final String INFO_ERROR = "info.error";
+  private static final String INFO_RESULT = "info.result";
+  private static final String[] TASK_PROPERTIES = {INFO_STATE, INFO_ERROR, INFO_RESULT};
+
+  @NotNull private final Callable<ServiceInstance> mySessionProvider;
+  @NotNull private final String myName;
+  // task id -> tracked task
+  @NotNull private final ConcurrentMap<String, TrackedTask> myTasks = new ConcurrentHashMap<>();
+  @Nullable private ScheduledExecutorService myExecutor;
+  private boolean myDisposed = false;
+
+  /**
+   * @param sessionProvider provides current connector session
+   * @param name poller thread name
+   */
+  public VmwareTaskTracker(@NotNull final Callable<ServiceInstance> sessionProvider, @NotNull final String name) {
+    mySessionProvider = sessionProvider;
+    myName = name;
+  }
+
+  /**
+   * Registers the task for tracking
+   *
+   * @param task running vSphere task
+   * @return task which is completed once the vSphere task is finished. Tasks without a server-side counterpart are returned as is
+   */
+  @NotNull
+  public Task track(@NotNull final Task task) {
+    if (task instanceof VmwareFutureTask || task.getMOR() == null)
+      return task;
+    final TrackedTask trackedTask = new TrackedTask(task);
+    myTasks.put(task.getMOR().getVal(), trackedTask);
+    ensureStarted();
+    return new VmwareFutureTask(trackedTask.myFuture);
+  }
+
+  private synchronized void ensureStarted() {
+    if (myExecutor != null || myDisposed)
+      return;
+    final long delay = TeamCityProperties.getIntervalMilliseconds("teamcity.vmware.task.tracker.poll.interval", 1000);
+    myExecutor = ExecutorsFactory.newFixedScheduledDaemonExecutor(myName, 1);
+    myExecutor.scheduleWithFixedDelay(() -> NamedThreadFactory.executeWithNewThreadName(myName, this::poll), delay, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /*package local*/ void poll() {
+    if (myTasks.isEmpty())
+      return;
+    final List<TrackedTask> tasks = new ArrayList<>(myTasks.values());
+    try {
+      pollBatch(tasks);
+    } catch (Exception ex) {
+      LOG.debug("Unable to check state of " + tasks.size() + " tasks in one request, will check them one by one: " + ex.toString());
+      tasks.forEach(this::pollSingle);
+    }
+  }
+
+  private void pollBatch(@NotNull final List<TrackedTask> tasks) throws Exception {
+    final ObjectSpec[] objectSpecs = new ObjectSpec[tasks.size()];
+    for (int i = 0; i < tasks.size(); i++) {
+      objectSpecs[i] = PropertyCollectorUtil.creatObjectSpec(tasks.get(i).myTask.getMOR(), false, null);
+    }
+    final PropertyFilterSpec spec = new PropertyFilterSpec();
+    spec.setObjectSet(objectSpecs);
+    spec.setPropSet(new PropertySpec[]{PropertyCollectorUtil.createPropertySpec(TASK_TYPE, false, TASK_PROPERTIES)});
+
+    final PropertyCollector collector = mySessionProvider.call().getPropertyCollector();
+    RetrieveResult result = collector.retrievePropertiesEx(new PropertyFilterSpec[]{spec}, new RetrieveOptions());
+    while (result != null) {
+      if (result.getObjects() != null) {
+        for (ObjectContent objectContent : result.getObjects()) {
+          processTaskInfo(objectContent.getObj().getVal(), createTaskInfo(objectContent.getPropSet()));
+        }
+      }
+      if (result.getToken() == null)
+        break;
+      result = collector.continueRetrievePropertiesEx(result.getToken());
+    }
+  }
+
+  private void pollSingle(@NotNull final TrackedTask trackedTask) {
+    final String taskId = trackedTask.myTask.getMOR().getVal();
+    try {
+      processTaskInfo(taskId, trackedTask.myTask.getTaskInfo());
+    } catch (Exception ex) {
+      LOG.warnAndDebugDetails("Unable to get state of task " + taskId, ex);
+      if (myTasks.remove(taskId, trackedTask)) {
+        trackedTask.myFuture.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.error, ex.toString()));
+      }
+    }
+  }
+
+  private void processTaskInfo(@NotNull final String taskId, @NotNull final TaskInfo taskInfo) {
+    if (taskInfo.getState() != TaskInfoState.success && taskInfo.getState() != TaskInfoState.error)
+      return;
+    final TrackedTask trackedTask = myTasks.remove(taskId);
+    if (trackedTask != null) {
+      LOG.debug(String.format("Task %s finished with state %s", taskId, taskInfo.getState()));
+      trackedTask.myFuture.complete(taskInfo);
+    }
+  }
+
+  @NotNull
+  private static TaskInfo createTaskInfo(@Nullable final DynamicProperty[] properties) {
+    final TaskInfo taskInfo = new TaskInfo();
+    if (properties == null)
+      return taskInfo;
+    for (DynamicProperty property : properties) {
+      switch (property.getName()) {
+        case INFO_STATE:
+          taskInfo.setState((TaskInfoState)property.getVal());
+          break;
+        case INFO_ERROR:
+          taskInfo.setError((LocalizedMethodFault)property.getVal());
+          break;
+        case INFO_RESULT:
+          taskInfo.setResult(property.getVal());
+          break;
+      }
+    }
+    return taskInfo;
+  }
+
+  /**
+   * Stops tracking. All pending tasks are completed with an error
+   */
+  public void dispose() {
+    final ScheduledExecutorService executor;
+    synchronized (this) {
+      myDisposed = true;
+      executor = myExecutor;
+      myExecutor = null;
+    }
+    // polling calls track() which needs the lock, so the executor is awaited without holding it
+    if (executor != null) {
+      ThreadUtil.shutdownNowAndWait(executor, myName);
+    }
+    final List<TrackedTask> tasks = new ArrayList<>(myTasks.values());
+    myTasks.clear();
+    tasks.forEach(t -> t.myFuture.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.error, "Task tracking was stopped")));
+  }
+
+  private static class TrackedTask {
+    @NotNull private final Task myTask;
+    @NotNull private final CompletableFuture<TaskInfo> myFuture = new CompletableFuture<>();
+
+    private TrackedTask(@NotNull final Task task) {
+      myTask = task;
+    }
+  }
+}
@@ -9,11 +9,13 @@ import com.vmware.vim25.mo.Task;
 import java.util.Date;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
+import jetbrains.buildServer.clouds.base.InstanceStartTrace;
 import jetbrains.buildServer.clouds.base.connector.AsyncCloudTask;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
 import jetbrains.buildServer.clouds.base.connector.CloudTaskResult;
 import jetbrains.buildServer.log.LogUtil;
-import jetbrains.buildServer.util.impl.Lazy;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @author Sergey.Pak
@@ -22,33 +24,83 @@ import org.jetbrains.annotations.NotNull;
  */
 public class VmwareTaskWrapper implements AsyncCloudTask {
 
+  // operation names used in metrics
+  public static final String CLONE = "clone";
+  public static final String INSTANT_CLONE = "instant_clone";
+  public static final String POWER_ON = "power_on";
+  public static final String RECONFIGURE = "reconfigure";
+  public static final String SHUTDOWN = "shutdown";
+  public static final String DESTROY = "destroy";
+  private static final String OTHER = "other";
+
   private final Callable<Task> myVmwareTask;
+  private final String myOperation;
   private final String myTaskName;
+  @Nullable private final InstanceStartTrace myStartTrace;
   private volatile long myStartTime;
-  private final Lazy<CloudTaskResult> myResultLazy;
+  private final AtomicBoolean myIsStarted = new AtomicBoolean(false);
   private final AtomicBoolean myIsDone = new AtomicBoolean(false);
+  private volatile CloudTaskResult myResult;
 
   public VmwareTaskWrapper(@NotNull final Callable<Task> vmwareTask, String taskName){
+    this(vmwareTask, OTHER, taskName);
+  }
+
+  public VmwareTaskWrapper(@NotNull final Callable<Task> vmwareTask, @NotNull final String operation, String taskName){
+    this(vmwareTask, operation, taskName, null);
+  }
+
+  /**
+   * @param startTrace trace of the instance start the task belongs to, the task is added as a phase named after the operation
+   */
+  public VmwareTaskWrapper(@NotNull final Callable<Task> vmwareTask,
+                           @NotNull final String operation,
+                           String taskName,
+                           @Nullable final InstanceStartTrace startTrace){
     myVmwareTask = vmwareTask;
+    myOperation = operation;
     myTaskName = taskName;
-    myResultLazy = new Lazy<CloudTaskResult>() {
-      @Override
-      protected CloudTaskResult createValue() {
-        try {
-          myStartTime = System.currentTimeMillis();
-          return getResult(myVmwareTask.call());
-        } catch (Exception e) {
-          return createErrorTaskResult(e);
-        } finally {
-          myIsDone.set(true);
-        }
-      }
-    };
+    myStartTrace = startTrace;
   }
 
+  /**
+   * Starts the task on the first call. For regular vSphere tasks the call blocks until the task is finished,
+   * {@link VmwareFutureTask}s are completed asynchronously, in this case the result is null until {@link #isDone()} returns true
+   */
   @Override
+  @Nullable
   public CloudTaskResult executeOrGetResult() {
-    return myResultLazy.getValue();
+    if (myIsStarted.compareAndSet(false, true)) {
+      start();
+    }
+    return myResult;
+  }
+
+  private void start() {
+    myStartTime = System.currentTimeMillis();
+    try {
+      final Task task = myVmwareTask.call();
+      if (task instanceof VmwareFutureTask) {
+        ((VmwareFutureTask)task).getFuture().whenComplete((taskInfo, th) -> {
+          complete(th != null ? createErrorTaskResult(th) : createResult(taskInfo.getState().name(), taskInfo));
+        });
+      } else {
+        complete(getResult(task));
+      }
+    } catch (Exception e) {
+      complete(createErrorTaskResult(e));
+    }
+  }
+
+  private void complete(@NotNull final CloudTaskResult result) {
+    final long endTime = System.currentTimeMillis();
+    CloudMetrics.getInstance().recordTime(CloudMetrics.TASK_DURATION, endTime - myStartTime,
+                                          "operation", myOperation, "result", result.isHasErrors() ? "error" : "success");
+    if (myStartTrace != null && !result.isHasErrors()) {
+      myStartTrace.addPhase(myOperation, myStartTime, endTime);
+    }
+    myResult = result;
+    myIsDone.set(true);
   }
 
   @NotNull
@@ -69,19 +121,23 @@ public class VmwareTaskWrapper implements AsyncCloudTask {
   private CloudTaskResult getResult(final Task task) {
     try {
       final String result = task.waitForTask();
-      final TaskInfo taskInfo = task.getTaskInfo();
-      if (taskInfo.getState() == TaskInfoState.error){
-        final LocalizedMethodFault error = taskInfo.getError();
-        return new CloudTaskResult(true, result, new Exception(error== null ? "Unknown error" : error.getLocalizedMessage()));
-      } else {
-        return new CloudTaskResult(result);
-      }
+      return createResult(result, task.getTaskInfo());
     } catch (Exception e) {
       return new CloudTaskResult(true, e.toString(), e);
     }
   }
 
-  private CloudTaskResult createErrorTaskResult(Exception e){
+  @NotNull
+  private static CloudTaskResult createResult(final String result, final TaskInfo taskInfo) {
+    if (taskInfo.getState() == TaskInfoState.error){
+      final LocalizedMethodFault error = taskInfo.getError();
+      return new CloudTaskResult(true, result, new Exception(error== null ? "Unknown error" : error.getLocalizedMessage()));
+    } else {
+      return new CloudTaskResult(result);
+    }
+  }
+
+  private static CloudTaskResult createErrorTaskResult(Throwable e){
     return new CloudTaskResult(true, e.toString(), e);
   }
 
@@ -92,4 +148,4 @@ public class VmwareTaskWrapper implements AsyncCloudTask {
            ",StartTime=" + LogUtil.describe(new Date(myStartTime)) +
            '}';
   }
-}
\ No newline at end of file
+}
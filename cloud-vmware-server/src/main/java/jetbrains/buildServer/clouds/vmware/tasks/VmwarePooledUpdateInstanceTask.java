@@ -101,6 +101,18 @@ public class VmwarePooledUpdateInstanceTask
     return mySpecialState.compareAndSet(0, NOT_TO_BE_REMOVED);
   }
 
+  /**
+   * Operations are run by the executors of the clients, so all clients sharing the task are checked
+   */
+  @Override
+  public boolean hasOperationsInProgress() {
+    if (myClients.stream().anyMatch(VMWareCloudClient::hasOperationsInProgress))
+      return true;
+    synchronized (this) {
+      return myNewClients.stream().anyMatch(VMWareCloudClient::hasOperationsInProgress);
+    }
+  }
+
   @NotNull
   @Override
   protected Collection<VmwareCloudImage> getImages() {
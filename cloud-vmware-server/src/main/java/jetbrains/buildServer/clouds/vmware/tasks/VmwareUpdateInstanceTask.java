@@ -42,6 +42,17 @@ public class VmwareUpdateInstanceTask
     myPoolTask.runIfNecessary(myClient);
   }
 
+  @Override
+  public boolean hasInstancesInTransition() {
+    // the pooled task updates instances of all clients of the connector
+    return myPoolTask.hasInstancesInTransition();
+  }
+
+  @Override
+  public boolean hasOperationsInProgress() {
+    return myPoolTask.hasOperationsInProgress();
+  }
+
   @Override
   public void clientDisposing(@NotNull final VMWareCloudClient client) {
     myPoolTask.removeClient(myClient);
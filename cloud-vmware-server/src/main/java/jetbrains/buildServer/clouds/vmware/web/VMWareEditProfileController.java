@@ -42,6 +42,7 @@ public class VMWareEditProfileController extends BaseFormXmlController {
   @NotNull private final String myHtmlPath;
   @NotNull private final String mySnapshotsPath;
   @NotNull private final String myConfigHelperPath;
+  @NotNull private final String myMetricsPath;
   @NotNull private final PluginDescriptor myPluginDescriptor;
   @NotNull private final ProjectManager myProjectManager;
   @NotNull private final AgentPoolManager myAgentPoolManager;
@@ -64,6 +65,7 @@ public class VMWareEditProfileController extends BaseFormXmlController {
     myJspPath = myPluginDescriptor.getPluginResourcesPath("vmware-settings.jsp");
     mySnapshotsPath = pluginDescriptor.getPluginResourcesPath("vmware-getsnapshotlist.html");
     myConfigHelperPath = pluginDescriptor.getPluginResourcesPath("vmware-config-helper.html");
+    myMetricsPath = pluginDescriptor.getPluginResourcesPath("vmware-metrics.html");
 
     authInterceptor.addPathBasedPermissionsChecker(myHtmlPath, new VmwareEditProfilePermissionChecker());
     manager.registerController(myHtmlPath, this);
@@ -73,6 +75,10 @@ public class VMWareEditProfileController extends BaseFormXmlController {
 
     authInterceptor.addPathBasedPermissionsChecker(myConfigHelperPath, new VmwareEditProfilePermissionChecker());
     manager.registerController(myConfigHelperPath, new ConfigurationHelperController(mySslTrustStoreProvider));
+
+    // metrics are collected for all profiles, so they require a global permission
+    authInterceptor.addPathBasedPermissionsChecker(myMetricsPath, new VmwareMetricsPermissionChecker());
+    manager.registerController(myMetricsPath, new VmwareMetricsController());
   }
 
   @Override
@@ -214,4 +220,13 @@ public class VMWareEditProfileController extends BaseFormXmlController {
       securityContext.getAccessChecker().checkHasPermissionsForProject(project.getProjectId(), Permission.MANAGE_AGENT_CLOUDS);
     }
   }
-}
\ No newline at end of file
+
+  private static class VmwareMetricsPermissionChecker implements RequestPermissionsCheckerEx{
+
+    @Override
+    public void checkPermissions(@NotNull SecurityContextEx securityContext, @NotNull HttpServletRequest request)
+      throws AccessDeniedException{
+      securityContext.getAccessChecker().checkHasGlobalPermission(Permission.VIEW_SERVER_SETTINGS);
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package jetbrains.buildServer.clouds.vmware.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
+import jetbrains.buildServer.controllers.BaseController;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Writes {@link CloudMetrics} in the Prometheus text format
+ */
+public class VmwareMetricsController extends BaseController {
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    final StringBuilder sb = new StringBuilder();
+    CloudMetrics.getInstance().writeTo(sb);
+    response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+    response.getWriter().write(sb.toString());
+    return null;
+  }
+}
@@ -6,11 +6,12 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
     var START_STOP = 'START_STOP',
         FRESH_CLONE = 'FRESH_CLONE',
         ON_DEMAND_CLONE = 'ON_DEMAND_CLONE',
+        INSTANT_CLONE = 'INSTANT_CLONE',
         CURRENT_STATE = '__CURRENT_STATE__',
         LATEST_SNAPSHOT='*';
 
     return {
-        _dataKeys: [ 'sourceVmName', 'snapshot', 'folder', 'pool', 'maxInstances', 'nickname'],
+        _dataKeys: [ 'sourceVmName', 'snapshot', 'folder', 'pool', 'maxInstances', 'nickname', 'warmPoolSize'],
         selectors: {
             imagesSelect: '#image',
             behaviourSwitch: '.behaviour__switch',
@@ -44,6 +45,7 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
             this.$cloneFolder = $j('#cloneFolder');
             this.$resourcePool = $j('#resourcePool');
             this.$maxInstances = $j('#maxInstances');
+            this.$warmPoolSize = $j('#warmPoolSize');
             this.$agentPool = $j("#agent_pool_id");
             this.$nickname = $j("#nickname");
             this.$cloneOptions = $j(this.selectors.cloneOptionsRow);
@@ -450,7 +452,8 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
             this.$behaviour.on('change', function (e, value) {
                 var startStop = $j('#cloneBehaviour_' + START_STOP),
                     freshClone = $j('#cloneBehaviour_' + FRESH_CLONE),
-                    onDemandClone = $j('#cloneBehaviour_' + ON_DEMAND_CLONE);
+                    onDemandClone = $j('#cloneBehaviour_' + ON_DEMAND_CLONE),
+                    instantClone = $j('#cloneBehaviour_' + INSTANT_CLONE);
 
                 if (arguments.length === 1) {
                     if (startStop.is(':checked')) {
@@ -459,6 +462,8 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
                         this._image.behaviour = freshClone.val();
                     } else if (onDemandClone.is(':checked')){
                         this._image.behaviour = onDemandClone.val();
+                    } else if (instantClone.is(':checked')){
+                        this._image.behaviour = instantClone.val();
                     }
                 } else {
                     $j(this.selectors.behaviourSwitch).prop('checked', false);
@@ -529,6 +534,14 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
                 }
                 this.validateOptions(e.target.getAttribute('data-id'));
             }.bind(this));
+            this.$warmPoolSize.on('change', function (e, value) {
+                if (arguments.length === 1) {
+                    this._image.warmPoolSize = this.$warmPoolSize.val();
+                } else {
+                    this.$warmPoolSize.val(value);
+                }
+                this.validateOptions(e.target.getAttribute('data-id'));
+            }.bind(this));
             this.$nickname.on('change', function (e, value) {
                 if (arguments.length === 1) {
                     this._image.nickname = this.$nickname.val();
@@ -583,6 +596,10 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
                     delete this._image.maxInstances;
                 }
 
+                if (this._image.behaviour !== FRESH_CLONE || ! this._image.warmPoolSize) {
+                    delete this._image.warmPoolSize;
+                }
+
                 if (this.$addImageButton.val().toLowerCase() === 'save') {
                     this.editImage(this.$addImageButton.data('image-id'));
                 } else {
@@ -606,6 +623,7 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
             behaviourTexts[START_STOP] = 'Start/Stop';
             behaviourTexts[ON_DEMAND_CLONE] = 'Clone';
             behaviourTexts[FRESH_CLONE] = 'Clone; Delete';
+            behaviourTexts[INSTANT_CLONE] = 'Instant Clone; Delete';
 
             if (props.snapshot === CURRENT_STATE) {
                 $row.find('.snapshot').text('"Current state"');
@@ -761,12 +779,14 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
         <input type="hidden" class="pool">\
         <input type="hidden" class="behaviour">\
         <input type="hidden" class="maxInstances">\
+        <input type="hidden" class="warmPoolSize">\
                      </div>')
         ,
         _errors: {
             badParam: 'Bad parameter',
             required: 'This field cannot be blank',
             templateStart: 'The Start/Stop behaviour cannot be selected for templates',
+            templateInstantClone: 'The Instant Clone behaviour cannot be selected for templates',
             nonNegative: 'Must be non-negative number',
             noAccessPool: 'You do not have the privilege "Resource > Assign virtual machine to resource pool" on the selected host/resource pool.',
             noAccessFolder: 'You do not have the privilege "Create from existing virtual machine" on the selected Folder/Datacenter',
@@ -775,6 +795,7 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
         },
         validateOptions: function (options) {
             var maxInstances = this._image.maxInstances,
+                warmPoolSize = this._image.warmPoolSize,
                 isValid = true,
                 validators = {
                     sourceVmName: function () {
@@ -791,6 +812,10 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
                                     this.addOptionError('templateStart', 'behaviour');
                                     isValid = false;
                                 }
+                                if (this._isTemplate($machine) && this._image.behaviour === INSTANT_CLONE) {
+                                    this.addOptionError('templateInstantClone', 'behaviour');
+                                    isValid = false;
+                                }
                             }
                         }
                     }.bind(this),
@@ -824,6 +849,12 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
                             isValid = false;
                         }
                     }.bind(this),
+                    warmPoolSize: function () {
+                        if (this._image.behaviour === FRESH_CLONE && warmPoolSize && (! $j.isNumeric(warmPoolSize) || warmPoolSize < 0)) {
+                            this.addOptionError('nonNegative', 'warmPoolSize');
+                            isValid = false;
+                        }
+                    }.bind(this),
 
                     nickname: function() {
                         Object.keys(this.imagesData).forEach(function(imageId){
@@ -891,6 +922,10 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
                     return updateIcon(imageId, 'error', this._errors.templateStart);
                 }
 
+                if (this._isTemplate($machine) && this.imagesData[imageId].behaviour === INSTANT_CLONE) {
+                    return updateIcon(imageId, 'error', this._errors.templateInstantClone);
+                }
+
                 if (! machine.behaviour || (machine.behaviour !== START_STOP && ! machine.maxInstances)) {
                     return updateIcon(imageId, 'error', this._errors.badParam);
                 }
@@ -937,6 +972,7 @@ BS.Clouds.VMWareVSphere = BS.Clouds.VMWareVSphere || (function () {
             BS.enableJQueryDropDownFilter(this.$cloneFolder.attr('id'), {});
 
             this.$maxInstances.trigger('change', image.maxInstances || '');
+            this.$warmPoolSize.trigger('change', image.warmPoolSize || '');
             this.$nickname.trigger('change', image.nickname || '');
         },
         _initImage: function () {
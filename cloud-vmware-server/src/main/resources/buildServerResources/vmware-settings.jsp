@@ -132,6 +132,11 @@
                       <label for="cloneBehaviour_ON_DEMAND_CLONE">Clone the selected Virtual Machine or Template, preserve the clone after stopping</label>
                       <div class="grayNote">The clones will be reused</div>
                   </div>
+                  <div>
+                      <input type="radio" id="cloneBehaviour_INSTANT_CLONE" name="cloneBehaviour" value="INSTANT_CLONE" class="behaviour__switch"/>
+                      <label for="cloneBehaviour_INSTANT_CLONE">Instant clone the selected running Virtual Machine before starting</label>
+                      <div class="grayNote">Requires vSphere 6.7 or later. The snapshot is ignored, the clones will be deleted after stopping</div>
+                  </div>
                   <div>
                     <input type="radio" id="cloneBehaviour_START_STOP" name="cloneBehaviour" value="START_STOP" class="behaviour__switch behaviour__switch_radio"/>
                     <label for="cloneBehaviour_START_STOP">Start the selected Virtual Machine</label>
@@ -181,6 +186,16 @@
                     <span class="error option-error option-error_maxInstances"></span>
                 </td>
             </tr>
+            <tr class="hidden cloneOptionsRow advancedSetting">
+                <th>Warm pool size:</th>
+                <td>
+                    <div>
+                        <input type="text" id="warmPoolSize" value="" class="longField" data-id="warmPoolSize" data-err-id="warmPoolSize"/>
+                    </div>
+                    <span class="smallNote">Number of powered off clones kept ready for the next start. Applies to "Clone; Delete" images</span>
+                    <span class="error option-error option-error_warmPoolSize"></span>
+                </td>
+            </tr>
             <tr class="advancedSetting">
               <th><label for="${cloudWebCons.agentPoolIdField}">Agent pool:</label></th>
               <td>
@@ -0,0 +1,49 @@
+package jetbrains.buildServer.clouds.base;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.base.tasks.AdaptiveUpdateSchedule;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class AdaptiveUpdateScheduleTest extends BaseTestCase {
+
+  private AdaptiveUpdateSchedule mySchedule;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(AdaptiveUpdateSchedule.MIN_DELAY_PROPERTY, "5000");
+    setInternalProperty(AdaptiveUpdateSchedule.MAX_DELAY_PROPERTY, "300000");
+    mySchedule = new AdaptiveUpdateSchedule("profile", 60 * 1000);
+  }
+
+  public void backoff_when_idle() {
+    assertEquals(120 * 1000, mySchedule.nextDelay(false));
+    assertEquals(240 * 1000, mySchedule.nextDelay(false));
+    assertEquals(300 * 1000, mySchedule.nextDelay(false));
+    assertEquals(300 * 1000, mySchedule.nextDelay(false));
+    assertFalse(mySchedule.isActive());
+  }
+
+  public void short_delay_while_active() {
+    mySchedule.nextDelay(false);
+    assertEquals(5000, mySchedule.nextDelay(true));
+    assertEquals(5000, mySchedule.nextDelay(true));
+    assertTrue(mySchedule.isActive());
+
+    // back to regular delay, then backoff again
+    assertEquals(60 * 1000, mySchedule.nextDelay(false));
+    assertEquals(120 * 1000, mySchedule.nextDelay(false));
+    assertEquals(120 * 1000, mySchedule.getCurrentDelay());
+  }
+
+  public void regular_delay_bounds_the_limits() {
+    final AdaptiveUpdateSchedule schedule = new AdaptiveUpdateSchedule("profile", 1000);
+    assertEquals(1000, schedule.nextDelay(true));
+    setInternalProperty(AdaptiveUpdateSchedule.MAX_DELAY_PROPERTY, "500");
+    assertEquals(1000, schedule.nextDelay(false));
+    assertEquals(1000, schedule.nextDelay(false));
+  }
+}
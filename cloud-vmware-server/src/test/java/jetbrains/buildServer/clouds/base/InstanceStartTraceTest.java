@@ -0,0 +1,40 @@
+package jetbrains.buildServer.clouds.base;
+
+import java.util.Map;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
+import org.testng.annotations.Test;
+
+@Test
+public class InstanceStartTraceTest extends BaseTestCase {
+
+  public void phases_follow_each_other() {
+    final InstanceStartTrace trace = new InstanceStartTrace(1000);
+    trace.mark(InstanceStartTrace.SCHEDULING, 1500);
+    trace.mark(InstanceStartTrace.SOURCE_RESOLUTION, 1700);
+    trace.addPhase("clone", 2000, 12000);
+    trace.mark(InstanceStartTrace.GUEST_IP, 30000);
+    trace.mark(InstanceStartTrace.GUEST_IP, 31000);
+
+    final Map<String, Long> phases = trace.getPhases();
+    assertEquals(500L, phases.get(InstanceStartTrace.SCHEDULING).longValue());
+    assertEquals(200L, phases.get(InstanceStartTrace.SOURCE_RESOLUTION).longValue());
+    assertEquals(10000L, phases.get("clone").longValue());
+    assertEquals(18000L, phases.get(InstanceStartTrace.GUEST_IP).longValue());
+  }
+
+  public void publish_phases_per_image() {
+    final String imageId = "trace-test-image";
+    for (int i = 1; i <= 10; i++) {
+      final InstanceStartTrace trace = new InstanceStartTrace(0);
+      trace.addPhase("clone", 0, i * 1000);
+      trace.finish("vm-" + i, imageId, i * 1000 + 100);
+    }
+    final CloudMetrics metrics = CloudMetrics.getInstance();
+    assertEquals(5000, metrics.getQuantile(CloudMetrics.START_PHASE, 0.5, "image", imageId, "phase", "clone"));
+    assertEquals(10000, metrics.getQuantile(CloudMetrics.START_PHASE, 0.99, "image", imageId, "phase", "clone"));
+    assertEquals(100, metrics.getQuantile(CloudMetrics.START_PHASE, 0.9, "image", imageId, "phase", InstanceStartTrace.AGENT_REGISTRATION));
+    assertEquals(9100, metrics.getQuantile(CloudMetrics.START_PHASE, 0.9, "image", imageId, "phase", InstanceStartTrace.TOTAL));
+    assertEquals(-1, metrics.getQuantile(CloudMetrics.START_PHASE, 0.9, "image", "another-image", "phase", "clone"));
+  }
+}
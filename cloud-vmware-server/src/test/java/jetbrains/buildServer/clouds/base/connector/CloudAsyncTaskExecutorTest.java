@@ -2,6 +2,7 @@
 
 package jetbrains.buildServer.clouds.base.connector;
 
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import jetbrains.buildServer.BaseTestCase;
@@ -19,6 +20,7 @@ import org.testng.annotations.Test;
 public class CloudAsyncTaskExecutorTest extends BaseTestCase {
 
   private CloudAsyncTaskExecutor myCloudAsyncTaskExecutor;
+  private final List<CloudAsyncTaskExecutor> myExecutors = new ArrayList<>();
 
   @BeforeMethod
   @Override
@@ -46,6 +48,97 @@ public class CloudAsyncTaskExecutorTest extends BaseTestCase {
     assertTrue(latch.await(2, TimeUnit.SECONDS));
   }
 
+  public void higher_priority_lane_goes_first() throws Exception {
+    final CloudAsyncTaskExecutor executor = createSingleThreadExecutor();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    executor.submit(CloudTaskLane.STOP, "blocker", () -> await(blocked, release));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    final List<String> order = Collections.synchronizedList(new ArrayList<>());
+    final Future<?> housekeeping = executor.submit(CloudTaskLane.HOUSEKEEPING, "housekeeping", () -> order.add("housekeeping"));
+    final Future<?> delete = executor.submit(CloudTaskLane.DELETE, "delete", () -> order.add("delete"));
+    final Future<?> start = executor.submit(CloudTaskLane.START, "start", () -> order.add("start"));
+    release.countDown();
+    housekeeping.get(5, TimeUnit.SECONDS);
+    delete.get(5, TimeUnit.SECONDS);
+    start.get(5, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("start", "delete", "housekeeping"), order);
+  }
+
+  public void respect_lane_concurrency_limit() throws Exception {
+    // 2 threads, only one of them can be used for deletes
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch firstDeleteStarted = new CountDownLatch(1);
+    final CountDownLatch secondDeleteStarted = new CountDownLatch(1);
+    myCloudAsyncTaskExecutor.submit(CloudTaskLane.DELETE, "delete 1", () -> await(firstDeleteStarted, release));
+    myCloudAsyncTaskExecutor.submit(CloudTaskLane.DELETE, "delete 2", () -> await(secondDeleteStarted, release));
+    assertTrue(firstDeleteStarted.await(5, TimeUnit.SECONDS));
+
+    myCloudAsyncTaskExecutor.submit(CloudTaskLane.START, "start", () -> {}).get(5, TimeUnit.SECONDS);
+    assertEquals(1, secondDeleteStarted.getCount());
+
+    release.countDown();
+    assertTrue(secondDeleteStarted.await(5, TimeUnit.SECONDS));
+  }
+
+  public void saturated_start_lane() throws Exception {
+    setInternalProperty("teamcity.vmware.profile.async.lane.start.queue.size", "1");
+    final CloudAsyncTaskExecutor executor = createSingleThreadExecutor();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    executor.submit(CloudTaskLane.START, "start 1", () -> await(blocked, release));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    assertFalse(executor.isSaturated(CloudTaskLane.START));
+
+    final Future<?> queued = executor.submit(CloudTaskLane.START, "start 2", () -> {});
+    assertTrue(executor.isSaturated(CloudTaskLane.START));
+    assertFalse(executor.isSaturated(CloudTaskLane.STOP));
+
+    release.countDown();
+    queued.get(5, TimeUnit.SECONDS);
+    assertFalse(executor.isSaturated(CloudTaskLane.START));
+  }
+
+  public void run_blocking_tasks_on_virtual_threads() throws Exception {
+    setInternalProperty(CloudAsyncTaskExecutor.VIRTUAL_THREADS_PROPERTY, "true");
+    final CloudAsyncTaskExecutor executor = new CloudAsyncTaskExecutor("Virtual threads executor");
+    myExecutors.add(executor);
+    final int count = isVirtualThreadsSupported() ? 200 : 2; // falls back to the platform threads on older JVMs
+    final CountDownLatch started = new CountDownLatch(count);
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < count; i++) {
+      executor.submit(CloudTaskLane.START, "task " + i, () -> await(started, release));
+    }
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  private static boolean isVirtualThreadsSupported() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  @NotNull
+  private CloudAsyncTaskExecutor createSingleThreadExecutor() {
+    setInternalProperty("teamcity.vmware.profile.async.threads", "1");
+    final CloudAsyncTaskExecutor executor = new CloudAsyncTaskExecutor("Single thread executor");
+    myExecutors.add(executor);
+    return executor;
+  }
+
+  private static void await(@NotNull final CountDownLatch started, @NotNull final CountDownLatch release) {
+    started.countDown();
+    try {
+      release.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ignored) {
+    }
+  }
+
   private static class MyAsyncCloudTask implements AsyncCloudTask {
 
     private String myName;
@@ -119,6 +212,8 @@ public class CloudAsyncTaskExecutorTest extends BaseTestCase {
   @Override
   protected void tearDown() throws Exception {
     myCloudAsyncTaskExecutor.dispose();
+    myExecutors.forEach(CloudAsyncTaskExecutor::dispose);
+    myExecutors.clear();
     super.tearDown();
   }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package jetbrains.buildServer.clouds.base.connector;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class CloudMetricsTest extends BaseTestCase {
+
+  private CloudMetrics myMetrics;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myMetrics = new CloudMetrics();
+  }
+
+  public void histogram_buckets_are_cumulative() {
+    myMetrics.recordTime("op_ms", 5, "operation", "clone");
+    myMetrics.recordTime("op_ms", 70, "operation", "clone");
+    myMetrics.recordTime("op_ms", 1000000, "operation", "clone");
+    myMetrics.recordTime("op_ms", 20, "operation", "destroy");
+    assertEquals(3, myMetrics.getCount("op_ms", "operation", "clone"));
+
+    final String text = write();
+    assertEquals(1, countOccurrences(text, "# TYPE op_ms histogram"));
+    assertWritten(text, "op_ms_bucket{operation=\"clone\",le=\"10\"} 1\n");
+    assertWritten(text, "op_ms_bucket{operation=\"clone\",le=\"50\"} 1\n");
+    assertWritten(text, "op_ms_bucket{operation=\"clone\",le=\"100\"} 2\n");
+    assertWritten(text, "op_ms_bucket{operation=\"clone\",le=\"+Inf\"} 3\n");
+    assertWritten(text, "op_ms_sum{operation=\"clone\"} 1000075\n");
+    assertWritten(text, "op_ms_count{operation=\"clone\"} 3\n");
+    assertWritten(text, "op_ms_count{operation=\"destroy\"} 1\n");
+  }
+
+  public void counters_and_gauges() {
+    myMetrics.increment("errors_total", "type", "Quoted \"type\"");
+    myMetrics.increment("errors_total", "type", "Quoted \"type\"");
+    final AtomicInteger queue = new AtomicInteger(3);
+    myMetrics.registerGauge("queue_size", queue::get, "executor", "profile-1");
+
+    String text = write();
+    assertWritten(text, "# TYPE errors_total counter\n");
+    assertWritten(text, "errors_total{type=\"Quoted \\\"type\\\"\"} 2\n");
+    assertWritten(text, "queue_size{executor=\"profile-1\"} 3\n");
+
+    queue.set(5);
+    assertWritten(write(), "queue_size{executor=\"profile-1\"} 5\n");
+
+    myMetrics.unregisterGauge("queue_size", "executor", "profile-1");
+    assertFalse(write().contains("queue_size"));
+  }
+
+  public void summary_keeps_recent_samples() {
+    assertEquals(-1, myMetrics.getQuantile("start_ms", 0.5, "image", "img"));
+    for (int i = 1; i <= 300; i++) {
+      myMetrics.recordSample("start_ms", i, "image", "img");
+    }
+    // only the last 256 samples (45..300) are used for quantiles
+    assertEquals(172, myMetrics.getQuantile("start_ms", 0.5, "image", "img"));
+    assertEquals(298, myMetrics.getQuantile("start_ms", 0.99, "image", "img"));
+
+    final String text = write();
+    assertWritten(text, "# TYPE start_ms summary\n");
+    assertWritten(text, "start_ms{image=\"img\",quantile=\"0.5\"} 172\n");
+    assertWritten(text, "start_ms_count{image=\"img\"} 300\n");
+    assertWritten(text, "start_ms_sum{image=\"img\"} 45150\n");
+  }
+
+  public void limit_number_of_series() {
+    for (int i = 0; i < 2000; i++) {
+      myMetrics.increment("errors_total", "type", "error " + i);
+    }
+    assertEquals(1, myMetrics.getCount("errors_total", "type", "error 0"));
+    assertEquals(0, myMetrics.getCount("errors_total", "type", "error 1999"));
+  }
+
+  private String write() {
+    final StringBuilder sb = new StringBuilder();
+    myMetrics.writeTo(sb);
+    return sb.toString();
+  }
+
+  private static void assertWritten(final String text, final String line) {
+    assertTrue(line + " is not found in\n" + text, text.contains(line));
+  }
+
+  private static int countOccurrences(final String text, final String substring) {
+    int count = 0;
+    for (int idx = text.indexOf(substring); idx >= 0; idx = text.indexOf(substring, idx + 1)) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,36 @@
+package jetbrains.buildServer.clouds.base.errors;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.base.connector.CloudMetrics;
+import org.testng.annotations.Test;
+
+@Test
+public class CloudErrorMapTest extends BaseTestCase {
+
+  public void count_only_new_error_types() {
+    final String prefix = getClass().getName() + System.nanoTime();
+    final CloudErrorMap errorMap = new CloudErrorMap(SimpleErrorMessages.getInstance());
+
+    errorMap.updateErrors(new TypedCloudErrorInfo(prefix + "-a", "error a"));
+    errorMap.updateErrors(new TypedCloudErrorInfo(prefix + "-a", "error a"),
+                          new TypedCloudErrorInfo(prefix + "-b", "error b"));
+    errorMap.updateErrors(new TypedCloudErrorInfo(prefix + "-a", "error a"),
+                          new TypedCloudErrorInfo(prefix + "-b", "error b"));
+    assertErrorCount(prefix + "-a", 1);
+    assertErrorCount(prefix + "-b", 1);
+
+    // the error is counted again once it reappears
+    errorMap.updateErrors();
+    assertNull(errorMap.getErrorInfo());
+    errorMap.updateErrors(new TypedCloudErrorInfo(prefix + "-a", "error a"));
+    assertErrorCount(prefix + "-a", 2);
+    assertErrorCount(prefix + "-b", 1);
+  }
+
+  private static void assertErrorCount(final String type, final int count) {
+    final StringBuilder sb = new StringBuilder();
+    CloudMetrics.getInstance().writeTo(sb);
+    final String line = CloudMetrics.ERRORS + "{type=\"" + type + "\"} " + count + "\n";
+    assertTrue(line + " is not found in\n" + sb, sb.toString().contains(line));
+  }
+}
@@ -41,6 +41,7 @@ import jetbrains.buildServer.clouds.vmware.stubs.FakeVirtualMachine;
 import jetbrains.buildServer.clouds.vmware.tasks.VmwarePooledUpdateInstanceTask;
 import jetbrains.buildServer.clouds.vmware.tasks.VmwareUpdateTaskManager;
 import jetbrains.buildServer.clouds.vmware.web.VMWareWebConstants;
+import jetbrains.buildServer.serverSide.AgentDescription;
 import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.ServerResponsibility;
 import jetbrains.buildServer.serverSide.ServerResponsibilityImpl;
@@ -60,6 +61,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import static jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_VM_ID;
+import static jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnector.TEAMCITY_VMWARE_WARM_POOL;
 
 
 /**
@@ -532,6 +534,227 @@ public class VmwareCloudIntegrationTest extends BaseTestCase {
     startNewInstanceAndCheck("image_template", new HashMap<>(), false);
   }
 
+  public void hand_out_warm_pool_vm_and_refill_pool() throws Exception {
+    setInternalProperty("teamcity.vmware.warm.pool.refill.delay", "100");
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE', warmPoolSize:2}]"));
+    recreateClient();
+    final VmwareCloudImage image = getImageByName("image_template");
+    new WaitFor(5*1000){
+      @Override
+      protected boolean condition() {
+        return image.getWarmPoolVmNames().size() == 2;
+      }
+    }.assertCompleted("Warm pool must be filled");
+    final Set<String> warmPoolVms = new HashSet<>(image.getWarmPoolVmNames());
+    for (String vmName : warmPoolVms) {
+      final FakeVirtualMachine vm = FakeModel.instance().getVirtualMachine(vmName);
+      assertEquals(VirtualMachinePowerState.poweredOff, vm.getRuntime().getPowerState());
+      assertEquals("true", getExtraConfigValue(vm.getConfig().getExtraConfig(), TEAMCITY_VMWARE_WARM_POOL));
+    }
+    // pool members are not considered as image instances
+    assertEquals(0, image.getInstances().size());
+
+    final VmwareCloudInstance instance = startNewInstanceAndWait("image_template");
+    assertContains(warmPoolVms, instance.getName());
+    final FakeVirtualMachine startedVm = FakeModel.instance().getVirtualMachine(instance.getName());
+    assertEquals(VirtualMachinePowerState.poweredOn, startedVm.getRuntime().getPowerState());
+    assertEquals("", getExtraConfigValue(startedVm.getConfig().getExtraConfig(), TEAMCITY_VMWARE_WARM_POOL));
+
+    new WaitFor(5*1000){
+      @Override
+      protected boolean condition() {
+        return image.getWarmPoolVmNames().size() == 2 && !image.getWarmPoolVmNames().contains(instance.getName());
+      }
+    }.assertCompleted("Warm pool must be refilled");
+  }
+
+  public void do_not_mark_instances_outside_warm_pool() throws Exception {
+    final VmwareCloudInstance instance = startNewInstanceAndWait("image1");
+    final FakeVirtualMachine vm = FakeModel.instance().getVirtualMachine(instance.getName());
+    assertNull(getExtraConfigValue(vm.getConfig().getExtraConfig(), TEAMCITY_VMWARE_WARM_POOL));
+  }
+
+  public void finish_start_trace_on_agent_registration() throws Exception {
+    final VmwareCloudInstance instance = startNewInstanceAndWait("image_template");
+    assertNotNull(instance.getStartTrace());
+    final Mockery m = new Mockery();
+    final AgentDescription agent = m.mock(AgentDescription.class);
+    m.checking(new Expectations(){{
+      allowing(agent).getAvailableParameterValue(VMWarePropertiesNames.IMAGE_NAME); will(returnValue("image_template"));
+      allowing(agent).getAvailableParameterValue(VMWarePropertiesNames.INSTANCE_NAME); will(returnValue(instance.getName()));
+    }});
+
+    // looking the instance up doesn't mean the agent is registered
+    assertSame(instance, myClient.findInstanceByAgent(agent));
+    assertNotNull(instance.getStartTrace());
+
+    myClient.agentRegistered(agent);
+    assertNull(instance.getStartTrace());
+  }
+
+  public void count_warm_pool_vms_in_instances_limit() throws Exception {
+    setInternalProperty("teamcity.vmware.warm.pool.refill.delay", "100");
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:2,behaviour:'FRESH_CLONE', warmPoolSize:2}]"));
+    recreateClient();
+    final VmwareCloudImage image = getImageByName("image_template");
+    waitForWarmPoolVms(2);
+
+    startNewInstanceAndWait("image_template");
+    Thread.sleep(500);
+    // the pool isn't refilled, a running instance and a pool VM already reach the limit
+    assertEquals(1, image.getWarmPoolVmNames().size());
+    assertEquals(1, getWarmPoolVms().size());
+    assertTrue(image.canStartNewInstance());
+
+    startNewInstanceAndWait("image_template");
+    Thread.sleep(500);
+    assertEquals(0, getWarmPoolVms().size());
+    assertFalse(image.canStartNewInstance());
+  }
+
+  public void delete_surplus_warm_pool_vms_when_pool_shrinks() throws Exception {
+    setInternalProperty("teamcity.vmware.warm.pool.refill.delay", "100");
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE', warmPoolSize:3}]"));
+    recreateClient();
+    waitForWarmPoolVms(3);
+
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE', warmPoolSize:1}]"));
+    recreateClient();
+    final VmwareCloudImage image = getImageByName("image_template");
+    waitForWarmPoolVms(1);
+    Thread.sleep(500);
+    assertEquals(1, getWarmPoolVms().size());
+    assertEquals(getWarmPoolVms(), image.getWarmPoolVmNames());
+  }
+
+  public void delete_warm_pool_vms_when_pool_is_removed() throws Exception {
+    setInternalProperty("teamcity.vmware.warm.pool.refill.delay", "100");
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE', warmPoolSize:2}]"));
+    recreateClient();
+    waitForWarmPoolVms(2);
+
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE'}]"));
+    recreateClient();
+    waitForWarmPoolVms(0);
+    Thread.sleep(500);
+    assertEquals(0, getWarmPoolVms().size());
+
+    // pools of a removed profile are deleted when its client is disposed
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE', warmPoolSize:2}]"));
+    recreateClient();
+    waitForWarmPoolVms(2);
+    myClient.deleteWarmPools(Collections.emptySet());
+    assertEquals(0, getWarmPoolVms().size());
+    myClient.dispose();
+    myClient = null;
+  }
+
+  public void take_over_warm_pool_on_profile_reload() throws Exception {
+    setInternalProperty("teamcity.vmware.warm.pool.refill.delay", "100");
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_template', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'FRESH_CLONE', warmPoolSize:2}]"));
+    recreateClient();
+    waitForWarmPoolVms(2);
+    final Set<String> warmPoolVms = getWarmPoolVms();
+
+    recreateClient();
+    new WaitFor(5*1000){
+      @Override
+      protected boolean condition() {
+        return myClient.findImageById("image_template").getWarmPoolVmNames().size() == 2;
+      }
+    }.assertCompleted("Warm pool VMs should be taken over by the new client");
+    Thread.sleep(500);
+    assertEquals(warmPoolVms, getWarmPoolVms());
+
+    assertEquals(Collections.singleton("image_template"), VMWareCloudClientFactory.getWarmPoolImages(myProfile));
+    assertEquals(0, VMWareCloudClientFactory.getWarmPoolImages(null).size());
+  }
+
+  private static void waitForWarmPoolVms(final int count) {
+    new WaitFor(5*1000){
+      @Override
+      protected boolean condition() {
+        return getWarmPoolVms().size() == count;
+      }
+    }.assertCompleted("Expected " + count + " warm pool VMs, but were: " + getWarmPoolVms());
+  }
+
+  @NotNull
+  private static Set<String> getWarmPoolVms() {
+    return FakeModel.instance().getVms().values().stream()
+                    .filter(vm -> vm.getConfig() != null && "true".equals(getExtraConfigValue(vm.getConfig().getExtraConfig(), TEAMCITY_VMWARE_WARM_POOL)))
+                    .map(FakeVirtualMachine::getName)
+                    .collect(Collectors.toSet());
+  }
+
+  public void instant_clone_running_vm_without_reconfiguration() throws Exception {
+    FakeModel.instance().addVM("image_running", true).setParentFolder("cf");
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image_running', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'INSTANT_CLONE'}]"));
+    recreateClient();
+
+    final VmwareCloudInstance instance = startNewInstanceAndWait("image_running");
+    assertEquals("image_running-1", instance.getName());
+    final FakeVirtualMachine vm = FakeModel.instance().getVirtualMachine(instance.getName());
+    assertNotNull(vm);
+    assertEquals(VirtualMachinePowerState.poweredOn, vm.getRuntime().getPowerState());
+    final OptionValue[] extraConfig = vm.getConfig().getExtraConfig();
+    assertEquals("true", getExtraConfigValue(extraConfig, VMWareApiConnector.TEAMCITY_VMWARE_CLONED_INSTANCE));
+    assertEquals("image_running", getExtraConfigValue(extraConfig, VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_VM_NAME));
+    assertEquals(instance.getName(), getExtraConfigValue(extraConfig, VMWarePropertiesNames.AGENT_NAME));
+    assertEquals(instance.getInstanceId(), getExtraConfigValue(extraConfig, VMWarePropertiesNames.INSTANCE_NAME));
+    assertNotNull(getExtraConfigValue(extraConfig, VMWarePropertiesNames.USER_DATA));
+
+    final AtomicBoolean instantCloned = new AtomicBoolean(false);
+    FakeModel.instance().getEvents().forEach(event -> {
+      if (event.first.equals("image_running") && event.second.equals("instantClone_Task")) {
+        instantCloned.set(true);
+      }
+      assertFalse("Instant clone must not be reconfigured", event.first.equals(instance.getName()) && event.second.equals("reconfigVM_Task"));
+    });
+    assertTrue(instantCloned.get());
+
+    terminateAndDeleteIfNecessary(true, instance);
+  }
+
+  public void put_guest_info_into_clone_spec() throws Exception {
+    setInternalProperty(VmwareConstants.GUEST_INFO_IN_CLONE_SPEC, "true");
+    final VmwareCloudInstance instance = startNewInstanceAndWait("image_template");
+    final FakeVirtualMachine vm = FakeModel.instance().getVirtualMachine(instance.getName());
+    assertNotNull(vm);
+    final OptionValue[] extraConfig = vm.getConfig().getExtraConfig();
+    assertEquals("true", getExtraConfigValue(extraConfig, VMWareApiConnector.TEAMCITY_VMWARE_CLONED_INSTANCE));
+    assertEquals(instance.getName(), getExtraConfigValue(extraConfig, VMWarePropertiesNames.AGENT_NAME));
+    assertEquals(instance.getInstanceId(), getExtraConfigValue(extraConfig, VMWarePropertiesNames.INSTANCE_NAME));
+    assertNotNull(getExtraConfigValue(extraConfig, VMWarePropertiesNames.USER_DATA));
+
+    FakeModel.instance().getEvents().forEach(event -> {
+      assertFalse("Clone must not be reconfigured", event.first.equals(instance.getName()) && event.second.equals("reconfigVM_Task"));
+    });
+  }
+
+  public void instant_clone_requires_running_vm() throws Exception {
+    updateClientParameters(VmwareTestUtils.getImageParameters(PROJECT_ID, "[{sourceVmName:'image2', snapshot:'" + VmwareConstants.CURRENT_STATE +
+                                                                          "', folder:'cf',pool:'rp',maxInstances:3,behaviour:'INSTANT_CLONE'}]"));
+    recreateClient();
+
+    final VmwareCloudImage image = getImageByName("image2");
+    new WaitFor(2*1000){
+      @Override
+      protected boolean condition() {
+        return image.getErrorInfo() != null;
+      }
+    }.assertCompleted("Image with stopped source VM must have an error");
+  }
+
   @Test(expectedExceptions = QuotaException.class, expectedExceptionsMessageRegExp = "Unable to start more instances of image image2")
   public void check_max_instances_count_on_profile_start() {
     startNewInstanceAndWait("image2");
@@ -231,6 +231,36 @@ public class VmwarePooledUpdateInstanceTaskTest extends BaseTestCase {
 
   }
 
+  public void check_operations_of_all_clients() {
+    final CloudClientParameters clientParameters1 = new CloudClientParametersImpl(
+      Collections.emptyMap(), VmwareTestUtils.getImageParameters(PROJECT_ID,"[{sourceVmName:'image1', behaviour:'START_STOP'}]"));
+    final VMWareCloudClient client1 = new MyClient(clientParameters1, null);
+
+    final CloudClientParameters clientParameters2 = new CloudClientParametersImpl(
+      Collections.emptyMap(), VmwareTestUtils.getImageParameters(PROJECT_ID,
+      "[{sourceVmName:'image2',snapshot:'snap*',folder:'cf',pool:'rp'," +
+      "maxInstances:3,behaviour:'ON_DEMAND_CLONE',customizationSpec:'someCustomization'}]"));
+    final AtomicBoolean client2Busy = new AtomicBoolean();
+    final VMWareCloudClient client2 = new MyClient(clientParameters2, null){
+      @Override
+      public boolean hasOperationsInProgress() {
+        return client2Busy.get();
+      }
+    };
+
+    final VmwareUpdateInstanceTask task1 = myTaskManager.createUpdateTask(myFakeApiConnector, client1);
+    final VmwareUpdateInstanceTask task2 = myTaskManager.createUpdateTask(myFakeApiConnector, client2);
+    assertFalse(task1.hasOperationsInProgress());
+
+    // the pooled task is run by the first client only, so it must see the operations of the second one
+    client2Busy.set(true);
+    assertTrue(task1.hasOperationsInProgress());
+    assertTrue(task2.hasOperationsInProgress());
+
+    client2.dispose();
+    assertFalse(task1.hasOperationsInProgress());
+  }
+
   public void concurrent_create_dispose() throws MalformedURLException {
     final CloudClientParameters clientParameters2 = new CloudClientParametersImpl(
       Collections.emptyMap(), VmwareTestUtils.getImageParameters(PROJECT_ID,
@@ -8,12 +8,20 @@ import com.vmware.vim25.mo.Datacenter;
 import com.vmware.vim25.mo.Folder;
 import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.VirtualMachine;
 import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.InstanceStatus;
+import jetbrains.buildServer.clouds.vmware.VMWarePropertiesNames;
+import jetbrains.buildServer.clouds.vmware.VmwareConstants;
 import jetbrains.buildServer.clouds.vmware.connector.beans.ResourcePoolBean;
 import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
 import org.jetbrains.annotations.NotNull;
@@ -22,6 +30,8 @@ import org.jmock.Mockery;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnector.*;
+
 /**
  * Created by sergeypak on 18/04/2017.
  */
@@ -43,15 +53,12 @@ public class VmwareApiConnectorTest extends BaseTestCase {
       @Override
       public Collection<VmwareInstance> findAllVirtualMachines() {
         final ArrayList<VmwareInstance> retval = new ArrayList<>();
-        final ManagedObjectReference parent = new ManagedObjectReference();
-        parent.setType("Folder");
-        parent.setVal("folder-40");
         retval.add(new VmwareInstance("VM1", "VM1", new OptionValue[0],
                                       VirtualMachinePowerState.poweredOff, false,
-                                      "changeVersion", null, null, parent, "datacenter-21"));
+                                      "changeVersion", null, null, "datacenter-21"));
         retval.add(new VmwareInstance("VM1", "VM1", new OptionValue[0],
                                       VirtualMachinePowerState.poweredOff, false,
-                                      "changeVersion", null, null, parent, "datacenter-21"));
+                                      "changeVersion", null, null, "datacenter-21"));
         return retval;
       }
     };
@@ -140,6 +147,538 @@ public class VmwareApiConnectorTest extends BaseTestCase {
   }
 
 
+  public void request_only_teamcity_extra_config_keys() throws Exception{
+    setInternalProperty(VmwareConstants.SELECTIVE_EXTRA_CONFIG, "true");
+    final List<String> requestedProperties = new ArrayList<>();
+    final VMWareApiConnector connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc = new Datacenter(null, null){
+        @Override
+        public ManagedObjectReference getMOR() {
+          ManagedObjectReference mor = new ManagedObjectReference();
+          mor.setType("Datacenter");
+          mor.setVal("datacenter-2");
+          return mor;
+        }
+      };
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        requestedProperties.addAll(Arrays.asList(typeinfo[0]));
+        final OptionValue nickname = new OptionValue();
+        nickname.setKey(TEAMCITY_VMWARE_IMAGE_SOURCE_ID);
+        nickname.setValue("myImage");
+        final OptionValue cloned = new OptionValue();
+        cloned.setKey(TEAMCITY_VMWARE_CLONED_INSTANCE);
+        cloned.setValue("true");
+        final OptionValue instanceName = new OptionValue();
+        instanceName.setKey(VMWarePropertiesNames.INSTANCE_NAME);
+        instanceName.setValue("myImage-1");
+        return new ObjectContent[]{
+          createObjectContent("VirtualMachine", "vm-1",
+                              Pair.create("name", "myImage-1"),
+                              Pair.create("config.extraConfig[\"" + TEAMCITY_VMWARE_IMAGE_SOURCE_ID + "\"]", nickname),
+                              Pair.create("config.extraConfig[\"" + TEAMCITY_VMWARE_CLONED_INSTANCE + "\"]", cloned),
+                              Pair.create("config.extraConfig[\"" + VMWarePropertiesNames.INSTANCE_NAME + "\"]", instanceName),
+                              Pair.create("config.template", false),
+                              Pair.create("config.changeVersion", "1"),
+                              Pair.create("runtime.powerState", VirtualMachinePowerState.poweredOn))
+        };
+      }
+    };
+
+    final List<VmwareInstance> vms = connector.getVirtualMachines(false);
+    assertEquals(1, vms.size());
+    assertEquals("myImage", vms.get(0).getImageName());
+    assertTrue(vms.get(0).isClone());
+    assertFalse(requestedProperties.contains("config.extraConfig"));
+    assertTrue(requestedProperties.contains("config.extraConfig[\"" + TEAMCITY_VMWARE_SERVER_UUID + "\"]"));
+    // guest info is returned the same way as with the whole extraConfig
+    assertTrue(requestedProperties.contains("config.extraConfig[\"" + VMWarePropertiesNames.USER_DATA + "\"]"));
+    assertEquals("myImage-1", vms.get(0).getProperty(VMWarePropertiesNames.INSTANCE_NAME));
+  }
+
+
+  public void keep_only_teamcity_and_guest_info_extra_config_keys() throws Exception{
+    final VMWareApiConnector connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc = createDatacenter("datacenter-2");
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+        extraConfig.setOptionValue(new OptionValue[]{
+          createOption("nvram", "myImage-1.nvram"),
+          createOption(TEAMCITY_VMWARE_IMAGE_SOURCE_ID, "myImage"),
+          createOption(TEAMCITY_VMWARE_CLONED_INSTANCE, "true"),
+          createOption("svga.present", "TRUE"),
+          createOption("guestinfo.tcAgentName", "agent-1")
+        });
+        final ManagedObjectReference parent = new ManagedObjectReference();
+        parent.setType("Folder");
+        parent.setVal("group-v3");
+        return new ObjectContent[]{
+          createObjectContent("VirtualMachine", "vm-1",
+                              Pair.create("name", "myImage-1"),
+                              Pair.create("config.extraConfig", extraConfig),
+                              Pair.create("config.template", false),
+                              Pair.create("config.changeVersion", "1"),
+                              Pair.create("runtime.powerState", VirtualMachinePowerState.poweredOn),
+                              Pair.create("runtime.bootTime", Calendar.getInstance()),
+                              Pair.create("guest.ipAddress", "10.0.0.1"),
+                              Pair.create("parent", parent)),
+          // incomplete property set is skipped
+          createObjectContent("VirtualMachine", "vm-2",
+                              Pair.create("name", "myImage-2"))
+        };
+      }
+    };
+
+    final List<VmwareInstance> vms = connector.getVirtualMachines(false);
+    assertEquals(1, vms.size());
+    final VmwareInstance vm = vms.get(0);
+    assertEquals("myImage-1", vm.getName());
+    assertEquals("myImage", vm.getImageName());
+    assertTrue(vm.isClone());
+    assertEquals("10.0.0.1", vm.getIpAddress());
+    assertNotNull(vm.getStartDate());
+    assertEquals("agent-1", vm.getProperty("guestinfo.tcAgentName"));
+    assertNull(vm.getProperty("nvram"));
+    assertEquals(3, vm.getProperties().size());
+  }
+
+  public void use_last_known_result_for_slow_datacenter() throws Exception{
+    setInternalProperty("teamcity.vmware.datacenter.fetch.timeout", "500");
+    final AtomicBoolean dc2Slow = new AtomicBoolean(false);
+    final VMWareApiConnector connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc1 = createDatacenter("datacenter-1");
+      private final Datacenter myDc2 = createDatacenter("datacenter-2");
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc1, (T)myDc2);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        final String dcId = dc.getMOR().getVal();
+        if (dc == myDc2 && dc2Slow.get()) {
+          try {
+            Thread.sleep(5000);
+          } catch (InterruptedException e) {
+            throw new RemoteException("interrupted", e);
+          }
+        }
+        final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+        extraConfig.setOptionValue(new OptionValue[0]);
+        return new ObjectContent[]{
+          createObjectContent("VirtualMachine", "vm-" + dcId,
+                              Pair.create("name", "vm-" + dcId),
+                              Pair.create("config.extraConfig", extraConfig),
+                              Pair.create("config.template", false),
+                              Pair.create("config.changeVersion", "1"),
+                              Pair.create("runtime.powerState", VirtualMachinePowerState.poweredOn))
+        };
+      }
+    };
+
+    assertEquals(2, connector.getVirtualMachines(false).size());
+
+    dc2Slow.set(true);
+    final long startTime = System.currentTimeMillis();
+    final List<String> names = connector.getVirtualMachines(false).stream().map(VmwareInstance::getName).collect(Collectors.toList());
+    assertTrue(System.currentTimeMillis() - startTime < 4000);
+    assertEquals(Arrays.asList("vm-datacenter-1", "vm-datacenter-2"), names);
+  }
+
+  public void use_last_known_result_for_failed_datacenter() throws Exception{
+    setInternalProperty("teamcity.vmware.datacenter.fetch.timeout", "500");
+    final AtomicReference<String> dc2Mode = new AtomicReference<>("ok");
+    final VMWareApiConnector connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc1 = createDatacenter("datacenter-1");
+      private final Datacenter myDc2 = createDatacenter("datacenter-2");
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc1, (T)myDc2);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        final String dcId = dc.getMOR().getVal();
+        if (dc == myDc2) {
+          if ("fail".equals(dc2Mode.get())) {
+            throw new RemoteException("datacenter is not available");
+          }
+          if ("slow".equals(dc2Mode.get())) {
+            try {
+              Thread.sleep(5000);
+            } catch (InterruptedException e) {
+              throw new RemoteException("interrupted", e);
+            }
+          }
+        }
+        final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+        extraConfig.setOptionValue(new OptionValue[0]);
+        return new ObjectContent[]{
+          createObjectContent("VirtualMachine", "vm-" + dcId,
+                              Pair.create("name", "vm-" + dcId),
+                              Pair.create("config.extraConfig", extraConfig),
+                              Pair.create("config.template", false),
+                              Pair.create("config.changeVersion", "1"),
+                              Pair.create("runtime.powerState", VirtualMachinePowerState.poweredOn))
+        };
+      }
+    };
+
+    dc2Mode.set("fail");
+    try {
+      connector.getVirtualMachines(false);
+      fail("Fetch should fail when there is no previous result for the failed datacenter");
+    } catch (VmwareCheckedCloudException ex) {
+      // expected
+    }
+
+    dc2Mode.set("ok");
+    assertEquals(2, connector.getVirtualMachines(false).size());
+
+    dc2Mode.set("fail");
+    assertEquals(Arrays.asList("vm-datacenter-1", "vm-datacenter-2"),
+                 connector.getVirtualMachines(false).stream().map(VmwareInstance::getName).collect(Collectors.toList()));
+
+    // the failed fetch must not replace the last known result
+    dc2Mode.set("slow");
+    assertEquals(Arrays.asList("vm-datacenter-1", "vm-datacenter-2"),
+                 connector.getVirtualMachines(false).stream().map(VmwareInstance::getName).collect(Collectors.toList()));
+  }
+
+  public void resolve_vm_by_name_from_inventory_index() throws Exception{
+    final AtomicInteger searchCount = new AtomicInteger();
+    final AtomicReference<String> vmName = new AtomicReference<>("myVm");
+    final AtomicBoolean deleted = new AtomicBoolean(false);
+    final VMWareApiConnector connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc = createDatacenter("datacenter-2");
+      private final ServerConnection myConnection = new ServerConnection(new URL("http://localhost:9999"), null, null);
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected <T extends ManagedEntity> T searchManagedEntity(@NotNull final String idName,
+                                                                @NotNull final Class<T> instanceType,
+                                                                @Nullable final Datacenter dc) {
+        searchCount.incrementAndGet();
+        return null;
+      }
+
+      @NotNull
+      @Override
+      protected ServerConnection getServerConnection() {
+        return myConnection;
+      }
+
+      @Override
+      protected <T extends ManagedEntity> T createExactManagedEntity(@NotNull final ServerConnection connection, final ManagedObjectReference mor) {
+        assertSame(myConnection, connection);
+        if ("VirtualMachine".equals(mor.getType())) {
+          return (T)new VirtualMachine(connection, mor) {
+            @Override
+            public VirtualMachineSnapshotInfo getSnapshot() {
+              return null;
+            }
+          };
+        }
+        return (T)myDc;
+      }
+
+      @Nullable
+      @Override
+      protected ObjectContent getVirtualMachineContent(@NotNull final ManagedObjectReference vm, @NotNull final String[] properties) throws RemoteException {
+        if (deleted.get()) {
+          throw new ManagedObjectNotFound();
+        }
+        return createObjectContent("VirtualMachine", vm.getVal(), Pair.create("name", vmName.get()));
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+        extraConfig.setOptionValue(new OptionValue[0]);
+        return new ObjectContent[]{
+          createObjectContent("VirtualMachine", "vm-123",
+                              Pair.create("name", "myVm"),
+                              Pair.create("config.extraConfig", extraConfig),
+                              Pair.create("config.template", false),
+                              Pair.create("config.changeVersion", "1"),
+                              Pair.create("runtime.powerState", VirtualMachinePowerState.poweredOn))
+        };
+      }
+    };
+
+    try {
+      connector.getSnapshotList("myVm");
+      fail("VM should not be found before the inventory is fetched");
+    } catch (VmwareCheckedCloudException ex) {
+      assertEquals(1, searchCount.get());
+    }
+
+    connector.getVirtualMachines(false);
+    assertEquals(0, connector.getSnapshotList("myVm").size());
+    assertEquals(1, searchCount.get());
+
+    // renamed outside of TeamCity: the index entry is dropped and the VM is searched for
+    vmName.set("anotherVm");
+    try {
+      connector.getSnapshotList("myVm");
+      fail("Renamed VM should not be resolved from the index");
+    } catch (VmwareCheckedCloudException ex) {
+      assertEquals(2, searchCount.get());
+    }
+
+    vmName.set("myVm");
+    connector.getVirtualMachines(false);
+    deleted.set(true);
+    try {
+      connector.getSnapshotList("myVm");
+      fail("Deleted VM should not be resolved from the index");
+    } catch (VmwareCheckedCloudException ex) {
+      assertEquals(3, searchCount.get());
+    }
+  }
+
+  public void read_single_vm_by_id_from_inventory_index() throws Exception{
+    final AtomicInteger scanCount = new AtomicInteger();
+    final AtomicInteger lookupCount = new AtomicInteger();
+    final AtomicBoolean deleted = new AtomicBoolean(false);
+    final VMWareApiConnector connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc = createDatacenter("datacenter-2");
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        scanCount.incrementAndGet();
+        return new ObjectContent[]{createVmContent("poweredOn")};
+      }
+
+      @Nullable
+      @Override
+      protected ObjectContent getVirtualMachineContent(@NotNull final ManagedObjectReference vm, @NotNull final String[] properties) {
+        lookupCount.incrementAndGet();
+        assertEquals("vm-123", vm.getVal());
+        return deleted.get() ? null : createVmContent("poweredOff");
+      }
+    };
+
+    assertEquals(InstanceStatus.RUNNING, connector.getInstanceDetails("myVm").getInstanceStatus());
+    assertEquals(1, scanCount.get());
+    assertEquals(0, lookupCount.get());
+
+    assertEquals(InstanceStatus.STOPPED, connector.getInstanceDetails("myVm").getInstanceStatus());
+    assertEquals(InstanceStatus.STOPPED, connector.getInstanceDetails("myVm").getInstanceStatus());
+    assertEquals(1, scanCount.get());
+    assertEquals(2, lookupCount.get());
+
+    deleted.set(true);
+    connector.getInstanceDetails("myVm");
+    assertEquals(2, scanCount.get());
+    assertEquals(3, lookupCount.get());
+  }
+
+  public void serve_recent_inventory_without_fetching() throws Exception{
+    final AtomicInteger scanCount = new AtomicInteger();
+    final VMWareApiConnectorImpl connector = new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc = createDatacenter("datacenter-2");
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        scanCount.incrementAndGet();
+        return new ObjectContent[]{createVmContent("poweredOff")};
+      }
+    };
+
+    assertEquals(1, connector.findAllVirtualMachines(60 * 1000).size());
+    assertEquals(1, scanCount.get());
+
+    assertEquals(1, connector.findAllVirtualMachines(60 * 1000).size());
+    assertEquals(1, scanCount.get());
+
+    Thread.sleep(10);
+    assertEquals(1, connector.findAllVirtualMachines(5).size());
+    assertEquals(2, scanCount.get());
+
+    connector.getVirtualMachines(false);
+    assertEquals(3, scanCount.get());
+    assertEquals(1, connector.findAllVirtualMachines(60 * 1000).size());
+    assertEquals(3, scanCount.get());
+  }
+
+  public void bound_staleness_of_shared_inventory() throws Exception{
+    setInternalProperty(VmwareConstants.SHARED_INVENTORY, "true");
+    setInternalProperty(VmwareSharedInventory.MAX_AGE_PROPERTY, String.valueOf(60 * 60 * 1000));
+    final String vCenterUuid = "vc-" + UUID.randomUUID();
+    final AtomicInteger scanCount = new AtomicInteger();
+    final VMWareApiConnectorImpl fetchConnector = createSharedInventoryFetchConnector(scanCount, "vm-123");
+    final VMWareApiConnectorImpl first = createSharedInventoryConnector(vCenterUuid, fetchConnector, "vm-123");
+    final VMWareApiConnectorImpl second = createSharedInventoryConnector(vCenterUuid, fetchConnector, "vm-123");
+
+    first.getVirtualMachines(false);
+    assertEquals(1, scanCount.get());
+    Thread.sleep(100);
+
+    // the shared snapshot is recent enough, the connector takes it over together with its fetch time
+    assertEquals(1, second.findAllVirtualMachines(60 * 1000).size());
+    assertEquals(1, scanCount.get());
+
+    // the snapshot is older than the bound, although the connector has got it just now
+    assertEquals(1, second.findAllVirtualMachines(50).size());
+    assertEquals(2, scanCount.get());
+
+    assertEquals(1, second.findAllVirtualMachines(50).size());
+    assertEquals(1, first.findAllVirtualMachines(50).size());
+    assertEquals(2, scanCount.get());
+  }
+
+  public void share_inventory_between_accounts() throws Exception{
+    setInternalProperty(VmwareConstants.SHARED_INVENTORY, "true");
+    setInternalProperty(VmwareSharedInventory.MAX_AGE_PROPERTY, String.valueOf(60 * 60 * 1000));
+    final String vCenterUuid = "vc-" + UUID.randomUUID();
+    final AtomicInteger scanCount = new AtomicInteger();
+    final VMWareApiConnectorImpl fetchConnector = createSharedInventoryFetchConnector(scanCount, "vm-123", "vm-456");
+    final VMWareApiConnectorImpl full = createSharedInventoryConnector(vCenterUuid, fetchConnector, "vm-123", "vm-456");
+    final VMWareApiConnectorImpl restricted = createSharedInventoryConnector(vCenterUuid, fetchConnector, "vm-456");
+
+    assertEquals(Arrays.asList("vm-123", "vm-456"), getIds(full.getVirtualMachines(false)));
+    // the account doesn't see vm-123, so it is filtered out of the snapshot
+    assertEquals(Collections.singletonList("vm-456"), getIds(restricted.getVirtualMachines(false)));
+    assertEquals(1, scanCount.get());
+  }
+
+  public void fetch_own_inventory_without_shared_inventory_account() throws Exception{
+    setInternalProperty(VmwareConstants.SHARED_INVENTORY, "true");
+    final AtomicInteger scanCount = new AtomicInteger();
+    final VMWareApiConnectorImpl connector = createSharedInventoryFetchConnector(scanCount, "vm-123");
+    assertEquals(Collections.singletonList("vm-123"), getIds(connector.getVirtualMachines(false)));
+    assertEquals(Collections.singletonList("vm-123"), getIds(connector.getVirtualMachines(false)));
+    assertEquals(2, scanCount.get());
+  }
+
+  @NotNull
+  private static List<String> getIds(@NotNull final Collection<VmwareInstance> instances) {
+    return instances.stream().map(VmwareInstance::getId).sorted().collect(Collectors.toList());
+  }
+
+  /**
+   * @param visibleIds VMs the account of the connector can see
+   */
+  @NotNull
+  private static VMWareApiConnectorImpl createSharedInventoryConnector(@NotNull final String vCenterUuid,
+                                                                       @NotNull final VMWareApiConnectorImpl fetchConnector,
+                                                                       @NotNull final String... visibleIds) throws Exception{
+    return new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "username", "pwd", null, null, null, null){
+      private final Datacenter myDc = createDatacenter("datacenter-2");
+
+      @NotNull
+      @Override
+      protected String getVCenterUuid() {
+        return vCenterUuid;
+      }
+
+      @Nullable
+      @Override
+      protected VMWareApiConnectorImpl getSharedInventoryConnector() {
+        return fetchConnector;
+      }
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        assertEquals("only VM ids are expected to be listed with the profile account", 2, typeinfo[0].length);
+        return Arrays.stream(visibleIds).map(id -> createObjectContent("VirtualMachine", id, Pair.create("name", id))).toArray(ObjectContent[]::new);
+      }
+    };
+  }
+
+  /**
+   * Connector of the shared inventory account, counts full inventory fetches
+   */
+  @NotNull
+  private static VMWareApiConnectorImpl createSharedInventoryFetchConnector(@NotNull final AtomicInteger scanCount,
+                                                                            @NotNull final String... vmIds) throws Exception{
+    return new VMWareApiConnectorImpl(new URL("http://localhost:9999"), "readonly", "pwd", null, null, null, null){
+      private final Datacenter myDc = createDatacenter("datacenter-2");
+
+      @Nullable
+      @Override
+      protected VMWareApiConnectorImpl getSharedInventoryConnector() {
+        return null;
+      }
+
+      @Override
+      protected <T extends ManagedEntity> Collection<T> findAllEntitiesOld(final Class<T> instanceType) throws VmwareCheckedCloudException {
+        return Arrays.asList((T)myDc);
+      }
+
+      @Override
+      protected ObjectContent[] getObjectContents(final Datacenter dc, final String[][] typeinfo) throws RemoteException {
+        scanCount.incrementAndGet();
+        return Arrays.stream(vmIds).map(id -> createVmContent(id, "vm-" + id, "poweredOff")).toArray(ObjectContent[]::new);
+      }
+    };
+  }
+
+  private static ObjectContent createVmContent(final String powerState){
+    return createVmContent("vm-123", "myVm", powerState);
+  }
+
+  private static ObjectContent createVmContent(final String id, final String name, final String powerState){
+    final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+    extraConfig.setOptionValue(new OptionValue[0]);
+    return createObjectContent("VirtualMachine", id,
+                               Pair.create("name", name),
+                               Pair.create("config.extraConfig", extraConfig),
+                               Pair.create("config.template", false),
+                               Pair.create("config.changeVersion", "1"),
+                               Pair.create("runtime.powerState", VirtualMachinePowerState.valueOf(powerState)));
+  }
+
+  private static Datacenter createDatacenter(final String dcId){
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType("Datacenter");
+    mor.setVal(dcId);
+    return new Datacenter(null, mor);
+  }
+
+
+  private static OptionValue createOption(final String key, final String value){
+    final OptionValue option = new OptionValue();
+    option.setKey(key);
+    option.setValue(value);
+    return option;
+  }
+
   private static ObjectContent createObjectContent(final String type, final String value, Pair<String, Object>... props){
     final ObjectContent oc = new ObjectContent();
     final ManagedObjectReference mor = new ManagedObjectReference();
@@ -0,0 +1,176 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.InstanceStatus;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareInventorySyncTest extends BaseTestCase {
+
+  private static final String[] PROPERTIES = {"name", "config.extraConfig", "config.template", "config.changeVersion", "runtime.powerState"};
+
+  private VmwareInventorySync mySync;
+  private Deque<Object> myUpdates;
+  private List<String> myRequestedVersions;
+  private ServiceInstance myServiceInstance;
+  private Datacenter myDatacenter;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mySync = new VmwareInventorySync();
+    myUpdates = new ArrayDeque<>();
+    myRequestedVersions = new ArrayList<>();
+    final PropertyCollector collector = new PropertyCollector(null, createMOR("PropertyCollector", "propertyCollector")) {
+      private int myFilterCounter = 0;
+
+      @Override
+      public PropertyCollector createPropertyCollector() {
+        return this;
+      }
+
+      @Override
+      public PropertyFilter createFilter(final PropertyFilterSpec spec, final boolean partialUpdates) {
+        return new PropertyFilter(null, createMOR("PropertyFilter", "filter-" + (++myFilterCounter)));
+      }
+
+      @Override
+      public UpdateSet waitForUpdatesEx(final String version, final WaitOptions options) throws InvalidCollectorVersion {
+        myRequestedVersions.add(version);
+        final Object update = myUpdates.poll();
+        if (update instanceof InvalidCollectorVersion) {
+          throw (InvalidCollectorVersion)update;
+        }
+        return (UpdateSet)update;
+      }
+
+      @Override
+      public void destroyPropertyCollector() {
+      }
+    };
+    myServiceInstance = new ServiceInstance((ServerConnection)null) {
+      @Override
+      public PropertyCollector getPropertyCollector() {
+        return collector;
+      }
+    };
+    myDatacenter = new Datacenter(null, createMOR("Datacenter", "datacenter-10"));
+  }
+
+  public void applies_only_deltas_after_initial_sync() throws Exception {
+    myUpdates.add(updateSet("1",
+                            objectUpdate(ObjectUpdateKind.enter, "vm-1", vmProperties("vm1", VirtualMachinePowerState.poweredOff)),
+                            objectUpdate(ObjectUpdateKind.enter, "vm-2", vmProperties("vm2", VirtualMachinePowerState.poweredOn))));
+    assertEquals(Arrays.asList("vm1", "vm2"), getNames(mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES)));
+
+    myUpdates.add(updateSet("2",
+                            objectUpdate(ObjectUpdateKind.modify, "vm-1", propertyChange("runtime.powerState", VirtualMachinePowerState.poweredOn)),
+                            objectUpdate(ObjectUpdateKind.leave, "vm-2")));
+    final Collection<VmwareInstance> instances = mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES);
+    assertEquals(Collections.singletonList("vm1"), getNames(instances));
+    final VmwareInstance vm1 = instances.iterator().next();
+    assertEquals(InstanceStatus.RUNNING, vm1.getInstanceStatus());
+    assertEquals("datacenter-10", vm1.getDatacenterId());
+
+    // nothing has changed
+    assertEquals(Collections.singletonList("vm1"), getNames(mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES)));
+    assertEquals(Arrays.asList("", "1", "2"), myRequestedVersions);
+  }
+
+  public void keeps_extra_config_between_deltas() throws Exception {
+    final OptionValue nickname = new OptionValue();
+    nickname.setKey(VMWareApiConnector.TEAMCITY_VMWARE_IMAGE_SOURCE_ID);
+    nickname.setValue("image1");
+    final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+    extraConfig.setOptionValue(new OptionValue[]{nickname});
+    myUpdates.add(updateSet("1", objectUpdate(ObjectUpdateKind.enter, "vm-1",
+                                              propertyChange("name", "image1-1"),
+                                              propertyChange("config.extraConfig", extraConfig),
+                                              propertyChange("config.template", false),
+                                              propertyChange("config.changeVersion", "1"),
+                                              propertyChange("runtime.powerState", VirtualMachinePowerState.poweredOff))));
+    assertEquals("image1", mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES).iterator().next().getImageName());
+
+    final Calendar bootTime = Calendar.getInstance();
+    myUpdates.add(updateSet("2", objectUpdate(ObjectUpdateKind.modify, "vm-1",
+                                              propertyChange("runtime.powerState", VirtualMachinePowerState.poweredOn),
+                                              propertyChange("runtime.bootTime", bootTime))));
+    final VmwareInstance vm = mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES).iterator().next();
+    assertEquals("image1", vm.getImageName());
+    assertEquals(InstanceStatus.RUNNING, vm.getInstanceStatus());
+    assertEquals(bootTime.getTime(), vm.getStartDate());
+    assertEquals("1", vm.getChangeVersion());
+  }
+
+  public void full_resync_on_version_gap() throws Exception {
+    myUpdates.add(updateSet("1", objectUpdate(ObjectUpdateKind.enter, "vm-1", vmProperties("vm1", VirtualMachinePowerState.poweredOff))));
+    mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES);
+
+    myUpdates.add(new InvalidCollectorVersion());
+    myUpdates.add(updateSet("5", objectUpdate(ObjectUpdateKind.enter, "vm-3", vmProperties("vm3", VirtualMachinePowerState.poweredOff))));
+    assertEquals(Collections.singletonList("vm3"), getNames(mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES)));
+    assertEquals(Arrays.asList("", "1", ""), myRequestedVersions);
+  }
+
+  public void drops_vms_of_removed_datacenter() throws Exception {
+    myUpdates.add(updateSet("1", objectUpdate(ObjectUpdateKind.enter, "vm-1", vmProperties("vm1", VirtualMachinePowerState.poweredOff))));
+    assertEquals(1, mySync.getVirtualMachines(myServiceInstance, Collections.singleton(myDatacenter), PROPERTIES).size());
+
+    assertEquals(0, mySync.getVirtualMachines(myServiceInstance, Collections.emptyList(), PROPERTIES).size());
+  }
+
+  private static List<String> getNames(Collection<VmwareInstance> instances) {
+    return instances.stream().map(VmwareInstance::getName).sorted().collect(Collectors.toList());
+  }
+
+  private static UpdateSet updateSet(String version, ObjectUpdate... objectUpdates) {
+    final PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+    filterUpdate.setFilter(createMOR("PropertyFilter", "filter-1"));
+    filterUpdate.setObjectSet(objectUpdates);
+    final UpdateSet updateSet = new UpdateSet();
+    updateSet.setVersion(version);
+    updateSet.setFilterSet(new PropertyFilterUpdate[]{filterUpdate});
+    return updateSet;
+  }
+
+  private static ObjectUpdate objectUpdate(ObjectUpdateKind kind, String vmId, PropertyChange... changes) {
+    final ObjectUpdate objectUpdate = new ObjectUpdate();
+    objectUpdate.setKind(kind);
+    objectUpdate.setObj(createMOR("VirtualMachine", vmId));
+    objectUpdate.setChangeSet(changes);
+    return objectUpdate;
+  }
+
+  private static PropertyChange[] vmProperties(String name, VirtualMachinePowerState powerState) {
+    final ArrayOfOptionValue extraConfig = new ArrayOfOptionValue();
+    extraConfig.setOptionValue(new OptionValue[0]);
+    return new PropertyChange[]{
+      propertyChange("name", name),
+      propertyChange("config.extraConfig", extraConfig),
+      propertyChange("config.template", false),
+      propertyChange("config.changeVersion", "1"),
+      propertyChange("runtime.powerState", powerState)
+    };
+  }
+
+  private static PropertyChange propertyChange(String name, Object value) {
+    final PropertyChange change = new PropertyChange();
+    change.setName(name);
+    change.setOp(PropertyChangeOp.assign);
+    change.setVal(value);
+    return change;
+  }
+
+  private static ManagedObjectReference createMOR(String type, String val) {
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(val);
+    return mor;
+  }
+}
@@ -0,0 +1,115 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.intellij.openapi.util.Pair;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import java.util.ArrayList;
+import java.util.List;
+import jetbrains.buildServer.BaseTestCase;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareInventoryTreeTest extends BaseTestCase {
+
+  private static final ManagedObjectReference ROOT = mor("Folder", "group-d1");
+  private static final ManagedObjectReference DC = mor("Datacenter", "datacenter-2");
+  private static final ManagedObjectReference VM_FOLDER = mor("Folder", "group-v3");
+  private static final ManagedObjectReference HOST_FOLDER = mor("Folder", "group-h4");
+  private static final ManagedObjectReference CLUSTER = mor("ClusterComputeResource", "domain-c7");
+  private static final ManagedObjectReference ROOT_POOL = mor("ResourcePool", "resgroup-8");
+
+  private VmwareInventoryTree myTree;
+  private List<String> myResolved;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTree = new VmwareInventoryTree();
+    myResolved = new ArrayList<>();
+  }
+
+  public void build_paths_from_batch() throws Exception {
+    final ManagedObjectReference folder = mor("Folder", "group-v10");
+    myTree.update(new ObjectContent[]{
+      entity(DC, "DC", ROOT),
+      entity(VM_FOLDER, "vm", DC),
+      entity(folder, "Agents", VM_FOLDER),
+      entity(mor("Folder", "group-v11"), "Linux", folder),
+    });
+
+    assertEquals("DC/Agents/Linux", myTree.getPath(mor("Folder", "group-v11"), this::resolve));
+    assertEquals("DC/Agents", myTree.getPath(folder, this::resolve));
+    assertEquals("DC", myTree.getPath(VM_FOLDER, this::resolve));
+    // only the root folder is fetched remotely
+    assertEquals(1, myResolved.size());
+  }
+
+  public void skip_special_pools_and_host_folders() throws Exception {
+    myTree.update(new ObjectContent[]{
+      entity(DC, "DC", ROOT),
+      entity(CLUSTER, "Cluster", HOST_FOLDER),
+      entity(ROOT_POOL, "Resources", CLUSTER),
+      entity(mor("ResourcePool", "resgroup-9"), "Builds", ROOT_POOL),
+    });
+
+    assertEquals("DC/Cluster/Builds", myTree.getPath(mor("ResourcePool", "resgroup-9"), this::resolve));
+    assertEquals("DC/Cluster", myTree.getPath(ROOT_POOL, this::resolve));
+    assertEquals(2, myResolved.size());
+    assertTrue(myResolved.contains(HOST_FOLDER.getVal()));
+  }
+
+  public void update_paths_on_rename() throws Exception {
+    final ManagedObjectReference folder = mor("Folder", "group-v10");
+    final ManagedObjectReference child = mor("Folder", "group-v11");
+    myTree.update(new ObjectContent[]{entity(DC, "DC", ROOT), entity(folder, "Agents", DC), entity(child, "Linux", folder)});
+    assertEquals("DC/Agents/Linux", myTree.getPath(child, this::resolve));
+
+    myTree.update(new ObjectContent[]{entity(DC, "DC", ROOT), entity(folder, "BuildAgents", DC), entity(child, "Linux", folder)});
+    assertEquals("DC/BuildAgents/Linux", myTree.getPath(child, this::resolve));
+  }
+
+  public void resolve_again_after_ttl() throws Exception {
+    myTree.update(new ObjectContent[]{entity(DC, "DC", ROOT)});
+    myTree.getPath(DC, this::resolve);
+    myTree.getPath(DC, this::resolve);
+    assertEquals(1, myResolved.size());
+
+    setInternalProperty(VmwareInventoryTree.RESOLVED_TTL_PROPERTY, "1");
+    Thread.sleep(10);
+    myTree.getPath(DC, this::resolve);
+    assertEquals(2, myResolved.size());
+  }
+
+  private Pair<String, ManagedObjectReference> resolve(ManagedObjectReference mor) {
+    myResolved.add(mor.getVal());
+    if (mor.getVal().equals(ROOT.getVal()))
+      return Pair.create("Datacenters", null);
+    if (mor.getVal().equals(HOST_FOLDER.getVal()))
+      return Pair.create("host", DC);
+    throw new AssertionError("Unexpected remote call for " + mor.getVal());
+  }
+
+  private static ObjectContent entity(ManagedObjectReference mor, String name, @Nullable ManagedObjectReference parent) {
+    final ObjectContent oc = new ObjectContent();
+    oc.setObj(mor);
+    final DynamicProperty nameProperty = new DynamicProperty();
+    nameProperty.setName("name");
+    nameProperty.setVal(name);
+    final DynamicProperty parentProperty = new DynamicProperty();
+    parentProperty.setName("parent");
+    parentProperty.setVal(parent);
+    oc.setPropSet(new DynamicProperty[]{nameProperty, parentProperty});
+    return oc;
+  }
+
+  private static ManagedObjectReference mor(String type, String value) {
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(value);
+    return mor;
+  }
+}
@@ -0,0 +1,158 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.mo.Task;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.vmware.VmwareConstants;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import jetbrains.buildServer.clouds.vmware.connector.VmwareOperationGovernor.Operation;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareOperationGovernorTest extends BaseTestCase {
+
+  private VmwareOperationGovernor myGovernor;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(VmwareConstants.GOVERNOR_CLONE_LIMIT, "2");
+    myGovernor = new VmwareOperationGovernor();
+  }
+
+  public void limit_operations_in_flight() throws Exception {
+    final CompletableFuture<TaskInfo> first = new CompletableFuture<>();
+    final CompletableFuture<TaskInfo> second = new CompletableFuture<>();
+    myGovernor.execute(Operation.CLONE, () -> new VmwareFutureTask(first));
+    myGovernor.execute(Operation.CLONE, () -> new VmwareFutureTask(second));
+    assertEquals(2, myGovernor.getInFlight(Operation.CLONE));
+
+    // the caller isn't blocked, the third clone is queued
+    final AtomicInteger started = new AtomicInteger();
+    final Task third = myGovernor.execute(Operation.CLONE, () -> {
+      started.incrementAndGet();
+      return successTask();
+    });
+    assertTrue(third instanceof VmwareFutureTask);
+    assertEquals(TaskInfoState.running, third.getTaskInfo().getState());
+    assertEquals(1, myGovernor.getQueueLength(Operation.CLONE));
+    assertEquals(0, started.get());
+
+    // other operations are limited separately
+    myGovernor.execute(Operation.DESTROY, VmwareOperationGovernorTest::successTask);
+
+    first.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+    assertEquals(TaskInfoState.success, ((VmwareFutureTask)third).getFuture().get(5, TimeUnit.SECONDS).getState());
+    assertEquals(1, started.get());
+    assertEquals(0, myGovernor.getQueueLength(Operation.CLONE));
+    waitForInFlight(1);
+  }
+
+  public void release_when_task_is_waited_for() throws Exception {
+    setInternalProperty(VmwareConstants.GOVERNOR_CLONE_LIMIT, "1");
+    final Task task = myGovernor.execute(Operation.CLONE, VmwareOperationGovernorTest::successTask);
+    assertEquals(1, myGovernor.getInFlight(Operation.CLONE));
+    assertEquals(Task.SUCCESS, task.waitForTask());
+    assertEquals(TaskInfoState.success, task.getTaskInfo().getState());
+    assertEquals(0, myGovernor.getInFlight(Operation.CLONE));
+  }
+
+  public void release_on_failed_start() throws Exception {
+    try {
+      myGovernor.execute(Operation.CLONE, () -> {
+        throw new VmwareCheckedCloudException("Unable to find folder");
+      });
+      fail("Exception expected");
+    } catch (VmwareCheckedCloudException ignored) {
+    }
+    assertNull(myGovernor.execute(Operation.CLONE, () -> null));
+    assertEquals(0, myGovernor.getInFlight(Operation.CLONE));
+  }
+
+  public void report_failed_start_of_queued_operation() throws Exception {
+    setInternalProperty(VmwareConstants.GOVERNOR_CLONE_LIMIT, "1");
+    final CompletableFuture<TaskInfo> blocker = new CompletableFuture<>();
+    myGovernor.execute(Operation.CLONE, () -> new VmwareFutureTask(blocker));
+    final VmwareFutureTask queued = (VmwareFutureTask)myGovernor.execute(Operation.CLONE, () -> {
+      throw new VmwareCheckedCloudException("Unable to find folder");
+    });
+
+    blocker.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+    try {
+      queued.getFuture().get(5, TimeUnit.SECONDS);
+      fail("Exception expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof VmwareCheckedCloudException);
+    }
+    assertEquals(TaskInfoState.error, queued.getTaskInfo().getState());
+    waitForInFlight(0);
+  }
+
+  public void waiters_are_served_in_order() throws Exception {
+    setInternalProperty(VmwareConstants.GOVERNOR_CLONE_LIMIT, "1");
+    final CompletableFuture<TaskInfo> blocker = new CompletableFuture<>();
+    myGovernor.execute(Operation.CLONE, () -> new VmwareFutureTask(blocker));
+
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    final List<VmwareFutureTask> tasks = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      final int idx = i;
+      tasks.add((VmwareFutureTask)myGovernor.execute(Operation.CLONE, () -> {
+        order.add(idx);
+        return null;
+      }));
+    }
+    assertEquals(5, myGovernor.getQueueLength(Operation.CLONE));
+    blocker.complete(VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+    for (VmwareFutureTask task : tasks) {
+      task.getFuture().get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+  }
+
+  public void time_out_waiting() throws Exception {
+    setInternalProperty(VmwareConstants.GOVERNOR_CLONE_LIMIT, "1");
+    setInternalProperty(VmwareConstants.GOVERNOR_WAIT_TIMEOUT, "100");
+    myGovernor.execute(Operation.CLONE, () -> new VmwareFutureTask(new CompletableFuture<>()));
+    final VmwareFutureTask queued = (VmwareFutureTask)myGovernor.execute(Operation.CLONE, VmwareOperationGovernorTest::successTask);
+    try {
+      queued.getFuture().get(5, TimeUnit.SECONDS);
+      fail("Timeout expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause().getMessage().contains("Timed out"));
+    }
+    assertEquals(1, myGovernor.getInFlight(Operation.CLONE));
+    assertEquals(0, myGovernor.getQueueLength(Operation.CLONE));
+  }
+
+  private void waitForInFlight(final int count) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (myGovernor.getInFlight(Operation.CLONE) != count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, myGovernor.getInFlight(Operation.CLONE));
+  }
+
+  private static Task successTask() {
+    return new Task(null, null) {
+      @Override
+      public TaskInfo getTaskInfo() {
+        return VmwareFutureTask.createTaskInfo(TaskInfoState.success, null);
+      }
+
+      @Override
+      public String waitForTask() {
+        return Task.SUCCESS;
+      }
+    };
+  }
+}
@@ -0,0 +1,173 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.Datacenter;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.VirtualMachine;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwarePowerOnBatcherTest extends BaseTestCase {
+
+  private static final long WINDOW = TimeUnit.HOURS.toMillis(1); // batches are flushed by the test itself
+
+  private List<List<String>> myPowerOnCalls;
+  private Map<String, TaskInfo> myTaskResults;
+  private volatile boolean myTracking;
+  private VmwarePowerOnBatcher myBatcher;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myPowerOnCalls = new ArrayList<>();
+    myTaskResults = new HashMap<>();
+    myTracking = true;
+    final VmwareTaskTracker tracker = new VmwareTaskTracker(() -> null, "Test task tracker") {
+      @Override
+      public Task track(final Task task) {
+        if (!myTracking)
+          return task;
+        return new VmwareFutureTask(CompletableFuture.completedFuture(myTaskResults.get(task.getMOR().getVal())));
+      }
+    };
+    myBatcher = new VmwarePowerOnBatcher(tracker, "Test power on batcher");
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myBatcher.dispose();
+    super.tearDown();
+  }
+
+  public void power_on_vms_of_datacenter_with_one_request() throws Exception {
+    final Datacenter dc1 = createDatacenter("datacenter-1");
+    final Datacenter dc2 = createDatacenter("datacenter-2");
+
+    final ClusterAttemptedVmInfo attempted = new ClusterAttemptedVmInfo();
+    attempted.setVm(createMOR("VirtualMachine", "vm-1"));
+    attempted.setTask(createMOR("Task", "task-vm-1"));
+    final LocalizedMethodFault fault = new LocalizedMethodFault();
+    fault.setLocalizedMessage("Insufficient resources");
+    final ClusterNotAttemptedVmInfo notAttempted = new ClusterNotAttemptedVmInfo();
+    notAttempted.setVm(createMOR("VirtualMachine", "vm-2"));
+    notAttempted.setFault(fault);
+    final ClusterPowerOnVmResult powerOnResult = new ClusterPowerOnVmResult();
+    powerOnResult.setAttempted(new ClusterAttemptedVmInfo[]{attempted});
+    powerOnResult.setNotAttempted(new ClusterNotAttemptedVmInfo[]{notAttempted});
+    final TaskInfo multiTaskInfo = VmwareFutureTask.createTaskInfo(TaskInfoState.success, null);
+    multiTaskInfo.setResult(powerOnResult);
+    myTaskResults.put("task-datacenter-1", multiTaskInfo);
+    myTaskResults.put("task-datacenter-2", VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+    myTaskResults.put("task-vm-1", VmwareFutureTask.createTaskInfo(TaskInfoState.success, null));
+
+    final VmwareFutureTask vm1 = (VmwareFutureTask)myBatcher.powerOn(createVm("vm-1"), dc1, WINDOW);
+    final VmwareFutureTask vm2 = (VmwareFutureTask)myBatcher.powerOn(createVm("vm-2"), dc1, WINDOW);
+    final VmwareFutureTask vm3 = (VmwareFutureTask)myBatcher.powerOn(createVm("vm-3"), dc2, WINDOW);
+    assertEquals(0, myPowerOnCalls.size());
+
+    myBatcher.flush("datacenter-1");
+    myBatcher.flush("datacenter-2");
+    assertEquals(Arrays.asList(Arrays.asList("vm-1", "vm-2"), Collections.singletonList("vm-3")), myPowerOnCalls);
+
+    assertEquals(TaskInfoState.success, vm1.getTaskInfo().getState());
+    assertEquals(TaskInfoState.error, vm2.getTaskInfo().getState());
+    assertEquals("Insufficient resources", vm2.getTaskInfo().getError().getLocalizedMessage());
+    assertEquals(TaskInfoState.success, vm3.getTaskInfo().getState());
+  }
+
+  public void wait_for_untracked_task_outside_scheduler() throws Exception {
+    myTracking = false;
+    final CountDownLatch releaseTask = new CountDownLatch(1);
+    final Datacenter blocked = new Datacenter(null, createMOR("Datacenter", "datacenter-1")) {
+      @Override
+      public String getName() {
+        return "datacenter-1";
+      }
+
+      @Override
+      public Task powerOnMultiVM_Task(final VirtualMachine[] vms) {
+        return new Task(null, createMOR("Task", "task-datacenter-1")) {
+          @Override
+          public String waitForTask() throws InterruptedException {
+            releaseTask.await();
+            return TaskInfoState.success.name();
+          }
+
+          @Override
+          public TaskInfo getTaskInfo() {
+            return VmwareFutureTask.createTaskInfo(TaskInfoState.success, null);
+          }
+        };
+      }
+    };
+    final Datacenter other = new Datacenter(null, createMOR("Datacenter", "datacenter-2")) {
+      @Override
+      public String getName() {
+        return "datacenter-2";
+      }
+
+      @Override
+      public Task powerOnMultiVM_Task(final VirtualMachine[] vms) {
+        return new Task(null, createMOR("Task", "task-datacenter-2")) {
+          @Override
+          public String waitForTask() {
+            return TaskInfoState.success.name();
+          }
+
+          @Override
+          public TaskInfo getTaskInfo() {
+            return VmwareFutureTask.createTaskInfo(TaskInfoState.success, null);
+          }
+        };
+      }
+    };
+    try {
+      final VmwareFutureTask vm1 = (VmwareFutureTask)myBatcher.powerOn(createVm("vm-1"), blocked, 10);
+      Thread.sleep(100);
+      // the batch window of another datacenter is not delayed by the task of the first one
+      final VmwareFutureTask vm2 = (VmwareFutureTask)myBatcher.powerOn(createVm("vm-2"), other, 10);
+      assertEquals(TaskInfoState.success, vm2.getFuture().get(5, TimeUnit.SECONDS).getState());
+      assertFalse(vm1.getFuture().isDone());
+      releaseTask.countDown();
+      assertEquals(TaskInfoState.success, vm1.getFuture().get(5, TimeUnit.SECONDS).getState());
+    } finally {
+      releaseTask.countDown();
+    }
+  }
+
+  private Datacenter createDatacenter(String id) {
+    return new Datacenter(null, createMOR("Datacenter", id)) {
+      @Override
+      public String getName() {
+        return id;
+      }
+
+      @Override
+      public Task powerOnMultiVM_Task(final VirtualMachine[] vms) {
+        myPowerOnCalls.add(Arrays.stream(vms).map(vm -> vm.getMOR().getVal()).collect(Collectors.toList()));
+        return new Task(null, createMOR("Task", "task-" + id));
+      }
+    };
+  }
+
+  private static VirtualMachine createVm(String id) {
+    return new VirtualMachine(null, createMOR("VirtualMachine", id));
+  }
+
+  private static ManagedObjectReference createMOR(String type, String val) {
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(val);
+    return mor;
+  }
+}
@@ -0,0 +1,133 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.PropertyFilter;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwarePowerStateWatcherTest extends BaseTestCase {
+
+  private BlockingQueue<UpdateSet> myUpdates;
+  private AtomicInteger myCancelCount;
+  private VmwarePowerStateWatcher myWatcher;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myUpdates = new LinkedBlockingQueue<>();
+    myCancelCount = new AtomicInteger();
+    final PropertyCollector collector = new PropertyCollector(null, createMOR("PropertyCollector", "propertyCollector")) {
+      private int myFilterCounter = 0;
+
+      @Override
+      public PropertyCollector createPropertyCollector() {
+        return this;
+      }
+
+      @Override
+      public synchronized PropertyFilter createFilter(final PropertyFilterSpec spec, final boolean partialUpdates) {
+        return new PropertyFilter(null, createMOR("PropertyFilter", "filter-" + (++myFilterCounter))) {
+          @Override
+          public void destroyPropertyFilter() {
+          }
+        };
+      }
+
+      @Override
+      public UpdateSet waitForUpdatesEx(final String version, final WaitOptions options) {
+        try {
+          return myUpdates.poll(options.getMaxWaitSeconds(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      public void cancelWaitForUpdates() {
+        myCancelCount.incrementAndGet();
+      }
+
+      @Override
+      public void destroyPropertyCollector() {
+      }
+    };
+    final ServiceInstance serviceInstance = new ServiceInstance((ServerConnection)null) {
+      @Override
+      public PropertyCollector getPropertyCollector() {
+        return collector;
+      }
+    };
+    myWatcher = new VmwarePowerStateWatcher(() -> serviceInstance, "Test power state watcher");
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myWatcher.dispose();
+    super.tearDown();
+  }
+
+  public void completes_on_power_off() throws Exception {
+    final CompletableFuture<Boolean> vm1 = myWatcher.waitForPowerOff(createMOR("VirtualMachine", "vm-1"), 60 * 1000);
+    final CompletableFuture<Boolean> vm2 = myWatcher.waitForPowerOff(createMOR("VirtualMachine", "vm-2"), 60 * 1000);
+
+    myUpdates.add(powerStateUpdate("vm-1", VirtualMachinePowerState.poweredOn));
+    myUpdates.add(powerStateUpdate("vm-1", VirtualMachinePowerState.poweredOff));
+    assertTrue(vm1.get(5, TimeUnit.SECONDS));
+    assertFalse(vm2.isDone());
+
+    myUpdates.add(powerStateUpdate("vm-2", VirtualMachinePowerState.poweredOff));
+    assertTrue(vm2.get(5, TimeUnit.SECONDS));
+  }
+
+  public void completes_with_false_on_timeout() throws Exception {
+    final CompletableFuture<Boolean> vm1 = myWatcher.waitForPowerOff(createMOR("VirtualMachine", "vm-1"), 500);
+    assertFalse(vm1.get(5, TimeUnit.SECONDS));
+  }
+
+  public void watch_from_watcher_callback() throws Exception {
+    final CompletableFuture<Boolean> vm2 = myWatcher.waitForPowerOff(createMOR("VirtualMachine", "vm-1"), 60 * 1000)
+                                                    .thenCompose(off -> myWatcher.waitForPowerOff(createMOR("VirtualMachine", "vm-2"), 60 * 1000));
+    myUpdates.add(powerStateUpdate("vm-1", VirtualMachinePowerState.poweredOff));
+    myUpdates.add(powerStateUpdate("vm-2", VirtualMachinePowerState.poweredOff));
+    assertTrue(vm2.get(5, TimeUnit.SECONDS));
+    // the watcher thread doesn't wake itself up
+    assertEquals(0, myCancelCount.get());
+  }
+
+  private static UpdateSet powerStateUpdate(String vmId, VirtualMachinePowerState powerState) {
+    final PropertyChange change = new PropertyChange();
+    change.setName("runtime.powerState");
+    change.setOp(PropertyChangeOp.assign);
+    change.setVal(powerState);
+    final ObjectUpdate objectUpdate = new ObjectUpdate();
+    objectUpdate.setKind(ObjectUpdateKind.modify);
+    objectUpdate.setObj(createMOR("VirtualMachine", vmId));
+    objectUpdate.setChangeSet(new PropertyChange[]{change});
+    final PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+    filterUpdate.setObjectSet(new ObjectUpdate[]{objectUpdate});
+    final UpdateSet updateSet = new UpdateSet();
+    updateSet.setVersion(String.valueOf(System.nanoTime()));
+    updateSet.setFilterSet(new PropertyFilterUpdate[]{filterUpdate});
+    return updateSet;
+  }
+
+  private static ManagedObjectReference createMOR(String type, String val) {
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(val);
+    return mor;
+  }
+}
@@ -0,0 +1,151 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.UserSession;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.SessionManager;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.WaitFor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareSessionPoolTest extends BaseTestCase {
+
+  private List<FakeSession> myLogins;
+  private VmwareSessionPool myPool;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(VmwareSession.KEEP_ALIVE_INTERVAL_PROPERTY, String.valueOf(3600 * 1000));
+    setInternalProperty(VmwareSessionPool.POOL_SIZE_PROPERTY, "3");
+    myLogins = new ArrayList<>();
+    myPool = new VmwareSessionPool(this::login, "Test session keep-alive");
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myPool.dispose();
+    super.tearDown();
+  }
+
+  public void hand_out_sessions_in_turn() throws Exception {
+    final List<ServiceInstance> sessions = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      sessions.add(myPool.get());
+    }
+    assertEquals(3, new HashSet<>(sessions).size());
+    assertEquals(sessions.subList(0, 3), sessions.subList(3, 6));
+    assertEquals(3, myLogins.size());
+  }
+
+  public void keep_primary_session() throws Exception {
+    final ServiceInstance primary = myPool.getPrimary();
+    for (int i = 0; i < 5; i++) {
+      myPool.get();
+      assertSame(primary, myPool.getPrimary());
+    }
+  }
+
+  public void drop_only_expired_sessions() throws Exception {
+    final Set<ServiceInstance> sessions = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      sessions.add(myPool.get());
+    }
+    myLogins.get(1).myExpired = true;
+    myPool.processFault(new RuntimeException("Unrelated error"));
+    myPool.processFault(new NotAuthenticated());
+
+    // sessions are checked on their keep-alive threads
+    final Set<ServiceInstance> newSessions = new HashSet<>();
+    new WaitFor(10 * 1000) {
+      @Override
+      protected boolean condition() {
+        newSessions.clear();
+        try {
+          for (int i = 0; i < 3; i++) {
+            newSessions.add(myPool.get());
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        return !sessions.containsAll(newSessions);
+      }
+    }.assertCompleted("expired session should be dropped");
+    assertEquals(4, myLogins.size());
+    assertFalse(newSessions.contains(myLogins.get(1)));
+    newSessions.retainAll(sessions);
+    assertEquals(2, newSessions.size());
+  }
+
+  public void do_not_check_sessions_in_caller_thread() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      myPool.get();
+    }
+    final Thread caller = Thread.currentThread();
+    final Set<Thread> checkThreads = new HashSet<>();
+    for (FakeSession session : myLogins) {
+      session.myCheckThreads = checkThreads;
+    }
+    myPool.processFault(new NotAuthenticated());
+    new WaitFor(10 * 1000) {
+      @Override
+      protected boolean condition() {
+        synchronized (checkThreads) {
+          return checkThreads.size() == 3;
+        }
+      }
+    }.assertCompleted("all sessions should be checked");
+    assertFalse(checkThreads.contains(caller));
+  }
+
+  public void single_session_by_default() throws Exception {
+    myPool.dispose();
+    setInternalProperty(VmwareSessionPool.POOL_SIZE_PROPERTY, "1");
+    myPool = new VmwareSessionPool(this::login, "Test session keep-alive");
+    final ServiceInstance session = myPool.get();
+    assertSame(session, myPool.get());
+    assertSame(session, myPool.getPrimary());
+    assertEquals(1, myLogins.size());
+  }
+
+  private synchronized ServiceInstance login() {
+    final FakeSession session = new FakeSession();
+    myLogins.add(session);
+    return session;
+  }
+
+  private static class FakeSession extends ServiceInstance {
+    private volatile boolean myExpired;
+    private volatile Set<Thread> myCheckThreads;
+
+    private FakeSession() {
+      super((ServerConnection)null);
+    }
+
+    @Override
+    public SessionManager getSessionManager() {
+      return new SessionManager(null, null) {
+        @Override
+        public UserSession getCurrentSession() {
+          final Set<Thread> checkThreads = myCheckThreads;
+          if (checkThreads != null) {
+            synchronized (checkThreads) {
+              checkThreads.add(Thread.currentThread());
+            }
+          }
+          return myExpired ? null : new UserSession();
+        }
+      };
+    }
+  }
+}
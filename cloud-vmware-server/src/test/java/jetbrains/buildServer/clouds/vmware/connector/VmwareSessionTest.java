@@ -0,0 +1,107 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.UserSession;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.SessionManager;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareSessionTest extends BaseTestCase {
+
+  private AtomicInteger myLogins;
+  private volatile boolean myExpired;
+  private VmwareSession mySession;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // sessions are checked by the test itself
+    setInternalProperty(VmwareSession.KEEP_ALIVE_INTERVAL_PROPERTY, String.valueOf(3600 * 1000));
+    myLogins = new AtomicInteger();
+    myExpired = false;
+    mySession = new VmwareSession(this::login, "Test session keep-alive");
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    mySession.dispose();
+    super.tearDown();
+  }
+
+  public void reuse_session() throws Exception {
+    final ServiceInstance serviceInstance = mySession.get();
+    assertSame(serviceInstance, mySession.get());
+    mySession.checkSession();
+    assertSame(serviceInstance, mySession.get());
+    assertEquals(1, myLogins.get());
+  }
+
+  public void login_again_after_expiration() throws Exception {
+    final ServiceInstance serviceInstance = mySession.get();
+    myExpired = true;
+    mySession.checkSession();
+    assertEquals(1, myLogins.get());
+
+    myExpired = false;
+    assertNotSame(serviceInstance, mySession.get());
+    assertEquals(2, myLogins.get());
+  }
+
+  public void login_again_after_not_authenticated_fault() throws Exception {
+    final ServiceInstance serviceInstance = mySession.get();
+    assertFalse(mySession.processFault(new ManagedObjectNotFound()));
+    assertSame(serviceInstance, mySession.get());
+
+    // yavijava wraps faults of property reads into runtime exceptions
+    assertTrue(mySession.processFault(new RuntimeException(new NotAuthenticated())));
+    assertNotSame(serviceInstance, mySession.get());
+    assertEquals(2, myLogins.get());
+  }
+
+  public void logout_idle_session() throws Exception {
+    setInternalProperty(VmwareSession.IDLE_TIMEOUT_PROPERTY, "1");
+    mySession.get();
+    Thread.sleep(10);
+    mySession.checkSession();
+    assertEquals(1, myLogins.get());
+    mySession.get();
+    assertEquals(2, myLogins.get());
+  }
+
+  public void keep_idle_session_used_before_logout() throws Exception {
+    setInternalProperty(VmwareSession.IDLE_TIMEOUT_PROPERTY, "1");
+    final ServiceInstance serviceInstance = mySession.get();
+    Thread.sleep(10);
+    // the session was found idle, but a caller got it before it was cleared
+    setInternalProperty(VmwareSession.IDLE_TIMEOUT_PROPERTY, String.valueOf(3600 * 1000));
+    assertSame(serviceInstance, mySession.get());
+    assertFalse(mySession.clearIfIdle(serviceInstance));
+    assertSame(serviceInstance, mySession.get());
+    assertEquals(1, myLogins.get());
+  }
+
+  private ServiceInstance login() {
+    myLogins.incrementAndGet();
+    final SessionManager sessionManager = new SessionManager(null, null) {
+      @Override
+      public UserSession getCurrentSession() {
+        return myExpired ? null : new UserSession();
+      }
+    };
+    return new ServiceInstance((ServerConnection)null) {
+      @Override
+      public SessionManager getSessionManager() {
+        return sessionManager;
+      }
+    };
+  }
+}
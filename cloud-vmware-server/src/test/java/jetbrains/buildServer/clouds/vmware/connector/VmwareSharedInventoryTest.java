@@ -0,0 +1,165 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.VirtualMachinePowerState;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.clouds.vmware.errors.VmwareCheckedCloudException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareSharedInventoryTest extends BaseTestCase {
+
+  private VmwareSharedInventory myInventory;
+  private AtomicInteger myFetchCount;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(VmwareSharedInventory.MAX_AGE_PROPERTY, String.valueOf(TimeUnit.HOURS.toMillis(1)));
+    myInventory = new VmwareSharedInventory();
+    myFetchCount = new AtomicInteger();
+  }
+
+  public void fetch_once_for_the_same_vcenter() throws Exception {
+    final Collection<VmwareInstance> first = myInventory.getVirtualMachines("vc-1", this::fetch).getSecond();
+    final Collection<VmwareInstance> second = myInventory.getVirtualMachines("vc-1", this::fetch).getSecond();
+    assertEquals(1, myFetchCount.get());
+    assertSame(first, second);
+
+    myInventory.getVirtualMachines("vc-2", this::fetch);
+    assertEquals(2, myFetchCount.get());
+  }
+
+  public void return_fetch_time_of_snapshot() throws Exception {
+    final long startTime = System.currentTimeMillis();
+    final long fetchTime = myInventory.getVirtualMachines("vc-1", this::fetch).getFirst();
+    assertTrue(fetchTime >= startTime);
+    Thread.sleep(10);
+    assertEquals(fetchTime, myInventory.getVirtualMachines("vc-1", this::fetch).getFirst().longValue());
+  }
+
+  public void refetch_snapshot_older_than_caller_accepts() throws Exception {
+    myInventory.getVirtualMachines("vc-1", this::fetch);
+    Thread.sleep(10);
+    myInventory.getVirtualMachines("vc-1", 60 * 1000, this::fetch);
+    assertEquals(1, myFetchCount.get());
+
+    myInventory.getVirtualMachines("vc-1", 5, this::fetch);
+    assertEquals(2, myFetchCount.get());
+  }
+
+  public void concurrent_callers_share_single_fetch() throws Exception {
+    final CountDownLatch fetchStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFetch = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<Collection<VmwareInstance>> first = executor.submit(() -> myInventory.getVirtualMachines("vc-1", () -> {
+        fetchStarted.countDown();
+        try {
+          releaseFetch.await();
+        } catch (InterruptedException e) {
+          throw new VmwareCheckedCloudException(e);
+        }
+        return fetch();
+      }).getSecond());
+      assertTrue(fetchStarted.await(10, TimeUnit.SECONDS));
+      final Future<Collection<VmwareInstance>> second = executor.submit(() -> myInventory.getVirtualMachines("vc-1", this::fetch).getSecond());
+      releaseFetch.countDown();
+      assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+      assertEquals(1, myFetchCount.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void serve_recent_snapshot_while_fetching() throws Exception {
+    myInventory.getVirtualMachines("vc-1", this::fetch);
+    Thread.sleep(10);
+    final CountDownLatch fetchStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFetch = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> refetch = executor.submit(() -> myInventory.getVirtualMachines("vc-1", 5, () -> {
+        fetchStarted.countDown();
+        try {
+          releaseFetch.await();
+        } catch (InterruptedException e) {
+          throw new VmwareCheckedCloudException(e);
+        }
+        return fetch();
+      }));
+      assertTrue(fetchStarted.await(10, TimeUnit.SECONDS));
+      // the caller accepts the current snapshot, so it doesn't wait for the fetch
+      assertEquals(1, myInventory.getVirtualMachines("vc-1", 60 * 1000, this::fetch).getSecond().size());
+      assertEquals(1, myFetchCount.get());
+      releaseFetch.countDown();
+      refetch.get(10, TimeUnit.SECONDS);
+      assertEquals(2, myFetchCount.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void report_failed_fetch_to_waiting_callers() throws Exception {
+    final CountDownLatch fetchStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFetch = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<?> first = executor.submit(() -> myInventory.getVirtualMachines("vc-1", () -> {
+        fetchStarted.countDown();
+        try {
+          releaseFetch.await();
+        } catch (InterruptedException e) {
+          throw new VmwareCheckedCloudException(e);
+        }
+        throw new VmwareCheckedCloudException("vCenter is not available");
+      }));
+      assertTrue(fetchStarted.await(10, TimeUnit.SECONDS));
+      final Future<?> second = executor.submit(() -> myInventory.getVirtualMachines("vc-1", this::fetch));
+      Thread.sleep(100);
+      releaseFetch.countDown();
+      for (Future<?> future : Arrays.asList(first, second)) {
+        try {
+          future.get(10, TimeUnit.SECONDS);
+          fail("Exception expected");
+        } catch (ExecutionException ex) {
+          assertTrue(ex.getCause() instanceof VmwareCheckedCloudException);
+        }
+      }
+      assertEquals(0, myFetchCount.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void refetch_expired_snapshot() throws Exception {
+    myInventory.getVirtualMachines("vc-1", this::fetch);
+    setInternalProperty(VmwareSharedInventory.MAX_AGE_PROPERTY, "0");
+    myInventory.getVirtualMachines("vc-1", this::fetch);
+    assertEquals(2, myFetchCount.get());
+  }
+
+  public void failed_fetch_is_not_cached() throws Exception {
+    try {
+      myInventory.getVirtualMachines("vc-1", () -> {
+        throw new VmwareCheckedCloudException("vCenter is not available");
+      });
+      fail("Exception expected");
+    } catch (VmwareCheckedCloudException ex) {
+      // expected
+    }
+    assertEquals(1, myInventory.getVirtualMachines("vc-1", this::fetch).getSecond().size());
+    assertEquals(1, myFetchCount.get());
+  }
+
+  private Collection<VmwareInstance> fetch() {
+    myFetchCount.incrementAndGet();
+    return new ArrayList<>(Collections.singletonList(
+      new VmwareInstance("vm1", "vm-1", new OptionValue[0], VirtualMachinePowerState.poweredOn, false, "1", null, null, "datacenter-2")));
+  }
+}
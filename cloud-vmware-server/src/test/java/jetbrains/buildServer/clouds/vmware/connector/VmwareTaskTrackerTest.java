@@ -0,0 +1,120 @@
+package jetbrains.buildServer.clouds.vmware.connector;
+
+import com.vmware.vim25.*;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.Task;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VmwareTaskTrackerTest extends BaseTestCase {
+
+  private Map<String, TaskInfoState> myStates;
+  private List<Integer> myBatchSizes;
+  private boolean myFailBatch;
+  private VmwareTaskTracker myTracker;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // tasks are polled by the test itself
+    setInternalProperty("teamcity.vmware.task.tracker.poll.interval", String.valueOf(3600 * 1000));
+    myStates = new HashMap<>();
+    myBatchSizes = new ArrayList<>();
+    myFailBatch = false;
+    final PropertyCollector collector = new PropertyCollector(null, createMOR("PropertyCollector", "propertyCollector")) {
+      @Override
+      public RetrieveResult retrievePropertiesEx(final PropertyFilterSpec[] specSet, final RetrieveOptions options) throws RuntimeFault {
+        if (myFailBatch) {
+          throw new ManagedObjectNotFound();
+        }
+        final List<ObjectContent> objects = new ArrayList<>();
+        for (ObjectSpec objectSpec : specSet[0].getObjectSet()) {
+          final DynamicProperty state = new DynamicProperty();
+          state.setName("info.state");
+          state.setVal(myStates.get(objectSpec.getObj().getVal()));
+          final ObjectContent content = new ObjectContent();
+          content.setObj(objectSpec.getObj());
+          content.setPropSet(new DynamicProperty[]{state});
+          objects.add(content);
+        }
+        myBatchSizes.add(objects.size());
+        final RetrieveResult result = new RetrieveResult();
+        result.setObjects(objects.toArray(new ObjectContent[0]));
+        return result;
+      }
+    };
+    final ServiceInstance serviceInstance = new ServiceInstance((ServerConnection)null) {
+      @Override
+      public PropertyCollector getPropertyCollector() {
+        return collector;
+      }
+    };
+    myTracker = new VmwareTaskTracker(() -> serviceInstance, "Test task tracker");
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myTracker.dispose();
+    super.tearDown();
+  }
+
+  public void checks_all_tasks_in_one_request() throws Exception {
+    final CompletableFuture<TaskInfo> task1 = track("task-1", TaskInfoState.running);
+    final CompletableFuture<TaskInfo> task2 = track("task-2", TaskInfoState.queued);
+    final CompletableFuture<TaskInfo> task3 = track("task-3", TaskInfoState.error);
+
+    myTracker.poll();
+    assertFalse(task1.isDone());
+    assertFalse(task2.isDone());
+    assertEquals(TaskInfoState.error, task3.get().getState());
+
+    myStates.put("task-1", TaskInfoState.success);
+    myTracker.poll();
+    assertEquals(TaskInfoState.success, task1.get().getState());
+    assertFalse(task2.isDone());
+
+    assertEquals("[3, 2]", myBatchSizes.toString());
+  }
+
+  public void falls_back_to_single_task_requests() throws Exception {
+    final CompletableFuture<TaskInfo> task1 = track("task-1", TaskInfoState.success);
+    myFailBatch = true;
+    myTracker.poll();
+    assertEquals(TaskInfoState.success, task1.get().getState());
+  }
+
+  public void returns_client_side_tasks_as_is() {
+    final Task task = new Task(null, null);
+    assertSame(task, myTracker.track(task));
+  }
+
+  private CompletableFuture<TaskInfo> track(String taskId, TaskInfoState state) {
+    myStates.put(taskId, state);
+    final Task task = new Task(null, createMOR("Task", taskId)) {
+      @Override
+      public TaskInfo getTaskInfo() {
+        return VmwareFutureTask.createTaskInfo(myStates.get(taskId), null);
+      }
+    };
+    return ((VmwareFutureTask)myTracker.track(task)).getFuture();
+  }
+
+  private static ManagedObjectReference createMOR(String type, String val) {
+    final ManagedObjectReference mor = new ManagedObjectReference();
+    mor.setType(type);
+    mor.setVal(val);
+    return mor;
+  }
+}
@@ -6,11 +6,13 @@ import com.vmware.vim25.CustomizationSpec;
 import com.vmware.vim25.mo.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.rmi.RemoteException;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.clouds.server.CloudInstancesProvider;
 import jetbrains.buildServer.clouds.vmware.connector.VMWareApiConnectorImpl;
+import jetbrains.buildServer.clouds.vmware.connector.VirtualMachineInstantCloneSpec;
 import jetbrains.buildServer.clouds.vmware.connector.VmwareInstance;
 import jetbrains.buildServer.clouds.vmware.connector.beans.FolderBean;
 import jetbrains.buildServer.clouds.vmware.connector.beans.ResourcePoolBean;
@@ -131,6 +133,12 @@ public class FakeApiConnector extends VMWareApiConnectorImpl {
     return spec;
   }
 
+  @NotNull
+  @Override
+  protected Task instantClone(@NotNull final VirtualMachine vm, @NotNull final VirtualMachineInstantCloneSpec spec) throws RemoteException {
+    return ((FakeVirtualMachine)vm).instantClone(spec);
+  }
+
   private static FakeDatacenter getParentDC(ManagedEntity me){
     while (!(me ==null || me instanceof Datacenter)){
       me = me.getParent();
@@ -9,6 +9,7 @@ import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import jetbrains.buildServer.clouds.vmware.connector.VirtualMachineInstantCloneSpec;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.NotNull;
 
@@ -228,6 +229,23 @@ public class FakeVirtualMachine extends VirtualMachine {
     return conditionalTask();
   }
 
+  public Task instantClone(final VirtualMachineInstantCloneSpec spec) throws RemoteException {
+    FakeModel.instance().publishEvent(getName(), "instantClone_Task");
+    if (!myIsStarted.get()){
+      throw new RemoteException("Source VM is not running");
+    }
+    final FakeVirtualMachine newVm = FakeModel.instance().addVM(spec.getName(), true);
+    final ManagedObjectReference folderMor = spec.getLocation().getFolder();
+    FakeModel.instance().getFolders().values().stream()
+             .filter(f -> f.getMOR().getVal().equals(folderMor.getVal()))
+             .findAny()
+             .ifPresent(f -> newVm.setParentFolder(f.getName()));
+    for (OptionValue opt : spec.getConfig()) {
+      newVm.addCustomParam(opt.getKey(), opt.getValue());
+    }
+    return conditionalTask();
+  }
+
   @Override
   public Task reconfigVM_Task(final VirtualMachineConfigSpec spec) throws RemoteException {
     FakeModel.instance().publishEvent(getName(), "reconfigVM_Task");